@@ -38,7 +38,7 @@ public class AssetDatabaseOpenHelper {
      */
     public synchronized SQLiteDatabase getWritableDatabase() {
         File dbFile = context.getDatabasePath(databaseName);
-        if (dbFile != null && !dbFile.exists()) {
+        if (dbFile != null && !AtomicFileWriter.restore(dbFile).exists()) {
             try {
                 copyDatabase(dbFile);
             } catch (IOException e) {
@@ -58,7 +58,7 @@ public class AssetDatabaseOpenHelper {
      */
     public synchronized SQLiteDatabase getReadableDatabase() {
         File dbFile = context.getDatabasePath(databaseName);
-        if (dbFile != null && !dbFile.exists()) {
+        if (dbFile != null && !AtomicFileWriter.restore(dbFile).exists()) {
             try {
                 copyDatabase(dbFile);
             } catch (IOException e) {
@@ -76,9 +76,15 @@ public class AssetDatabaseOpenHelper {
         return databaseName;
     }
 
+    /**
+     * copy to a temp file and rename it, a copy broken by a crash is never taken as the database
+     */
     private void copyDatabase(File dbFile) throws IOException {
         InputStream stream = context.getAssets().open(databaseName);
-        FileUtils.writeFile(dbFile, stream);
-        stream.close();
+        try {
+            new AtomicFileWriter(dbFile, AtomicFileWriter.DURABILITY_DATA).write(stream);
+        } finally {
+            stream.close();
+        }
     }
 }
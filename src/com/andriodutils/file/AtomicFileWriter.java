@@ -0,0 +1,389 @@
+package com.andriodutils.file;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AtomicFileWriter, replaces a file as a whole, readers and the next launch after a crash see the old content or the
+ * new content, never a part of it
+ *
+ * <pre>
+ * AtomicFileWriter writer = new AtomicFileWriter(file, AtomicFileWriter.DURABILITY_DATA);
+ * OutputStream out = writer.startWrite();
+ * try {
+ *     out.write(data);
+ *     writer.finishWrite(out);
+ * } catch (IOException e) {
+ *     writer.failWrite(out);
+ *     throw e;
+ * }
+ * </pre>
+ * <ul>
+ * <li>content is written to a sibling temp file, name of the file with {@link #TEMP_SUFFIX}, then renamed over the
+ * file. A temp file left by a crash is overwritten by the next write</li>
+ * <li>on file systems where rename can not replace an existing file, the old file is renamed to a backup with
+ * {@link #BACKUP_SUFFIX} first and deleted after the temp file is in place. A crash between the renames leaves only
+ * the backup, readers call {@link #restore(File)} before reading to get it back, writers of this class do it
+ * themselves</li>
+ * <li>durability decides what a power loss can undo, {@link #DURABILITY_NONE} only protects from crash of the
+ * process, {@link #DURABILITY_DATA} syncs content before renaming, {@link #DURABILITY_FULL} syncs metadata too</li>
+ * <li>{@link Batch} writes many small files and syncs them in one pass before renaming, so the file system can commit
+ * them together</li>
+ * <li>only one writer of the same file at the same time</li>
+ * </ul>
+ */
+public class AtomicFileWriter {
+
+    /** no sync, the new content may be empty after a power loss **/
+    public static final int    DURABILITY_NONE = 0;
+    /** sync content of the temp file before renaming, like fdatasync **/
+    public static final int    DURABILITY_DATA = 1;
+    /** sync content and metadata of the temp file before renaming, like fsync **/
+    public static final int    DURABILITY_FULL = 2;
+    /** suffix of temp file **/
+    public static final String TEMP_SUFFIX     = ".tmp";
+    /** suffix of backup file, kept while an existing file can not be replaced by rename **/
+    public static final String BACKUP_SUFFIX   = ".bak";
+
+    private static final int   BUFFER_SIZE     = 64 * 1024;
+
+    private final File         file;
+    private final File         tempFile;
+    private final int          durability;
+
+    /**
+     * writer with {@link #DURABILITY_DATA}
+     *
+     * @param file
+     */
+    public AtomicFileWriter(File file) {
+        this(file, DURABILITY_DATA);
+    }
+
+    /**
+     * @param file
+     * @param durability one of DURABILITY_*
+     */
+    public AtomicFileWriter(File file, int durability) {
+        if (file == null) {
+            throw new IllegalArgumentException("file can not be null");
+        }
+        checkDurability(durability);
+        this.file = file;
+        this.tempFile = getTempFile(file);
+        this.durability = durability;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getDurability() {
+        return durability;
+    }
+
+    /**
+     * start writing the temp file, parent directories are created
+     *
+     * @return buffered stream, pass it to {@link #finishWrite(OutputStream)} or {@link #failWrite(OutputStream)}
+     * @throws IOException
+     */
+    public OutputStream startWrite() throws IOException {
+        restore(file);
+        makeParent(file);
+        return new TempOutputStream(new FileOutputStream(tempFile));
+    }
+
+    /**
+     * flush, sync by durability, close and rename the temp file over the file. If it fails, the temp file is deleted
+     * and the file is not changed
+     *
+     * @param out returned by {@link #startWrite()}
+     * @throws IOException
+     */
+    public void finishWrite(OutputStream out) throws IOException {
+        TempOutputStream temp = (TempOutputStream)out;
+        boolean isFinished = false;
+        try {
+            temp.flush();
+            sync(temp.output, durability);
+            temp.close();
+            rename(tempFile, file);
+            isFinished = true;
+        } finally {
+            if (!isFinished) {
+                failWrite(out);
+            }
+        }
+    }
+
+    /**
+     * close and delete the temp file, the file is not changed
+     *
+     * @param out returned by {@link #startWrite()}
+     */
+    public void failWrite(OutputStream out) {
+        IOUtils.closeQuietly(out);
+        tempFile.delete();
+    }
+
+    /**
+     * replace content of the file
+     *
+     * @param data
+     * @throws IOException
+     */
+    public void write(byte[] data) throws IOException {
+        OutputStream out = startWrite();
+        boolean isWritten = false;
+        try {
+            out.write(data);
+            isWritten = true;
+        } finally {
+            if (!isWritten) {
+                failWrite(out);
+            }
+        }
+        finishWrite(out);
+    }
+
+    /**
+     * replace content of the file by the stream, the stream is not closed
+     *
+     * @param input
+     * @throws IOException
+     */
+    public void write(InputStream input) throws IOException {
+        OutputStream out = startWrite();
+        boolean isWritten = false;
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = input.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+            isWritten = true;
+        } finally {
+            if (!isWritten) {
+                failWrite(out);
+            }
+        }
+        finishWrite(out);
+    }
+
+    /**
+     * @param file
+     * @return sibling temp file of file
+     */
+    public static File getTempFile(File file) {
+        return new File(file.getPath() + TEMP_SUFFIX);
+    }
+
+    /**
+     * @param file
+     * @return sibling backup file of file
+     */
+    public static File getBackupFile(File file) {
+        return new File(file.getPath() + BACKUP_SUFFIX);
+    }
+
+    /**
+     * recover the file replaced by a write interrupted by a crash, call it before reading a file written by this class
+     * <ul>
+     * <li>if the file does not exist but its backup does, the backup is renamed back to the file</li>
+     * <li>if both exist, the file is already replaced and the backup is deleted</li>
+     * </ul>
+     *
+     * @param file
+     * @return the file
+     */
+    public static File restore(File file) {
+        File backup = getBackupFile(file);
+        if (backup.exists()) {
+            if (file.exists()) {
+                backup.delete();
+            } else {
+                backup.renameTo(file);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * delete the file with its backup and temp file
+     *
+     * @param file
+     * @return whether the file does not exist any more
+     */
+    public static boolean delete(File file) {
+        getBackupFile(file).delete();
+        getTempFile(file).delete();
+        return file.delete() || !file.exists();
+    }
+
+    private static void checkDurability(int durability) {
+        if (durability < DURABILITY_NONE || durability > DURABILITY_FULL) {
+            throw new IllegalArgumentException("durability must be one of DURABILITY_*");
+        }
+    }
+
+    private static void makeParent(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("can not create directory " + parent.getPath());
+        }
+    }
+
+    private static void sync(FileOutputStream output, int durability) throws IOException {
+        if (durability == DURABILITY_DATA) {
+            output.getChannel().force(false);
+        } else if (durability == DURABILITY_FULL) {
+            output.getChannel().force(true);
+        }
+    }
+
+    private static void rename(File tempFile, File file) throws IOException {
+        if (tempFile.renameTo(file)) {
+            return;
+        }
+        // rename replaces the file atomically on android, some other file systems can not replace an existing file.
+        // Move the file to a backup first, so there is always a complete copy to restore
+        File backup = getBackupFile(file);
+        if (file.exists()) {
+            backup.delete();
+            if (!file.renameTo(backup)) {
+                throw new IOException("can not rename " + file.getPath() + " to " + backup.getPath());
+            }
+        }
+        if (!tempFile.renameTo(file)) {
+            backup.renameTo(file);
+            throw new IOException("can not rename " + tempFile.getPath() + " to " + file.getPath());
+        }
+        backup.delete();
+    }
+
+    /**
+     * Batch, replaces many small files with one sync pass
+     *
+     * <pre>
+     * AtomicFileWriter.Batch batch = new AtomicFileWriter.Batch(AtomicFileWriter.DURABILITY_DATA);
+     * batch.add(file1, data1);
+     * batch.add(file2, data2);
+     * batch.commit();
+     * </pre>
+     * <ul>
+     * <li>all temp files are written first, then synced, then renamed, so the syncs after the first find little
+     * left to write</li>
+     * <li>every file is replaced atomically, but not the batch as a whole, a crash while renaming leaves some files
+     * new and others old</li>
+     * <li>contents are kept in memory until commit, it is for small files</li>
+     * </ul>
+     */
+    public static class Batch {
+
+        /** max temp files open at the same time **/
+        private static final int        MAX_OPEN_FILES = 64;
+
+        private final int               durability;
+        private final Map<File, byte[]> contents       = new LinkedHashMap<File, byte[]>();
+
+        /**
+         * @param durability one of DURABILITY_*
+         */
+        public Batch(int durability) {
+            checkDurability(durability);
+            this.durability = durability;
+        }
+
+        /**
+         * add a file to replace, content added later for the same file replaces the former
+         *
+         * @param file
+         * @param content
+         * @return this
+         */
+        public Batch add(File file, byte[] content) {
+            if (file == null || content == null) {
+                throw new IllegalArgumentException("file and content can not be null");
+            }
+            contents.put(file.getAbsoluteFile(), content);
+            return this;
+        }
+
+        /**
+         * @return count of files added
+         */
+        public int size() {
+            return contents.size();
+        }
+
+        /**
+         * write all files added, the batch is empty after commit even if it fails
+         *
+         * @throws IOException files renamed before failure are replaced, others are not changed
+         */
+        public void commit() throws IOException {
+            List<Map.Entry<File, byte[]>> entries = new ArrayList<Map.Entry<File, byte[]>>(contents.entrySet());
+            contents.clear();
+            for (int start = 0; start < entries.size(); start += MAX_OPEN_FILES) {
+                commit(entries.subList(start, Math.min(entries.size(), start + MAX_OPEN_FILES)));
+            }
+        }
+
+        private void commit(List<Map.Entry<File, byte[]>> entries) throws IOException {
+            List<FileOutputStream> outputs = new ArrayList<FileOutputStream>(entries.size());
+            int renamed = 0;
+            boolean isCommitted = false;
+            try {
+                for (Map.Entry<File, byte[]> entry : entries) {
+                    restore(entry.getKey());
+                    makeParent(entry.getKey());
+                    FileOutputStream output = new FileOutputStream(getTempFile(entry.getKey()));
+                    outputs.add(output);
+                    output.write(entry.getValue());
+                }
+                for (FileOutputStream output : outputs) {
+                    sync(output, durability);
+                }
+                for (FileOutputStream output : outputs) {
+                    output.close();
+                }
+                for (Map.Entry<File, byte[]> entry : entries) {
+                    rename(getTempFile(entry.getKey()), entry.getKey());
+                    renamed++;
+                }
+                isCommitted = true;
+            } finally {
+                if (!isCommitted) {
+                    for (FileOutputStream output : outputs) {
+                        IOUtils.closeQuietly(output);
+                    }
+                    for (int i = renamed; i < entries.size(); i++) {
+                        getTempFile(entries.get(i).getKey()).delete();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * buffered stream of the temp file
+     */
+    private static class TempOutputStream extends BufferedOutputStream {
+
+        private final FileOutputStream output;
+
+        TempOutputStream(FileOutputStream output) {
+            super(output, BUFFER_SIZE);
+            this.output = output;
+        }
+    }
+}
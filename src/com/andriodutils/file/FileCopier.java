@@ -0,0 +1,318 @@
+package com.andriodutils.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FileCopier, copies files and directory trees
+ *
+ * <pre>
+ * FileCopier copier = new FileCopier(4);
+ * copier.setPreserveTimestamps(true);
+ * copier.setProgressListener(listener);
+ * copier.copy(srcDir, destDir);
+ * </pre>
+ * <ul>
+ * <li>bytes are moved by {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, so the
+ * kernel copies them without passing through java buffers. If the channel can not transfer, a large direct buffer is
+ * used</li>
+ * <li>a directory tree is walked first, directories are created, then files are copied by at most maxThreads
+ * threads</li>
+ * <li>existing files of destination are overwritten, other files in destination directories are kept</li>
+ * <li>{@link ProgressListener} receives bytes copied of all files, it is called on copying threads</li>
+ * </ul>
+ */
+public class FileCopier {
+
+    /** default max threads copying files of a tree **/
+    public static final int       DEFAULT_MAX_THREADS = 2;
+
+    /** bytes of a transfer, progress is reported after every transfer **/
+    private static final long     TRANSFER_SIZE       = 8 * 1024 * 1024;
+    /** bytes of buffer if channel can not transfer **/
+    private static final int      BUFFER_SIZE         = 256 * 1024;
+
+    private final int             maxThreads;
+    private boolean               isPreserveTimestamps;
+    private ProgressListener      progressListener;
+
+    public FileCopier() {
+        this(DEFAULT_MAX_THREADS);
+    }
+
+    /**
+     * @param maxThreads max threads copying files of a tree, 1 represents copying in current thread
+     */
+    public FileCopier(int maxThreads) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("maxThreads must be positive");
+        }
+        this.maxThreads = maxThreads;
+    }
+
+    public boolean isPreserveTimestamps() {
+        return isPreserveTimestamps;
+    }
+
+    /**
+     * @param isPreserveTimestamps whether to set last modified time of copies to that of sources, default is false
+     */
+    public void setPreserveTimestamps(boolean isPreserveTimestamps) {
+        this.isPreserveTimestamps = isPreserveTimestamps;
+    }
+
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    /**
+     * @param progressListener null represents no progress
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * copy a file or a directory tree
+     *
+     * @param src file or directory
+     * @param dest path of the copy, parent directories are created
+     * @return bytes copied
+     * @throws IOException if src not exists, dest is src or inside it, or copying failed. Files copied before failure
+     *         are kept
+     */
+    public long copy(File src, File dest) throws IOException {
+        if (!src.exists()) {
+            throw new FileNotFoundException(src.getPath() + " not exists");
+        }
+        String srcPath = src.getCanonicalPath();
+        String destPath = dest.getCanonicalPath();
+        if (srcPath.equals(destPath) || (src.isDirectory() && destPath.startsWith(srcPath + File.separator))) {
+            throw new IOException("can not copy " + srcPath + " to itself " + destPath);
+        }
+
+        if (src.isFile()) {
+            Progress progress = new Progress(src.length(), progressListener);
+            copyFile(src, dest, isPreserveTimestamps, progress);
+            return progress.copied.get();
+        }
+
+        List<File[]> dirs = new ArrayList<File[]>();
+        List<File[]> files = new ArrayList<File[]>();
+        long total = walk(src, dest, dirs, files, new HashSet<String>());
+        Progress progress = new Progress(total, progressListener);
+        if (maxThreads == 1 || files.size() <= 1) {
+            for (File[] pair : files) {
+                copyFile(pair[0], pair[1], isPreserveTimestamps, progress);
+            }
+        } else {
+            copyInParallel(files, progress);
+        }
+        if (isPreserveTimestamps) {
+            // copying files changes time of directories, children are set before parents
+            for (int i = dirs.size() - 1; i >= 0; i--) {
+                dirs.get(i)[1].setLastModified(dirs.get(i)[0].lastModified());
+            }
+        }
+        return progress.copied.get();
+    }
+
+    /**
+     * copy a file in current thread
+     *
+     * @param src
+     * @param dest parent directories are created
+     * @param isPreserveTimestamp whether to set last modified time of dest to that of src
+     * @throws IOException
+     */
+    public static void copyFile(File src, File dest, boolean isPreserveTimestamp) throws IOException {
+        copyFile(src, dest, isPreserveTimestamp, null);
+    }
+
+    /**
+     * create directories of dest tree, collect pairs of source and dest, parents are before children
+     *
+     * @return total bytes of files
+     */
+    private static long walk(File srcDir, File destDir, List<File[]> dirs, List<File[]> files, Set<String> visited)
+        throws IOException {
+        // a link to an ancestor would never end
+        if (!visited.add(srcDir.getCanonicalPath())) {
+            return 0;
+        }
+        if (!destDir.isDirectory() && !destDir.mkdirs()) {
+            throw new IOException("can not create directory " + destDir.getPath());
+        }
+        dirs.add(new File[] {srcDir, destDir});
+
+        File[] children = srcDir.listFiles();
+        if (children == null) {
+            throw new IOException("can not list directory " + srcDir.getPath());
+        }
+        long total = 0;
+        for (File child : children) {
+            File destChild = new File(destDir, child.getName());
+            if (child.isDirectory()) {
+                total += walk(child, destChild, dirs, files, visited);
+            } else {
+                files.add(new File[] {child, destChild});
+                total += child.length();
+            }
+        }
+        return total;
+    }
+
+    private void copyInParallel(List<File[]> files, final Progress progress) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxThreads, files.size()),
+                                                                new CopyThreadFactory());
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(files.size());
+            for (File[] pair : files) {
+                final File src = pair[0];
+                final File dest = pair[1];
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws IOException {
+                        copyFile(src, dest, isPreserveTimestamps, progress);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("copying is interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            // stop the rest after the first failure
+            executor.shutdownNow();
+        }
+    }
+
+    private static void copyFile(File src, File dest, boolean isPreserveTimestamp, Progress progress)
+        throws IOException {
+        File parent = dest.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("can not create directory " + parent.getPath());
+        }
+
+        FileInputStream input = null;
+        FileOutputStream output = null;
+        try {
+            input = new FileInputStream(src);
+            output = new FileOutputStream(dest);
+            FileChannel in = input.getChannel();
+            FileChannel out = output.getChannel();
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long count = in.transferTo(position, Math.min(TRANSFER_SIZE, size - position), out);
+                if (count <= 0) {
+                    break;
+                }
+                position += count;
+                if (progress != null) {
+                    progress.add(count);
+                }
+            }
+            if (position < size) {
+                // some file systems and old kernels can not transfer
+                in.position(position);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    int count = buffer.remaining();
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                    if (progress != null) {
+                        progress.add(count);
+                    }
+                }
+            }
+            // data may be lost if closing fails, report it
+            output.close();
+            output = null;
+        } finally {
+            IOUtils.closeQuietly(input);
+            IOUtils.closeQuietly(output);
+        }
+        if (isPreserveTimestamp) {
+            dest.setLastModified(src.lastModified());
+        }
+    }
+
+    /**
+     * ProgressListener of copying
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param copiedBytes bytes copied of all files
+         * @param totalBytes bytes of all files when copying started
+         */
+        public void onProgress(long copiedBytes, long totalBytes);
+    }
+
+    private static class CopyThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "FileCopier-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static class Progress {
+
+        final long             total;
+        final AtomicLong       copied = new AtomicLong();
+        final ProgressListener listener;
+
+        Progress(long total, ProgressListener listener) {
+            this.total = total;
+            this.listener = listener;
+        }
+
+        void add(long count) {
+            long current = copied.addAndGet(count);
+            if (listener != null) {
+                listener.onProgress(current, total);
+            }
+        }
+    }
+}
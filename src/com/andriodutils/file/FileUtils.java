@@ -11,7 +11,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import com.andriodutils.string.StringUtils;
@@ -23,20 +30,25 @@ import android.text.TextUtils;
  * <ul>
  * Read or write file
  * <li>{@link #readFile(String, String)} read file</li>
+ * <li>{@link #readFile(File, String, boolean)} read file, keep line separators or not</li>
  * <li>{@link #readFileToList(String, String)} read file to string list</li>
+ * <li>{@link #openLineReader(String, String)} read lines one by one</li>
  * <li>{@link #writeFile(String, String, boolean)} write file from String</li>
  * <li>{@link #writeFile(String, String)} write file from String</li>
  * <li>{@link #writeFile(String, List, boolean)} write file from String List</li>
  * <li>{@link #writeFile(String, List)} write file from String List</li>
+ * <li>{@link #writeFile(String, Iterator, String, boolean)} write file from lines of Iterator</li>
  * <li>{@link #writeFile(String, InputStream)} write file</li>
  * <li>{@link #writeFile(String, InputStream, boolean)} write file</li>
  * <li>{@link #writeFile(File, InputStream)} write file</li>
  * <li>{@link #writeFile(File, InputStream, boolean)} write file</li>
+ * <li>{@link #writeFileAtomically(String, String, String, int)} write file atomically</li>
+ * <li>{@link #writeFileAtomically(File, InputStream, int)} write file atomically</li>
  * </ul>
  * <ul>
  * Operate file
  * <li>{@link #moveFile(File, File)} or {@link #moveFile(String, String)}</li>
- * <li>{@link #copyFile(String, String)}</li>
+ * <li>{@link #copyFile(String, String)}, {@link FileCopier} for directories</li>
  * <li>{@link #getFileExtension(String)}</li>
  * <li>{@link #getFileName(String)}</li>
  * <li>{@link #getFileNameWithoutExtension(String)}</li>
@@ -59,36 +71,51 @@ public class FileUtils {
     }
 
     /**
-     * read file
+     * read file, lines are joined by "\r\n"
      * 
      * @param filePath
      * @param charsetName The name of a supported {@link java.nio.charset.Charset </code>charset<code>}
      * @return if file not exist, return null, else return content of file
-     * @throws RuntimeException if an error occurs while operator BufferedReader
+     * @throws RuntimeException if an error occurs while reading file
+     * @see #readFile(File, String, boolean)
      */
     public static StringBuilder readFile(String filePath, String charsetName) {
-        File file = new File(filePath);
-        StringBuilder fileContent = new StringBuilder("");
+        return readFile(new File(filePath), charsetName, false);
+    }
+
+    /**
+     * read file
+     * <ul>
+     * <li>the buffer is sized by file length, bytes are read through {@link FileChannel} in blocks and decoded by a
+     * {@link CharsetDecoder} reused by the thread, so time is linear to file size</li>
+     * <li>malformed bytes are replaced by U+FFFD like {@link InputStreamReader}</li>
+     * </ul>
+     * 
+     * @param file
+     * @param charsetName The name of a supported {@link java.nio.charset.Charset </code>charset<code>}
+     * @param keepLineSeparators if true, return content as it is, else lines are joined by "\r\n" and the last line
+     *        separator is dropped, "\n", "\r" and "\r\n" are line separators like {@link BufferedReader#readLine()}
+     * @return if file not exist, return null, else return content of file
+     * @throws RuntimeException if an error occurs while reading file
+     */
+    public static StringBuilder readFile(File file, String charsetName, boolean keepLineSeparators) {
         if (file == null || !file.isFile()) {
             return null;
         }
 
-        BufferedReader reader = null;
+        FileInputStream input = null;
         try {
-            InputStreamReader is = new InputStreamReader(new FileInputStream(file), charsetName);
-            reader = new BufferedReader(is);
-            String line = null;
-            while ((line = reader.readLine()) != null) {
-                if (!fileContent.toString().equals("")) {
-                    fileContent.append("\r\n");
-                }
-                fileContent.append(line);
-            }
+            input = new FileInputStream(file);
+            FileChannel channel = input.getChannel();
+            FileDecoder decoder = FileDecoder.get(Charset.forName(charsetName));
+            long capacity = (long)(channel.size() * decoder.averageCharsPerByte()) + 16;
+            StringBuilder fileContent = new StringBuilder((int)Math.min(capacity, Integer.MAX_VALUE - 8));
+            decoder.decode(channel, fileContent, keepLineSeparators);
             return fileContent;
         } catch (IOException e) {
             throw new RuntimeException("IOException occurred. ", e);
         } finally {
-            close(reader);
+            close(input);
         }
     }
 
@@ -120,35 +147,52 @@ public class FileUtils {
     }
 
     /**
-     * write file
+     * write file in default charset, lines are separated by "\r\n"
      * 
      * @param filePath
      * @param contentList
      * @param append is append, if true, write to the end of file, else clear content of file and write into it
      * @return return false if contentList is empty, true otherwise
-     * @throws RuntimeException if an error occurs while operator FileWriter
+     * @throws RuntimeException if an error occurs while writing file
+     * @see #writeFile(String, Iterator, String, boolean)
      */
     public static boolean writeFile(String filePath, List<String> contentList, boolean append) {
         if (contentList==null ||contentList.size()==0) {
             return false;
         }
 
-        FileWriter fileWriter = null;
+        return writeFile(filePath, contentList.iterator(), Charset.defaultCharset().name(), append);
+    }
+
+    /**
+     * write lines of iterator to file, lines are separated by "\r\n", they are encoded into a large buffer and written
+     * in big chunks
+     * 
+     * @param filePath
+     * @param lines lines are written as they come, no list is built
+     * @param charsetName The name of a supported {@link java.nio.charset.Charset </code>charset<code>}
+     * @param append is append, if true, write to the end of file, else clear content of file and write into it
+     * @return return false if lines is empty, true otherwise
+     * @throws RuntimeException if an error occurs while writing file
+     * @see LineWriter
+     */
+    public static boolean writeFile(String filePath, Iterator<? extends CharSequence> lines, String charsetName,
+                                    boolean append) {
+        if (lines == null || !lines.hasNext()) {
+            return false;
+        }
+
+        LineWriter writer = null;
         try {
-            makeDirs(filePath);
-            fileWriter = new FileWriter(filePath, append);
-            int i = 0;
-            for (String line : contentList) {
-                if (i++ > 0) {
-                    fileWriter.write("\r\n");
-                }
-                fileWriter.write(line);
-            }
+            writer = new LineWriter(new File(filePath), charsetName, append);
+            writer.writeLines(lines);
+            writer.close();
+            writer = null;
             return true;
         } catch (IOException e) {
             throw new RuntimeException("IOException occurred. ", e);
         } finally {
-           close(fileWriter);
+            closeQuietly(writer);
         }
     }
 
@@ -242,6 +286,51 @@ public class FileUtils {
         }
     }
 
+    /**
+     * write file atomically, after a crash the file has the old content or the new content, never a part of it
+     * 
+     * @param filePath
+     * @param content
+     * @param charsetName The name of a supported {@link java.nio.charset.Charset </code>charset<code>}
+     * @param durability one of AtomicFileWriter.DURABILITY_*, what a power loss can undo
+     * @return return false if content is empty, true otherwise
+     * @throws RuntimeException if an error occurs while writing
+     * @see AtomicFileWriter
+     */
+    public static boolean writeFileAtomically(String filePath, String content, String charsetName, int durability) {
+        if (StringUtils.isEmpty(content)) {
+            return false;
+        }
+
+        try {
+            new AtomicFileWriter(new File(filePath), durability).write(content.getBytes(charsetName));
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("IOException occurred. ", e);
+        }
+    }
+
+    /**
+     * write file atomically, after a crash the file has the old content or the new content, never a part of it
+     * 
+     * @param file the file to be replaced
+     * @param stream the input stream, it is closed
+     * @param durability one of AtomicFileWriter.DURABILITY_*, what a power loss can undo
+     * @return return true
+     * @throws RuntimeException if an error occurs while writing
+     * @see AtomicFileWriter
+     */
+    public static boolean writeFileAtomically(File file, InputStream stream, int durability) {
+        try {
+            new AtomicFileWriter(file, durability).write(stream);
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("IOException occurred. ", e);
+        } finally {
+            close(stream);
+        }
+    }
+
     /**
      * move file
      * 
@@ -256,56 +345,66 @@ public class FileUtils {
     }
 
     /**
-     * move file
+     * move file or directory, if it can not be renamed, like to another storage, it is copied with timestamps and then
+     * deleted
      * 
      * @param srcFile
      * @param destFile
+     * @throws RuntimeException if an error occurs while copying
      */
     public static void moveFile(File srcFile, File destFile) {
         boolean rename = srcFile.renameTo(destFile);
         if (!rename) {
-            copyFile(srcFile.getAbsolutePath(), destFile.getAbsolutePath());
+            FileCopier copier = new FileCopier();
+            copier.setPreserveTimestamps(true);
+            try {
+                copier.copy(srcFile, destFile);
+            } catch (FileNotFoundException e) {
+                throw new RuntimeException("FileNotFoundException occurred. ", e);
+            } catch (IOException e) {
+                throw new RuntimeException("IOException occurred. ", e);
+            }
             deleteFile(srcFile.getAbsolutePath());
         }
     }
 
     /**
-     * copy file
+     * copy file by {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, use
+     * {@link FileCopier} to copy directories or report progress
      * 
      * @param sourceFilePath
      * @param destFilePath
      * @return
-     * @throws RuntimeException if an error occurs while operator FileOutputStream
+     * @throws RuntimeException if an error occurs while copying
      */
     public static boolean copyFile(String sourceFilePath, String destFilePath) {
-        InputStream inputStream = null;
         try {
-            inputStream = new FileInputStream(sourceFilePath);
+            FileCopier.copyFile(new File(sourceFilePath), new File(destFilePath), false);
+            return true;
         } catch (FileNotFoundException e) {
             throw new RuntimeException("FileNotFoundException occurred. ", e);
+        } catch (IOException e) {
+            throw new RuntimeException("IOException occurred. ", e);
         }
-        return writeFile(destFilePath, inputStream);
     }
 
     /**
-     * read file to string list, a element of list is a line
+     * read file to string list, a element of list is a line. To scan lines once, {@link #openLineReader(String, String)}
+     * keeps memory flat
      * 
      * @param filePath
      * @param charsetName The name of a supported {@link java.nio.charset.Charset </code>charset<code>}
      * @return if file not exist, return null, else return content of file
-     * @throws RuntimeException if an error occurs while operator BufferedReader
+     * @throws RuntimeException if an error occurs while reading file
      */
     public static List<String> readFileToList(String filePath, String charsetName) {
-        File file = new File(filePath);
-        List<String> fileContent = new ArrayList<String>();
-        if (file == null || !file.isFile()) {
+        LineReader reader = openLineReader(filePath, charsetName);
+        if (reader == null) {
             return null;
         }
 
-        BufferedReader reader = null;
+        List<String> fileContent = new ArrayList<String>();
         try {
-            InputStreamReader is = new InputStreamReader(new FileInputStream(file), charsetName);
-            reader = new BufferedReader(is);
             String line = null;
             while ((line = reader.readLine()) != null) {
                 fileContent.add(line);
@@ -318,6 +417,39 @@ public class FileUtils {
         }
     }
 
+    /**
+     * open file to read lines one by one, you need to close the reader yourself
+     * 
+     * <pre>
+     * LineReader reader = FileUtils.openLineReader(filePath, &quot;UTF-8&quot;);
+     * try {
+     *     for (String line : reader) {
+     *         // break to stop early
+     *     }
+     * } finally {
+     *     FileUtils.close(reader);
+     * }
+     * </pre>
+     * 
+     * @param filePath
+     * @param charsetName The name of a supported {@link java.nio.charset.Charset </code>charset<code>}
+     * @return if file not exist, return null, else return reader of file
+     * @throws RuntimeException if an error occurs while opening file
+     * @see LineReader
+     */
+    public static LineReader openLineReader(String filePath, String charsetName) {
+        File file = new File(filePath);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            return new LineReader(file, charsetName);
+        } catch (IOException e) {
+            throw new RuntimeException("IOException occurred. ", e);
+        }
+    }
+
     /**
      * get file name from path, not include suffix
      * 
@@ -577,6 +709,110 @@ public class FileUtils {
     }
     
 
+    /**
+     * decoder and buffers reused by reads on the same thread
+     */
+    private static class FileDecoder {
+
+        private static final ThreadLocal<FileDecoder> DECODERS    = new ThreadLocal<FileDecoder>();
+        private static final int                      BUFFER_SIZE = 32 * 1024;
+
+        private final Charset                         charset;
+        private final CharsetDecoder                  decoder;
+        private final ByteBuffer                      bytes       = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CharBuffer                      chars       = CharBuffer.allocate(BUFFER_SIZE);
+        /** a line separator is read but not written, the last one is dropped **/
+        private boolean                               isSeparatorPending;
+        /** last char is '\r', a following '\n' belongs to the same separator **/
+        private boolean                               isLastCR;
+
+        private FileDecoder(Charset charset) {
+            this.charset = charset;
+            this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                                  .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        static FileDecoder get(Charset charset) {
+            FileDecoder fileDecoder = DECODERS.get();
+            if (fileDecoder == null || !fileDecoder.charset.equals(charset)) {
+                fileDecoder = new FileDecoder(charset);
+                DECODERS.set(fileDecoder);
+            }
+            return fileDecoder;
+        }
+
+        float averageCharsPerByte() {
+            return decoder.averageCharsPerByte();
+        }
+
+        /**
+         * decode the channel from current position to the end
+         */
+        void decode(FileChannel channel, StringBuilder out, boolean keepLineSeparators) throws IOException {
+            decoder.reset();
+            bytes.clear();
+            chars.clear();
+            isSeparatorPending = false;
+            isLastCR = false;
+            boolean isEnd = false;
+            while (!isEnd) {
+                // at most a few bytes of an incomplete char are left, so there is always room to read
+                isEnd = channel.read(bytes) == -1;
+                bytes.flip();
+                while (decoder.decode(bytes, chars, isEnd).isOverflow()) {
+                    drain(out, keepLineSeparators);
+                }
+                bytes.compact();
+            }
+            while (decoder.flush(chars).isOverflow()) {
+                drain(out, keepLineSeparators);
+            }
+            drain(out, keepLineSeparators);
+        }
+
+        private void drain(StringBuilder out, boolean keepLineSeparators) {
+            char[] array = chars.array();
+            int end = chars.position();
+            if (keepLineSeparators) {
+                out.append(array, 0, end);
+            } else {
+                int start = 0;
+                for (int i = 0; i < end; i++) {
+                    char c = array[i];
+                    if (c != '\r' && c != '\n') {
+                        continue;
+                    }
+                    if (i > start) {
+                        appendLine(out, array, start, i);
+                    }
+                    start = i + 1;
+                    if (c == '\n' && isLastCR) {
+                        isLastCR = false;
+                        continue;
+                    }
+                    if (isSeparatorPending) {
+                        out.append("\r\n");
+                    }
+                    isSeparatorPending = true;
+                    isLastCR = c == '\r';
+                }
+                if (end > start) {
+                    appendLine(out, array, start, end);
+                }
+            }
+            chars.clear();
+        }
+
+        private void appendLine(StringBuilder out, char[] array, int start, int end) {
+            if (isSeparatorPending) {
+                out.append("\r\n");
+                isSeparatorPending = false;
+            }
+            isLastCR = false;
+            out.append(array, start, end - start);
+        }
+    }
+
     /**
      * Close closable object and wrap {@link IOException} with {@link RuntimeException}
      * @param closeable closeable object
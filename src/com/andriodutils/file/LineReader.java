@@ -0,0 +1,341 @@
+package com.andriodutils.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * LineReader, reads lines of a file one by one with flat memory
+ *
+ * <pre>
+ * LineReader reader = new LineReader(file, &quot;UTF-8&quot;);
+ * try {
+ *     CharSequence line;
+ *     while ((line = reader.readLineView(filter)) != null) {
+ *         // line is valid until next read
+ *     }
+ * } finally {
+ *     reader.close();
+ * }
+ * </pre>
+ * <ul>
+ * <li>bytes are decoded into a fixed size buffer, the buffer grows only for a line longer than it</li>
+ * <li>{@link #readLine()} returns a String, {@link #readLineView()} returns a view of the buffer without copying</li>
+ * <li>{@link LineFilter} checks the view, lines not accepted are skipped without creating a String</li>
+ * <li>"\n", "\r" and "\r\n" are line separators like {@link java.io.BufferedReader#readLine()}, they are not
+ * included in lines</li>
+ * <li>it can be used in for each loop, the reader is closed when the last line is read, close it yourself when
+ * breaking early</li>
+ * </ul>
+ *
+ * @see FileUtils#openLineReader(String, String)
+ */
+public class LineReader implements Closeable, Iterable<String> {
+
+    /** default chars of buffer **/
+    public static final int       DEFAULT_BUFFER_SIZE = 8 * 1024;
+    /** min bytes of read buffer, it must hold the bytes of any char **/
+    private static final int      MIN_BYTES_SIZE      = 64;
+
+    private final FileInputStream input;
+    private final FileChannel     channel;
+    private final CharsetDecoder  decoder;
+    private final ByteBuffer      bytes;
+    private final LineView        view                = new LineView();
+    private char[]                buffer;
+    private CharBuffer            chars;
+    /** unread chars are [start, end) of buffer, chars before scan have no line separator **/
+    private int                   start;
+    private int                   end;
+    private int                   scan;
+    private long                  lineNumber;
+    /** last line ended with '\r', skip '\n' at the beginning of next line **/
+    private boolean               isSkipLF;
+    private boolean               isInputEnd;
+    private boolean               isEof;
+    private boolean               isClosed;
+
+    /**
+     * @param file
+     * @param charsetName The name of a supported {@link java.nio.charset.Charset </code>charset<code>}
+     * @throws IOException if file can not be opened
+     */
+    public LineReader(File file, String charsetName) throws IOException {
+        this(file, charsetName, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param file
+     * @param charsetName The name of a supported {@link java.nio.charset.Charset </code>charset<code>}
+     * @param bufferSize chars of buffer, also bytes of read buffer
+     * @throws IOException if file can not be opened
+     */
+    public LineReader(File file, String charsetName, int bufferSize) throws IOException {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        this.decoder = Charset.forName(charsetName).newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.input = new FileInputStream(file);
+        this.channel = input.getChannel();
+        this.bytes = ByteBuffer.allocate(Math.max(bufferSize, MIN_BYTES_SIZE));
+        this.buffer = new char[bufferSize];
+        this.chars = CharBuffer.wrap(buffer);
+    }
+
+    /**
+     * read next line
+     *
+     * @return null if end of file reached
+     * @throws IOException
+     */
+    public String readLine() throws IOException {
+        return readLine(null);
+    }
+
+    /**
+     * read next line accepted by filter
+     *
+     * @param filter null represents all lines
+     * @return null if end of file reached
+     * @throws IOException
+     */
+    public String readLine(LineFilter filter) throws IOException {
+        CharSequence line = readLineView(filter);
+        return line == null ? null : line.toString();
+    }
+
+    /**
+     * read next line as a view of the buffer
+     *
+     * @return null if end of file reached, the view is reused and valid until next read
+     * @throws IOException
+     */
+    public CharSequence readLineView() throws IOException {
+        return readLineView(null);
+    }
+
+    /**
+     * read next line accepted by filter as a view of the buffer
+     *
+     * @param filter null represents all lines
+     * @return null if end of file reached, the view is reused and valid until next read
+     * @throws IOException
+     */
+    public CharSequence readLineView(LineFilter filter) throws IOException {
+        while (nextLine()) {
+            if (filter == null || filter.accept(view)) {
+                return view;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return count of lines read, including lines skipped by filters
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return iterator of lines, {@link IOException} is wrapped by {@link RuntimeException}
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+
+            private String  next;
+            private boolean isFetched;
+
+            @Override
+            public boolean hasNext() {
+                if (!isFetched) {
+                    try {
+                        next = readLine();
+                    } catch (IOException e) {
+                        throw new RuntimeException("IOException occurred. ", e);
+                    }
+                    isFetched = true;
+                    if (next == null) {
+                        FileUtils.closeQuietly(LineReader.this);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                isFetched = false;
+                return next;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!isClosed) {
+            isClosed = true;
+            input.close();
+        }
+    }
+
+    /**
+     * point view to next line
+     *
+     * @return false if end of file reached
+     */
+    private boolean nextLine() throws IOException {
+        if (isClosed) {
+            return false;
+        }
+        if (isSkipLF) {
+            if (start == end && !isEof) {
+                fill();
+            }
+            if (start < end && buffer[start] == '\n') {
+                start++;
+            }
+            isSkipLF = false;
+        }
+        scan = Math.max(scan, start);
+        while (true) {
+            for (int i = scan; i < end; i++) {
+                char c = buffer[i];
+                if (c == '\n' || c == '\r') {
+                    view.set(buffer, start, i);
+                    start = i + 1;
+                    scan = start;
+                    isSkipLF = c == '\r';
+                    lineNumber++;
+                    return true;
+                }
+            }
+            if (isEof) {
+                if (start == end) {
+                    return false;
+                }
+                view.set(buffer, start, end);
+                start = end;
+                lineNumber++;
+                return true;
+            }
+            scan = end;
+            fill();
+        }
+    }
+
+    /**
+     * decode more chars after end, move unread chars to the beginning first, grow the buffer if it is full
+     */
+    private void fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            scan -= start;
+            start = 0;
+        }
+        if (end == buffer.length) {
+            grow();
+        }
+        chars.limit(buffer.length);
+        chars.position(end);
+        int filled = end;
+        while (end == filled && !isEof) {
+            if (!isInputEnd && channel.read(bytes) == -1) {
+                isInputEnd = true;
+            }
+            bytes.flip();
+            CoderResult result = decoder.decode(bytes, chars, isInputEnd);
+            bytes.compact();
+            if (isInputEnd && result.isUnderflow() && decoder.flush(chars).isUnderflow()) {
+                isEof = true;
+            }
+            if (result.isOverflow() && chars.position() == filled) {
+                // room left is less than the chars of one code point, like a surrogate pair
+                grow();
+            }
+            end = chars.position();
+        }
+    }
+
+    private void grow() {
+        int position = chars.position();
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        chars = CharBuffer.wrap(buffer);
+        chars.position(position);
+    }
+
+    /**
+     * LineFilter, chooses lines to return
+     */
+    public interface LineFilter {
+
+        /**
+         * @param line view of the line, valid only in this call
+         * @return whether to return the line
+         */
+        public boolean accept(CharSequence line);
+    }
+
+    /**
+     * view of a line in the buffer
+     */
+    private static class LineView implements CharSequence {
+
+        private char[] array;
+        private int    offset;
+        private int    length;
+
+        void set(char[] array, int start, int end) {
+            this.array = array;
+            this.offset = start;
+            this.length = end - start;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+            }
+            return array[offset + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length);
+            }
+            return new String(array, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(array, offset, length);
+        }
+    }
+}
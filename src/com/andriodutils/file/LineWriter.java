@@ -0,0 +1,250 @@
+package com.andriodutils.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+
+/**
+ * LineWriter, writes text to a file in large chunks
+ *
+ * <pre>
+ * LineWriter writer = new LineWriter(file, &quot;UTF-8&quot;, false);
+ * try {
+ *     writer.writeLines(rows);
+ * } finally {
+ *     writer.close();
+ * }
+ * </pre>
+ * <ul>
+ * <li>chars are encoded by a {@link CharsetEncoder} of the given charset in blocks and collected in a large direct
+ * {@link ByteBuffer}, which is written through a {@link FileChannel} only when it is full, on {@link #flush()} and on
+ * {@link #close()}</li>
+ * <li>{@link #writeLine(CharSequence)} writes the line separator before every line except the first line of this
+ * writer, like {@link FileUtils#writeFile(String, java.util.List, boolean)}, no separator is left at the end</li>
+ * <li>{@link #writeLines(Iterator)} writes lines as they come, no list is needed</li>
+ * <li>unmappable chars are replaced by the replacement of the charset</li>
+ * <li>not thread safe</li>
+ * </ul>
+ */
+public class LineWriter implements Closeable, Flushable {
+
+    /** default bytes of buffer **/
+    public static final int        DEFAULT_BUFFER_SIZE    = 256 * 1024;
+    /** default line separator, same to {@link FileUtils} **/
+    public static final String     DEFAULT_LINE_SEPARATOR = "\r\n";
+
+    /** chars copied from text before encoding **/
+    private static final int       CHAR_BUFFER_SIZE       = 8 * 1024;
+    /** bytes encoded before copying to the direct buffer, encoders are much faster on arrays **/
+    private static final int       ENCODED_BUFFER_SIZE    = 32 * 1024;
+
+    private final FileOutputStream output;
+    private final FileChannel      channel;
+    private final CharsetEncoder   encoder;
+    private final ByteBuffer       bytes;
+    private final CharBuffer       chars                  = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    private final ByteBuffer       encoded                = ByteBuffer.allocate(ENCODED_BUFFER_SIZE);
+    private String                 lineSeparator          = DEFAULT_LINE_SEPARATOR;
+    private long                   lineCount;
+    private boolean                isClosed;
+
+    /**
+     * @param file parent directories are created
+     * @param charsetName The name of a supported {@link java.nio.charset.Charset </code>charset<code>}
+     * @param append if true, write to the end of file, else clear content of file and write into it
+     * @throws IOException if file can not be opened
+     */
+    public LineWriter(File file, String charsetName, boolean append) throws IOException {
+        this(file, charsetName, append, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param file parent directories are created
+     * @param charsetName The name of a supported {@link java.nio.charset.Charset </code>charset<code>}
+     * @param append if true, write to the end of file, else clear content of file and write into it
+     * @param bufferSize bytes of direct buffer
+     * @throws IOException if file can not be opened
+     */
+    public LineWriter(File file, String charsetName, boolean append, int bufferSize) throws IOException {
+        CharsetEncoder charsetEncoder = Charset.forName(charsetName).newEncoder();
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("can not create directory " + parent.getPath());
+        }
+        this.encoder = charsetEncoder.onMalformedInput(CodingErrorAction.REPLACE)
+                                     .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocateDirect(bufferSize);
+        this.output = new FileOutputStream(file, append);
+        this.channel = output.getChannel();
+    }
+
+    public String getLineSeparator() {
+        return lineSeparator;
+    }
+
+    /**
+     * @param lineSeparator default is {@link #DEFAULT_LINE_SEPARATOR}
+     */
+    public void setLineSeparator(String lineSeparator) {
+        if (lineSeparator == null) {
+            throw new IllegalArgumentException("lineSeparator can not be null");
+        }
+        this.lineSeparator = lineSeparator;
+    }
+
+    /**
+     * @return count of lines written by {@link #writeLine(CharSequence)} and {@link #writeLines(Iterator)}
+     */
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * write text as it is
+     *
+     * @param text
+     * @return this
+     * @throws IOException
+     */
+    public LineWriter write(CharSequence text) throws IOException {
+        if (isClosed) {
+            throw new IOException("writer is closed");
+        }
+        int length = text.length();
+        int offset = 0;
+        while (offset < length) {
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+            int count = Math.min(chars.remaining(), length - offset);
+            if (text instanceof String) {
+                ((String)text).getChars(offset, offset + count, chars.array(), chars.position());
+                chars.position(chars.position() + count);
+            } else {
+                for (int i = offset; i < offset + count; i++) {
+                    chars.put(text.charAt(i));
+                }
+            }
+            offset += count;
+        }
+        return this;
+    }
+
+    /**
+     * write a line, the line separator is written before it if it is not the first line
+     *
+     * @param line
+     * @return this
+     * @throws IOException
+     */
+    public LineWriter writeLine(CharSequence line) throws IOException {
+        if (lineCount > 0) {
+            write(lineSeparator);
+        }
+        write(line);
+        lineCount++;
+        return this;
+    }
+
+    /**
+     * write all lines of the iterator
+     *
+     * @param lines
+     * @return count of lines written
+     * @throws IOException
+     */
+    public long writeLines(Iterator<? extends CharSequence> lines) throws IOException {
+        long count = 0;
+        while (lines.hasNext()) {
+            writeLine(lines.next());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * write buffered chars to file, a high surrogate waiting for its pair is kept
+     */
+    @Override
+    public void flush() throws IOException {
+        if (isClosed) {
+            throw new IOException("writer is closed");
+        }
+        encode(false);
+        writeBytes();
+    }
+
+    /**
+     * write all buffered chars and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        try {
+            encode(true);
+            while (encoder.flush(encoded).isOverflow()) {
+                drainEncoded();
+            }
+            drainEncoded();
+            writeBytes();
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * encode staged chars and copy them to bytes, write bytes to file when bytes is full
+     *
+     * @param endOfInput
+     */
+    private void encode(boolean endOfInput) throws IOException {
+        chars.flip();
+        while (encoder.encode(chars, encoded, endOfInput).isOverflow()) {
+            drainEncoded();
+        }
+        drainEncoded();
+        // a high surrogate at the end is left for the next text
+        chars.compact();
+    }
+
+    private void drainEncoded() throws IOException {
+        encoded.flip();
+        while (encoded.hasRemaining()) {
+            if (!bytes.hasRemaining()) {
+                writeBytes();
+            }
+            if (encoded.remaining() <= bytes.remaining()) {
+                bytes.put(encoded);
+            } else {
+                int limit = encoded.limit();
+                encoded.limit(encoded.position() + bytes.remaining());
+                bytes.put(encoded);
+                encoded.limit(limit);
+            }
+        }
+        encoded.clear();
+    }
+
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
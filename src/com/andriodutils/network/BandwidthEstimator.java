@@ -0,0 +1,264 @@
+package com.andriodutils.network;
+
+/**
+ * BandwidthEstimator, {@link HttpEventListener} which estimates throughput and latency of the link from finished
+ * requests
+ * <ul>
+ * <strong>Usage</strong>
+ * <li><code>BandwidthEstimator estimator = new BandwidthEstimator();</code></li>
+ * <li><code>HttpUtils.setHttpEventListener(estimator);</code></li>
+ * <li><code>OkHttpManager.init(new OkHttpManager.Config.Builder().eventListener(estimator).build());</code></li>
+ * <li><code>NetworkStateMonitor.getInstance(context).addListener(estimator);</code> forget estimates when network
+ * changes</li>
+ * </ul>
+ * <ul>
+ * <strong>Estimate</strong>
+ * <li>bandwidth is an exponentially weighted moving average of bytes received on the wire divided by body reading
+ * time, responses smaller than minSampleBytes are skipped because their time is mostly latency</li>
+ * <li>latency is an exponentially weighted moving average of first byte time</li>
+ * <li>{@link #getLinkQuality()} is the worse of the classes by bandwidth and by latency, {@link #QUALITY_UNKNOWN}
+ * until {@link #MIN_SAMPLES} samples are recorded</li>
+ * </ul>
+ * <ul>
+ * <strong>Tuning</strong>
+ * <li>{@link #getSuggestedImageScale()} to pick image resolution, for example before
+ * <code>ImageUtils.getBitmapFromUrl</code></li>
+ * <li>{@link #getSuggestedPrefetchCount(int)} to limit speculative loading, nothing is prefetched on poor links</li>
+ * <li>{@link #getSuggestedParallelism()} for concurrent requests or <code>DownloadRequest.setSegmentCount</code></li>
+ * </ul>
+ */
+public class BandwidthEstimator implements HttpEventListener, NetworkStateMonitor.Listener {
+
+    public static final int           QUALITY_UNKNOWN          = 0;
+    /** under {@link #POOR_KBPS} **/
+    public static final int           QUALITY_POOR             = 1;
+    /** under {@link #MODERATE_KBPS} **/
+    public static final int           QUALITY_MODERATE         = 2;
+    /** under {@link #GOOD_KBPS} **/
+    public static final int           QUALITY_GOOD             = 3;
+    public static final int           QUALITY_EXCELLENT        = 4;
+
+    /** bandwidth upper bounds of qualities, in kilobits per second **/
+    public static final int           POOR_KBPS                = 150;
+    public static final int           MODERATE_KBPS            = 550;
+    public static final int           GOOD_KBPS                = 2000;
+    /** latency lower bounds of qualities, in milliseconds **/
+    public static final int           POOR_LATENCY_MILLIS      = 2000;
+    public static final int           MODERATE_LATENCY_MILLIS  = 800;
+    public static final int           GOOD_LATENCY_MILLIS      = 300;
+
+    /** samples needed before the quality is known **/
+    public static final int           MIN_SAMPLES              = 3;
+    /** default weight of a new sample **/
+    public static final double        DEFAULT_DECAY            = 0.2;
+    /** default min bytes of a bandwidth sample **/
+    public static final long          DEFAULT_MIN_SAMPLE_BYTES = 16 * 1024;
+
+    private final double              decay;
+    private final long                minSampleBytes;
+    private final HttpEventListener   delegate;
+
+    private volatile double           bandwidthKbps            = -1;
+    private volatile double           latencyMillis            = -1;
+    private volatile int              bandwidthSamples;
+    private volatile int              latencySamples;
+
+    public BandwidthEstimator() {
+        this(DEFAULT_DECAY, DEFAULT_MIN_SAMPLE_BYTES, null);
+    }
+
+    /**
+     * @param decay weight of a new sample, in (0, 1], larger follows changes faster
+     * @param minSampleBytes responses smaller than it are not bandwidth samples
+     * @param delegate listener which also receives every timing, can be null
+     */
+    public BandwidthEstimator(double decay, long minSampleBytes, HttpEventListener delegate) {
+        if (decay <= 0 || decay > 1) {
+            throw new IllegalArgumentException("decay must be in (0, 1]");
+        }
+        if (minSampleBytes < 0) {
+            throw new IllegalArgumentException("minSampleBytes can not be negative");
+        }
+        this.decay = decay;
+        this.minSampleBytes = minSampleBytes;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void onRequestEnd(HttpTiming timing) {
+        if (!timing.isFailed()) {
+            if (timing.getBytesReceived() >= minSampleBytes && timing.getBodyMillis() >= 0) {
+                // 8 bits per byte, per millisecond is kilobits per second
+                addBandwidth(timing.getBytesReceived() * 8.0 / Math.max(1, timing.getBodyMillis()));
+            }
+            if (timing.getFirstByteMillis() >= 0) {
+                addLatency(timing.getFirstByteMillis());
+            }
+        }
+        if (delegate != null) {
+            delegate.onRequestEnd(timing);
+        }
+    }
+
+    /**
+     * forget estimates of the old network
+     */
+    @Override
+    public void onNetworkStateChanged(NetworkState oldState, NetworkState newState) {
+        reset();
+    }
+
+    /**
+     * add a bandwidth sample measured elsewhere, like a download written to file
+     *
+     * @param bytes
+     * @param millis
+     */
+    public void addSample(long bytes, long millis) {
+        if (bytes >= minSampleBytes && millis >= 0) {
+            addBandwidth(bytes * 8.0 / Math.max(1, millis));
+        }
+    }
+
+    /**
+     * forget all samples
+     */
+    public synchronized void reset() {
+        bandwidthKbps = -1;
+        latencyMillis = -1;
+        bandwidthSamples = 0;
+        latencySamples = 0;
+    }
+
+    /**
+     * @return estimated bandwidth in kilobits per second, -1 if there is no sample
+     */
+    public double getBandwidthKbps() {
+        return bandwidthKbps;
+    }
+
+    /**
+     * @return estimated first byte time in milliseconds, -1 if there is no sample
+     */
+    public double getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * @return one of QUALITY_*
+     */
+    public int getLinkQuality() {
+        int byBandwidth = bandwidthSamples < MIN_SAMPLES ? QUALITY_UNKNOWN : getQualityByBandwidth(bandwidthKbps);
+        int byLatency = latencySamples < MIN_SAMPLES ? QUALITY_UNKNOWN : getQualityByLatency(latencyMillis);
+        if (byBandwidth == QUALITY_UNKNOWN) {
+            return byLatency;
+        }
+        if (byLatency == QUALITY_UNKNOWN) {
+            return byBandwidth;
+        }
+        return Math.min(byBandwidth, byLatency);
+    }
+
+    /**
+     * scale of image size to request, smaller images on slow links
+     *
+     * @return 0.5 for poor, 0.75 for moderate, otherwise 1
+     */
+    public float getSuggestedImageScale() {
+        switch (getLinkQuality()) {
+            case QUALITY_POOR:
+                return 0.5f;
+            case QUALITY_MODERATE:
+                return 0.75f;
+            default:
+                return 1f;
+        }
+    }
+
+    /**
+     * how many items to load ahead, unknown quality is regarded as moderate
+     *
+     * @param max count to prefetch on excellent links
+     * @return 0 for poor, a quarter for moderate, half for good, max for excellent
+     */
+    public int getSuggestedPrefetchCount(int max) {
+        switch (getLinkQuality()) {
+            case QUALITY_POOR:
+                return 0;
+            case QUALITY_GOOD:
+                return (max + 1) / 2;
+            case QUALITY_EXCELLENT:
+                return max;
+            default:
+                return (max + 3) / 4;
+        }
+    }
+
+    /**
+     * how many transfers to run at the same time, more connections do not help a saturated link
+     *
+     * @return 1 for poor, 2 for moderate or unknown, 4 for good, 6 for excellent
+     */
+    public int getSuggestedParallelism() {
+        switch (getLinkQuality()) {
+            case QUALITY_POOR:
+                return 1;
+            case QUALITY_GOOD:
+                return 4;
+            case QUALITY_EXCELLENT:
+                return 6;
+            default:
+                return 2;
+        }
+    }
+
+    /**
+     * @param kbps
+     * @return one of QUALITY_*, {@link #QUALITY_UNKNOWN} if kbps is negative
+     */
+    public static int getQualityByBandwidth(double kbps) {
+        if (kbps < 0) {
+            return QUALITY_UNKNOWN;
+        } else if (kbps < POOR_KBPS) {
+            return QUALITY_POOR;
+        } else if (kbps < MODERATE_KBPS) {
+            return QUALITY_MODERATE;
+        } else if (kbps < GOOD_KBPS) {
+            return QUALITY_GOOD;
+        }
+        return QUALITY_EXCELLENT;
+    }
+
+    /**
+     * @param millis
+     * @return one of QUALITY_*, {@link #QUALITY_UNKNOWN} if millis is negative
+     */
+    public static int getQualityByLatency(double millis) {
+        if (millis < 0) {
+            return QUALITY_UNKNOWN;
+        } else if (millis >= POOR_LATENCY_MILLIS) {
+            return QUALITY_POOR;
+        } else if (millis >= MODERATE_LATENCY_MILLIS) {
+            return QUALITY_MODERATE;
+        } else if (millis >= GOOD_LATENCY_MILLIS) {
+            return QUALITY_GOOD;
+        }
+        return QUALITY_EXCELLENT;
+    }
+
+    private synchronized void addBandwidth(double kbps) {
+        bandwidthKbps = bandwidthSamples == 0 ? kbps : bandwidthKbps + decay * (kbps - bandwidthKbps);
+        bandwidthSamples++;
+    }
+
+    private synchronized void addLatency(double millis) {
+        latencyMillis = latencySamples == 0 ? millis : latencyMillis + decay * (millis - latencyMillis);
+        latencySamples++;
+    }
+
+    @Override
+    public String toString() {
+        return "quality=" + getLinkQuality() + " bandwidth=" + Math.round(bandwidthKbps) + "kbps/" + bandwidthSamples
+               + " latency=" + Math.round(latencyMillis) + "ms/" + latencySamples;
+    }
+}
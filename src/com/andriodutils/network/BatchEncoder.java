@@ -0,0 +1,34 @@
+package com.andriodutils.network;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * BatchEncoder, the wire format of a batch of {@link HttpBatcher}
+ * <ul>
+ * <li>{@link LineBatchEncoder} posts paras of every request in one line</li>
+ * <li>implementations are called on batch threads, they must be thread safe</li>
+ * </ul>
+ */
+public interface BatchEncoder {
+
+    /**
+     * build one request which carries all requests
+     *
+     * @param url endpoint shared by all requests
+     * @param requests in submitting order, at least one
+     * @return request posted to url
+     * @throws IOException
+     */
+    public HttpRequest encode(String url, List<HttpRequest> requests) throws IOException;
+
+    /**
+     * split the response of the batch request
+     *
+     * @param response response of request returned by {@link #encode(String, List)}
+     * @param requests same to the list passed to {@link #encode(String, List)}
+     * @return one response for every request in the same order
+     * @throws IOException if response is invalid, then every request fails
+     */
+    public List<HttpResponse> decode(HttpResponse response, List<HttpRequest> requests) throws IOException;
+}
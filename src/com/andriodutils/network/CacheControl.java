@@ -0,0 +1,175 @@
+package com.andriodutils.network;
+
+/**
+ * CacheControl, directives of Cache-Control header
+ *
+ * <pre>
+ * CacheControl.parse("max-age=60, must-revalidate").getMaxAgeSeconds() = 60
+ * CacheControl.parse("no-cache").isNoCache()                          = true
+ * CacheControl.parse(null).getMaxAgeSeconds()                         = -1
+ * </pre>
+ */
+public class CacheControl {
+
+    /** no directives **/
+    public static final CacheControl EMPTY = new CacheControl(false, false, false, false, false, -1);
+
+    private final boolean            noCache;
+    private final boolean            noStore;
+    private final boolean            mustRevalidate;
+    private final boolean            isPrivate;
+    private final boolean            isPublic;
+    private final long               maxAgeSeconds;
+
+    private CacheControl(boolean noCache, boolean noStore, boolean mustRevalidate, boolean isPrivate,
+                         boolean isPublic, long maxAgeSeconds) {
+        this.noCache = noCache;
+        this.noStore = noStore;
+        this.mustRevalidate = mustRevalidate;
+        this.isPrivate = isPrivate;
+        this.isPublic = isPublic;
+        this.maxAgeSeconds = maxAgeSeconds;
+    }
+
+    /**
+     * parse value of Cache-Control header
+     *
+     * @param value can be null
+     * @return {@link #EMPTY} if value is empty
+     */
+    public static CacheControl parse(String value) {
+        if (value == null || value.length() == 0) {
+            return EMPTY;
+        }
+
+        boolean noCache = false;
+        boolean noStore = false;
+        boolean mustRevalidate = false;
+        boolean isPrivate = false;
+        boolean isPublic = false;
+        long maxAgeSeconds = -1;
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            // directive name
+            int nameStart = skipWhitespace(value, i);
+            int nameEnd = nameStart;
+            while (nameEnd < length && value.charAt(nameEnd) != '=' && value.charAt(nameEnd) != ',') {
+                nameEnd++;
+            }
+            int trimmedEnd = nameEnd;
+            while (trimmedEnd > nameStart && value.charAt(trimmedEnd - 1) == ' ') {
+                trimmedEnd--;
+            }
+
+            // directive argument, may be quoted
+            int argumentStart = -1;
+            int argumentEnd = -1;
+            i = nameEnd;
+            if (i < length && value.charAt(i) == '=') {
+                i = skipWhitespace(value, i + 1);
+                if (i < length && value.charAt(i) == '"') {
+                    argumentStart = i + 1;
+                    argumentEnd = value.indexOf('"', argumentStart);
+                    if (argumentEnd == -1) {
+                        argumentEnd = length;
+                    }
+                    i = argumentEnd + 1;
+                } else {
+                    argumentStart = i;
+                    while (i < length && value.charAt(i) != ',') {
+                        i++;
+                    }
+                    argumentEnd = i;
+                    while (argumentEnd > argumentStart && value.charAt(argumentEnd - 1) == ' ') {
+                        argumentEnd--;
+                    }
+                }
+            }
+            while (i < length && value.charAt(i) != ',') {
+                i++;
+            }
+            i++;
+
+            if (isDirective(value, nameStart, trimmedEnd, "no-cache")) {
+                noCache = true;
+            } else if (isDirective(value, nameStart, trimmedEnd, "no-store")) {
+                noStore = true;
+            } else if (isDirective(value, nameStart, trimmedEnd, "must-revalidate")) {
+                mustRevalidate = true;
+            } else if (isDirective(value, nameStart, trimmedEnd, "private")) {
+                isPrivate = true;
+            } else if (isDirective(value, nameStart, trimmedEnd, "public")) {
+                isPublic = true;
+            } else if (isDirective(value, nameStart, trimmedEnd, "max-age") && argumentStart != -1) {
+                maxAgeSeconds = parseSeconds(value, argumentStart, argumentEnd);
+            }
+        }
+        return new CacheControl(noCache, noStore, mustRevalidate, isPrivate, isPublic, maxAgeSeconds);
+    }
+
+    /**
+     * @return whether cached response must be revalidated before use
+     */
+    public boolean isNoCache() {
+        return noCache;
+    }
+
+    /**
+     * @return whether response must not be cached
+     */
+    public boolean isNoStore() {
+        return noStore;
+    }
+
+    public boolean isMustRevalidate() {
+        return mustRevalidate;
+    }
+
+    public boolean isPrivate() {
+        return isPrivate;
+    }
+
+    public boolean isPublic() {
+        return isPublic;
+    }
+
+    /**
+     * @return max-age in seconds, -1 represents not exist or invalid
+     */
+    public long getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    private static boolean isDirective(String value, int start, int end, String directive) {
+        return end - start == directive.length() && value.regionMatches(true, start, directive, 0, end - start);
+    }
+
+    /**
+     * @return -1 if invalid, {@link Integer#MAX_VALUE} if too large
+     */
+    private static long parseSeconds(String value, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        long seconds = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            seconds = seconds * 10 + (c - '0');
+            if (seconds > Integer.MAX_VALUE) {
+                return Integer.MAX_VALUE;
+            }
+        }
+        return seconds;
+    }
+
+    private static int skipWhitespace(String value, int i) {
+        while (i < value.length() && (value.charAt(i) == ' ' || value.charAt(i) == '\t')) {
+            i++;
+        }
+        return i;
+    }
+}
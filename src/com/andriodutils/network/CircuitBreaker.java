@@ -0,0 +1,229 @@
+package com.andriodutils.network;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CircuitBreaker, fails fast for a host which keeps failing
+ * <ul>
+ * <strong>States of each host</strong>
+ * <li>{@link #STATE_CLOSED} requests pass, after failureThreshold consecutive failures it becomes open</li>
+ * <li>{@link #STATE_OPEN} requests are rejected with {@link CircuitOpenException} for openMillis</li>
+ * <li>{@link #STATE_HALF_OPEN} one trial request passes, it closes the circuit if success, or opens it again</li>
+ * </ul>
+ * <ul>
+ * <strong>Attentions:</strong>
+ * <li>only network failures and responses of {@link HttpStatusException#isServerFailure()} count as failures, other
+ * error status means the host is alive</li>
+ * <li>every {@link #allowRequest(String)} returned true must be followed by {@link #onSuccess(String)} or
+ * {@link #onFailure(String, IOException)}</li>
+ * </ul>
+ */
+public class CircuitBreaker {
+
+    /** requests pass **/
+    public static final int                          STATE_CLOSED              = 0;
+    /** requests are rejected **/
+    public static final int                          STATE_OPEN                = 1;
+    /** one trial request passes **/
+    public static final int                          STATE_HALF_OPEN           = 2;
+
+    /** default consecutive failures to open the circuit **/
+    public static final int                          DEFAULT_FAILURE_THRESHOLD = 5;
+    /** default milliseconds the circuit keeps open **/
+    public static final long                         DEFAULT_OPEN_MILLIS       = 30 * 1000;
+
+    private final int                                failureThreshold;
+    private final long                               openMillis;
+    private final ConcurrentMap<String, HostCircuit> circuits                  = new ConcurrentHashMap<String, HostCircuit>();
+    private final AtomicLong                         rejectedCount             = new AtomicLong();
+
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    /**
+     * @param failureThreshold consecutive failures to open the circuit
+     * @param openMillis milliseconds the circuit keeps open before a trial request
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold <= 0 || openMillis < 0) {
+            throw new IllegalArgumentException("failureThreshold must be positive and openMillis can not be negative");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * get host of url, the key of circuits
+     *
+     * @param url
+     * @return host with port, url itself if it can not be parsed
+     */
+    public static String getHost(String url) {
+        try {
+            URI uri = new URI(url);
+            if (uri.getHost() != null) {
+                return uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+            }
+        } catch (Exception e) {
+            // use url as host
+        }
+        return url;
+    }
+
+    /**
+     * whether a request to the host may be sent
+     *
+     * @param host
+     * @return false if the circuit is open, or a trial request is in flight
+     */
+    public boolean allowRequest(String host) {
+        boolean isAllowed = getCircuit(host).allowRequest();
+        if (!isAllowed) {
+            rejectedCount.incrementAndGet();
+        }
+        return isAllowed;
+    }
+
+    /**
+     * like {@link #allowRequest(String)}, but throws if not allowed
+     *
+     * @param host
+     * @throws CircuitOpenException if the circuit is open
+     */
+    public void checkRequest(String host) throws CircuitOpenException {
+        if (!allowRequest(host)) {
+            throw new CircuitOpenException(host, getCircuit(host).getRemainingOpenMillis());
+        }
+    }
+
+    /**
+     * report a request to the host succeeded
+     *
+     * @param host
+     */
+    public void onSuccess(String host) {
+        getCircuit(host).onSuccess();
+    }
+
+    /**
+     * report a request to the host failed
+     *
+     * @param host
+     * @param e the failure, if it does not mean the host is down, it is same as success
+     */
+    public void onFailure(String host, IOException e) {
+        HostCircuit circuit = getCircuit(host);
+        if (isHostFailure(e)) {
+            circuit.onFailure();
+        } else if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+            // cancelled, tells nothing about the host
+            circuit.onCancelled();
+        } else {
+            circuit.onSuccess();
+        }
+    }
+
+    /**
+     * @param host
+     * @return {@link #STATE_CLOSED}, {@link #STATE_OPEN} or {@link #STATE_HALF_OPEN}
+     */
+    public int getState(String host) {
+        HostCircuit circuit = circuits.get(host);
+        return circuit == null ? STATE_CLOSED : circuit.getState();
+    }
+
+    /**
+     * @return count of requests rejected
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * close all circuits, like after network changed
+     */
+    public void reset() {
+        circuits.clear();
+    }
+
+    private static boolean isHostFailure(IOException e) {
+        if (e instanceof HttpStatusException) {
+            return ((HttpStatusException)e).isServerFailure();
+        }
+        if (e instanceof CircuitOpenException) {
+            return false;
+        }
+        return e instanceof SocketTimeoutException || !(e instanceof InterruptedIOException);
+    }
+
+    private HostCircuit getCircuit(String host) {
+        HostCircuit circuit = circuits.get(host);
+        if (circuit == null) {
+            circuit = new HostCircuit();
+            HostCircuit old = circuits.putIfAbsent(host, circuit);
+            if (old != null) {
+                circuit = old;
+            }
+        }
+        return circuit;
+    }
+
+    /**
+     * circuit of one host
+     */
+    private class HostCircuit {
+
+        private int     failures        = 0;
+        private long    openedAt        = 0;
+        private boolean isOpen          = false;
+        private boolean isTrialInFlight = false;
+
+        synchronized boolean allowRequest() {
+            if (!isOpen) {
+                return true;
+            }
+            if (System.currentTimeMillis() - openedAt < openMillis || isTrialInFlight) {
+                return false;
+            }
+            isTrialInFlight = true;
+            return true;
+        }
+
+        synchronized void onSuccess() {
+            failures = 0;
+            isOpen = false;
+            isTrialInFlight = false;
+        }
+
+        synchronized void onFailure() {
+            failures++;
+            if (isTrialInFlight || failures >= failureThreshold) {
+                isOpen = true;
+                openedAt = System.currentTimeMillis();
+            }
+            isTrialInFlight = false;
+        }
+
+        synchronized void onCancelled() {
+            isTrialInFlight = false;
+        }
+
+        synchronized int getState() {
+            if (!isOpen) {
+                return STATE_CLOSED;
+            }
+            return getRemainingOpenMillis() > 0 ? STATE_OPEN : STATE_HALF_OPEN;
+        }
+
+        synchronized long getRemainingOpenMillis() {
+            return isOpen ? Math.max(0, openMillis - (System.currentTimeMillis() - openedAt)) : 0;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.andriodutils.network;
+
+import java.io.IOException;
+
+/**
+ * CircuitOpenException, thrown by {@link CircuitBreaker} when requests to a host are rejected without calling the
+ * network
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String      host;
+    private final long        retryAfterMillis;
+
+    /**
+     * @param host
+     * @param retryAfterMillis milliseconds until the circuit lets a trial request through
+     */
+    public CircuitOpenException(String host, long retryAfterMillis) {
+        super("circuit open for " + host + ", retry after " + retryAfterMillis + "ms");
+        this.host = host;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return milliseconds until the circuit lets a trial request through
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,56 @@
+package com.andriodutils.network;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * CountingOutputStream, counts bytes written to the wrapped stream and reports them to {@link ProgressListener}
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+    private final ProgressListener listener;
+    private final long             total;
+    private long                   count;
+
+    public CountingOutputStream(OutputStream out) {
+        this(out, null, -1);
+    }
+
+    /**
+     * @param out
+     * @param listener null represents only counting
+     * @param total passed to listener
+     */
+    public CountingOutputStream(OutputStream out, ProgressListener listener, long total) {
+        super(out);
+        this.listener = listener;
+        this.total = total;
+    }
+
+    /**
+     * @return bytes written
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+        if (listener != null) {
+            listener.onProgress(count, total);
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        // FilterOutputStream writes byte by byte
+        out.write(buffer, offset, length);
+        count += length;
+        if (listener != null) {
+            listener.onProgress(count, total);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.andriodutils.network;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.andriodutils.network.HttpUtils.HttpListener;
+
+/**
+ * HttpBatcher, groups small posts to the same url into one round trip
+ *
+ * <pre>
+ * HttpBatcher batcher = new HttpBatcher(new LineBatchEncoder(), 200, 50, null);
+ * batcher.submit(new HttpRequest(url, parasMap), listener);
+ * </pre>
+ * <ul>
+ * <li>requests to the same url are collected until the window passed since the first one, or the batch is full</li>
+ * <li>a batch is encoded by {@link BatchEncoder}, posted by {@link HttpUtils#getHttpEngine()}, and the decoded
+ * responses are delivered to every {@link HttpCall} and {@link HttpListener}</li>
+ * <li>if the batch fails, every call fails, {@link HttpListener#onPostGet(HttpResponse)} gets null</li>
+ * <li>a call cancelled before its batch is sent is left out of the batch</li>
+ * <li>after {@link #shutdown()}, collecting batches are still sent, a request submitted fails at once</li>
+ * </ul>
+ */
+public class HttpBatcher {
+
+    /** default milliseconds a request waits for others **/
+    public static final long                  DEFAULT_WINDOW_MILLIS   = 200;
+    /** default max requests in a batch **/
+    public static final int                   DEFAULT_MAX_BATCH_SIZE  = 50;
+    /** default max batches sent at the same time **/
+    public static final int                   DEFAULT_MAX_CONCURRENCY = 2;
+
+    private static final long                 KEEP_ALIVE_SECONDS      = 30;
+
+    private final BatchEncoder                encoder;
+    private final long                        windowMillis;
+    private final int                         maxBatchSize;
+    private final Executor                    callbackExecutor;
+    private final ScheduledThreadPoolExecutor executor;
+    /** batch collecting of every url **/
+    private final Map<String, Batch>          pendingBatches          = new HashMap<String, Batch>();
+    /** guarded by pendingBatches **/
+    private boolean                           isShutdown;
+    private final AtomicLong                  batchCount              = new AtomicLong();
+    private final AtomicLong                  requestCount            = new AtomicLong();
+
+    /**
+     * default window and size, callbacks run on main thread
+     *
+     * @param encoder
+     */
+    public HttpBatcher(BatchEncoder encoder) {
+        this(encoder, DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_BATCH_SIZE, null);
+    }
+
+    /**
+     * @param encoder
+     * @param windowMillis max milliseconds the first request of a batch waits, 0 represents sending at once
+     * @param maxBatchSize a full batch is sent at once
+     * @param callbackExecutor executor to run callbacks of {@link HttpListener}, null represents main thread
+     */
+    public HttpBatcher(BatchEncoder encoder, long windowMillis, int maxBatchSize, Executor callbackExecutor) {
+        if (encoder == null) {
+            throw new IllegalArgumentException("encoder can not be null");
+        }
+        if (windowMillis < 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("window can not be negative and max batch size must be positive");
+        }
+        this.encoder = encoder;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.callbackExecutor = callbackExecutor == null ? new HttpDispatcher.MainThreadExecutor() : callbackExecutor;
+        this.executor = new ScheduledThreadPoolExecutor(DEFAULT_MAX_CONCURRENCY, new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "HttpBatcher-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * add a request to the batch of its url
+     *
+     * @param request
+     * @param listener can be null, {@link HttpListener#onPreGet()} is not called
+     * @return handle to cancel or wait for the response of this request, it fails with {@link IOException} if the
+     * batcher is shut down
+     */
+    public HttpCall submit(HttpRequest request, HttpListener listener) {
+        if (request == null || request.getUrl() == null) {
+            throw new IllegalArgumentException("request and its url can not be null");
+        }
+        HttpCall call = new HttpCall(request, 0, listener, callbackExecutor, new Callable<HttpResponse>() {
+
+            @Override
+            public HttpResponse call() {
+                throw new IllegalStateException("call of a batch is completed by its batch");
+            }
+        });
+        String url = request.getUrl();
+        boolean isRejected;
+        synchronized (pendingBatches) {
+            isRejected = isShutdown;
+            if (!isRejected) {
+                add(url, call);
+            }
+        }
+        if (isRejected) {
+            call.fail(new IOException("batcher is shut down"));
+        }
+        return call;
+    }
+
+    /**
+     * send all collecting batches now
+     */
+    public void flush() {
+        synchronized (pendingBatches) {
+            for (Batch batch : pendingBatches.values()) {
+                if (batch.timer != null) {
+                    batch.timer.cancel(false);
+                }
+                executor.execute(new SendTask(batch));
+            }
+            pendingBatches.clear();
+        }
+    }
+
+    /**
+     * send collecting batches and stop accepting requests
+     */
+    public void shutdown() {
+        synchronized (pendingBatches) {
+            isShutdown = true;
+            flush();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return count of batch requests sent
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * @return count of requests sent in batches, divided by {@link #getBatchCount()} it is the average batch size
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * add a call to the batch of its url, send the batch if it is full. Called under lock of pendingBatches, so
+     * shutdown can not stop the executor between removing and sending
+     */
+    private void add(String url, HttpCall call) {
+        Batch batch = pendingBatches.get(url);
+        if (batch == null) {
+            batch = new Batch(url);
+            pendingBatches.put(url, batch);
+            if (windowMillis > 0) {
+                batch.timer = executor.schedule(new FlushTask(batch), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        batch.calls.add(call);
+        if (batch.calls.size() >= maxBatchSize || windowMillis == 0) {
+            pendingBatches.remove(url);
+            if (batch.timer != null) {
+                batch.timer.cancel(false);
+            }
+            executor.execute(new SendTask(batch));
+        }
+    }
+
+    /**
+     * encode, post and fan out a batch
+     */
+    private void send(Batch batch) {
+        List<HttpCall> calls = new ArrayList<HttpCall>(batch.calls.size());
+        List<HttpRequest> requests = new ArrayList<HttpRequest>(batch.calls.size());
+        for (HttpCall call : batch.calls) {
+            if (!call.isDone()) {
+                calls.add(call);
+                requests.add(call.getRequest());
+            }
+        }
+        if (calls.isEmpty()) {
+            return;
+        }
+
+        batchCount.incrementAndGet();
+        requestCount.addAndGet(calls.size());
+        try {
+            HttpRequest batchRequest = encoder.encode(batch.url, requests);
+            HttpResponse response = HttpUtils.getHttpEngine().execute(HttpEngine.METHOD_POST, batchRequest);
+            List<HttpResponse> responses = encoder.decode(response, requests);
+            if (responses == null || responses.size() != calls.size()) {
+                throw new IOException("batch of " + calls.size() + " requests gets "
+                                      + (responses == null ? 0 : responses.size()) + " responses");
+            }
+            for (int i = 0; i < calls.size(); i++) {
+                calls.get(i).complete(responses.get(i));
+            }
+        } catch (IOException e) {
+            failAll(calls, e);
+        } catch (RuntimeException e) {
+            failAll(calls, e);
+        }
+    }
+
+    private static void failAll(List<HttpCall> calls, Throwable cause) {
+        for (HttpCall call : calls) {
+            call.fail(cause);
+        }
+    }
+
+    /**
+     * requests collecting for one url
+     */
+    private static class Batch {
+
+        final String         url;
+        final List<HttpCall> calls = new ArrayList<HttpCall>();
+        ScheduledFuture<?>   timer;
+
+        Batch(String url) {
+            this.url = url;
+        }
+    }
+
+    /**
+     * send the batch when window passed, if it is not sent for being full
+     */
+    private class FlushTask implements Runnable {
+
+        private final Batch batch;
+
+        FlushTask(Batch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            synchronized (pendingBatches) {
+                if (pendingBatches.get(batch.url) != batch) {
+                    return;
+                }
+                pendingBatches.remove(batch.url);
+            }
+            send(batch);
+        }
+    }
+
+    private class SendTask implements Runnable {
+
+        private final Batch batch;
+
+        SendTask(Batch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            send(batch);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.andriodutils.network;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+import com.andriodutils.file.IOUtils;
+
+/**
+ * HttpBody, request body written to the connection as a stream
+ * <ul>
+ * <strong>Create</strong>
+ * <li>{@link #create(String, byte[])}</li>
+ * <li>{@link #create(String, String)} encoded in utf-8</li>
+ * <li>{@link #create(String, File)} read in chunks while writing, the file is never loaded into memory</li>
+ * <li>{@link #create(String, InputStream, long)} can be written only once</li>
+ * <li>{@link HttpMultipartBody.Builder} for multipart/form-data</li>
+ * </ul>
+ * <ul>
+ * <strong>Attentions:</strong>
+ * <li>body with known length is sent in fixed length streaming mode, otherwise in chunked streaming mode</li>
+ * <li>{@link UrlConnectionEngine} writes it by {@link #writeTo(OutputStream)}, memory used does not depend on the size
+ * of body</li>
+ * </ul>
+ */
+public abstract class HttpBody {
+
+    /**
+     * @return value of Content-Type header, null represents not set
+     */
+    public abstract String getContentType();
+
+    /**
+     * @return bytes written by {@link #writeTo(OutputStream)}, -1 represents unknown
+     */
+    public abstract long getContentLength();
+
+    /**
+     * write body to output, output is not closed
+     *
+     * @param output
+     * @throws IOException
+     */
+    public abstract void writeTo(OutputStream output) throws IOException;
+
+    /**
+     * whether the body can be written again, a request with body which is not repeatable is not retried
+     *
+     * @return
+     */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * @param contentType
+     * @param content kept without copy
+     * @return
+     */
+    public static HttpBody create(final String contentType, final byte[] content) {
+        if (content == null) {
+            throw new IllegalArgumentException("content can not be null");
+        }
+        return new HttpBody() {
+
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+
+            @Override
+            public long getContentLength() {
+                return content.length;
+            }
+
+            @Override
+            public void writeTo(OutputStream output) throws IOException {
+                output.write(content);
+            }
+        };
+    }
+
+    /**
+     * @param contentType charset should be utf-8
+     * @param content encoded in utf-8
+     * @return
+     */
+    public static HttpBody create(String contentType, String content) {
+        if (content == null) {
+            throw new IllegalArgumentException("content can not be null");
+        }
+        return create(contentType, getBytes(content));
+    }
+
+    /**
+     * @param contentType
+     * @param file read when the body is written
+     * @return
+     */
+    public static HttpBody create(final String contentType, final File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("file can not be null");
+        }
+        return new HttpBody() {
+
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+
+            @Override
+            public long getContentLength() {
+                return file.length();
+            }
+
+            @Override
+            public void writeTo(OutputStream output) throws IOException {
+                InputStream input = new FileInputStream(file);
+                try {
+                    copy(input, output);
+                } finally {
+                    IOUtils.closeQuietly(input);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param contentType
+     * @param input read to the end and closed when the body is written
+     * @param length bytes of input, -1 represents unknown
+     * @return body which can be written only once
+     */
+    public static HttpBody create(final String contentType, final InputStream input, final long length) {
+        if (input == null) {
+            throw new IllegalArgumentException("input can not be null");
+        }
+        return new HttpBody() {
+
+            private boolean isWritten = false;
+
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+
+            @Override
+            public long getContentLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(OutputStream output) throws IOException {
+                synchronized (this) {
+                    if (isWritten) {
+                        throw new IOException("input stream of body has been consumed");
+                    }
+                    isWritten = true;
+                }
+                try {
+                    copy(input, output);
+                } finally {
+                    IOUtils.closeQuietly(input);
+                }
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * copy input to output by the read buffer of current thread
+     */
+    static void copy(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = ResponseBuffer.getReadBuffer();
+        int length;
+        while ((length = input.read(buffer)) != -1) {
+            output.write(buffer, 0, length);
+        }
+    }
+
+    static byte[] getBytes(String str) {
+        try {
+            return str.getBytes(HttpResponse.DEFAULT_CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
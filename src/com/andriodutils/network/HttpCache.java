@@ -0,0 +1,548 @@
+package com.andriodutils.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.andriodutils.file.IOUtils;
+import com.andriodutils.number.EncryptUtil;
+import com.andriodutils.string.StringUtils;
+
+import android.content.Context;
+
+/**
+ * HttpCache, http get with a memory and disk cache of responses
+ * <ul>
+ * <strong>Get</strong>
+ * <li>{@link #httpGet(HttpRequest)} http get synchronous, use cache if the response is fresh</li>
+ * <li>{@link #httpGet(String)}</li>
+ * <li>{@link #httpGetString(HttpRequest)}</li>
+ * <li>{@link #httpGetString(String)}</li>
+ * </ul>
+ * <ul>
+ * <strong>Rules</strong>
+ * <li>a response is fresh until {@link HttpResponse#getExpiredTime()}, which comes from max-age in Cache-Control or
+ * Expires</li>
+ * <li>fresh response is returned from cache without network, {@link HttpResponse#isInCache()} is true</li>
+ * <li>stale response or response with no-cache is revalidated with If-None-Match and If-Modified-Since, if server
+ * returns 304, cached body is returned with new expires</li>
+ * <li>only 200 response without no-store, which has expires or ETag or Last-Modified, will be cached</li>
+ * <li>responses are cached by url only, a response with Vary naming any request header except Accept-Encoding is
+ * not cached, it may differ for other requests of the same url, see RFC 7234 section 4.1</li>
+ * </ul>
+ * <ul>
+ * <strong>Statistics</strong>
+ * <li>{@link #getHitCount()}</li>
+ * <li>{@link #getMissCount()}</li>
+ * <li>{@link #getRevalidationCount()}</li>
+ * <li>{@link #getNotModifiedCount()}</li>
+ * </ul>
+ */
+public class HttpCache {
+
+    /** default max responses in memory **/
+    public static final int                       DEFAULT_MAX_MEMORY_SIZE = 64;
+    /** default max bytes on disk **/
+    public static final long                      DEFAULT_MAX_DISK_SIZE   = 10 * 1024 * 1024;
+    /** cache folder name in {@link Context#getCacheDir()} **/
+    public static final String                    CACHE_FOLDER_NAME       = "http_cache";
+
+    private static final int                      DISK_VERSION            = 1;
+    private static final String                   TEMP_FILE_SUFFIX        = ".tmp";
+
+    private final int                             type;
+    /** null represents memory cache only **/
+    private final File                            folder;
+    private final long                            maxDiskSize;
+    private final LinkedHashMap<String, HttpResponse> memoryCache;
+
+    private final AtomicLong                      hitCount                = new AtomicLong();
+    private final AtomicLong                      missCount               = new AtomicLong();
+    private final AtomicLong                      revalidationCount       = new AtomicLong();
+    private final AtomicLong                      notModifiedCount        = new AtomicLong();
+
+    /**
+     * cache in {@link Context#getCacheDir()}, type is 0
+     *
+     * @param context
+     */
+    public HttpCache(Context context) {
+        this(context, 0);
+    }
+
+    /**
+     * cache in {@link Context#getCacheDir()}
+     *
+     * @param context
+     * @param type type of responses, see {@link HttpResponse#setType(int)}. Caches of different types are stored
+     *        separately
+     */
+    public HttpCache(Context context, int type) {
+        this(new File(context.getCacheDir(), CACHE_FOLDER_NAME), type, DEFAULT_MAX_MEMORY_SIZE, DEFAULT_MAX_DISK_SIZE);
+    }
+
+    /**
+     * @param folder cache folder, null represents memory cache only
+     * @param type type of responses, see {@link HttpResponse#setType(int)}
+     * @param maxMemorySize max responses in memory, least recently used one will be removed
+     * @param maxDiskSize max bytes on disk, oldest files will be removed
+     */
+    public HttpCache(File folder, int type, final int maxMemorySize, long maxDiskSize) {
+        if (type < 0) {
+            throw new IllegalArgumentException("The type of HttpResponse cannot be smaller than 0.");
+        }
+        if (maxMemorySize <= 0) {
+            throw new IllegalArgumentException("maxMemorySize must be positive");
+        }
+        this.type = type;
+        this.folder = folder == null ? null : new File(folder, Integer.toString(type));
+        this.maxDiskSize = maxDiskSize;
+        this.memoryCache = new LinkedHashMap<String, HttpResponse>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, HttpResponse> eldest) {
+                return size() > maxMemorySize;
+            }
+        };
+    }
+
+    /**
+     * http get synchronous, use cache if the response is fresh
+     *
+     * @param request
+     * @return the response of the url, if null represents http error
+     */
+    public HttpResponse httpGet(HttpRequest request) {
+        if (request == null || StringUtils.isEmpty(request.getUrl())) {
+            return null;
+        }
+
+        String url = request.getUrl();
+        HttpResponse cached = getShared(url);
+        if (cached == null) {
+            missCount.incrementAndGet();
+            HttpResponse response = HttpUtils.httpGet(request);
+            put(response);
+            return response;
+        }
+        if (!cached.getCacheControl().isNoCache() && !cached.isExpired()) {
+            hitCount.incrementAndGet();
+            return copyOf(cached, true);
+        }
+
+        revalidationCount.incrementAndGet();
+        HttpResponse response = HttpUtils.httpGet(getConditionalRequest(request, cached));
+        if (response == null) {
+            return null;
+        }
+        if (response.getResponseCode() != HttpURLConnection.HTTP_NOT_MODIFIED) {
+            remove(url);
+            put(response);
+            return response;
+        }
+
+        notModifiedCount.incrementAndGet();
+        HttpResponse refreshed = copyOf(cached, false);
+        mergeHeaders(refreshed.getResponseHeaders(), response.getResponseHeaders());
+        refreshed.getExpiredTime();
+        if (!put(refreshed)) {
+            // 304 may make the response not cacheable, e.g. by a new Vary
+            remove(url);
+        }
+        return copyOf(refreshed, true);
+    }
+
+    /**
+     * http get synchronous
+     *
+     * @param httpUrl
+     * @return the response of the url, if null represents http error
+     * @see #httpGet(HttpRequest)
+     */
+    public HttpResponse httpGet(String httpUrl) {
+        return httpGet(new HttpRequest(httpUrl));
+    }
+
+    /**
+     * http get synchronous
+     *
+     * @param request
+     * @return the content of the url, if null represents http error
+     * @see #httpGet(HttpRequest)
+     */
+    public String httpGetString(HttpRequest request) {
+        HttpResponse response = httpGet(request);
+        return response == null ? null : response.getResponseBody();
+    }
+
+    /**
+     * http get synchronous
+     *
+     * @param httpUrl
+     * @return the content of the url, if null represents http error
+     * @see #httpGet(HttpRequest)
+     */
+    public String httpGetString(String httpUrl) {
+        return httpGetString(new HttpRequest(httpUrl));
+    }
+
+    /**
+     * get cached response, expired or not
+     *
+     * @param url
+     * @return a copy of the cached response, null if not in cache
+     */
+    public HttpResponse get(String url) {
+        HttpResponse cached = getShared(url);
+        return cached == null ? null : copyOf(cached, true);
+    }
+
+    /**
+     * put response into cache, a copy is cached so later changes of response do not affect the cache
+     *
+     * @param response
+     * @return whether the response is cached
+     */
+    public boolean put(HttpResponse response) {
+        if (!isCacheable(response)) {
+            return false;
+        }
+
+        // expired time of max-age is relative to now, fix it before cached
+        response.getExpiredTime();
+        response.setType(type);
+        HttpResponse cached = copyOf(response, true);
+        prepareShared(cached);
+        synchronized (memoryCache) {
+            memoryCache.put(cached.getUrl(), cached);
+        }
+        if (folder != null) {
+            writeToDisk(cached);
+        }
+        return true;
+    }
+
+    /**
+     * remove response of url from cache
+     *
+     * @param url
+     */
+    public void remove(String url) {
+        synchronized (memoryCache) {
+            memoryCache.remove(url);
+        }
+        if (folder != null) {
+            new File(folder, getFileName(url)).delete();
+        }
+    }
+
+    /**
+     * remove all responses from cache
+     */
+    public void clear() {
+        synchronized (memoryCache) {
+            memoryCache.clear();
+        }
+        File[] files = folder == null ? null : folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return times of fresh response returned without network
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return times of response not in cache
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return times of stale response revalidated
+     */
+    public long getRevalidationCount() {
+        return revalidationCount.get();
+    }
+
+    /**
+     * @return times of revalidation returned 304
+     */
+    public long getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * get the cached instance shared by threads, it must not be modified
+     *
+     * @param url
+     * @return null if not in cache
+     */
+    private HttpResponse getShared(String url) {
+        HttpResponse response;
+        synchronized (memoryCache) {
+            response = memoryCache.get(url);
+        }
+        if (response == null && folder != null) {
+            response = readFromDisk(url);
+            if (response != null && !isVaryCacheable(response)) {
+                // written before Vary was checked
+                response = null;
+            }
+            if (response != null) {
+                prepareShared(response);
+                synchronized (memoryCache) {
+                    memoryCache.put(url, response);
+                }
+            }
+        }
+        return response;
+    }
+
+    /**
+     * compute values derived from headers before the response is shared, so readers of the shared instance only read
+     */
+    private static void prepareShared(HttpResponse response) {
+        response.getCacheControl();
+        response.getExpiredTime();
+    }
+
+    private static boolean isCacheable(HttpResponse response) {
+        if (response == null || StringUtils.isEmpty(response.getUrl())
+            || response.getResponseCode() != HttpURLConnection.HTTP_OK || response.getCacheControl().isNoStore()
+            || !isVaryCacheable(response)) {
+            return false;
+        }
+        return response.getExpiredTime() > System.currentTimeMillis() || response.getETag() != null
+               || response.getResponseHeader("Last-Modified") != null;
+    }
+
+    /**
+     * the cache is keyed by url only, so a response selected by request headers can not be served to other requests.
+     * Accept-Encoding is allowed, the engine sends the same value for every request and decodes the body
+     */
+    private static boolean isVaryCacheable(HttpResponse response) {
+        HttpHeaders headers = response.getResponseHeaders();
+        if (headers == null) {
+            return true;
+        }
+        for (String vary : headers.getAll("Vary")) {
+            for (String field : vary.split(",")) {
+                field = field.trim();
+                if (field.length() != 0 && !"Accept-Encoding".equalsIgnoreCase(field)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * update stored headers by headers of 304 response, fields describing the body are kept, see RFC 7234 section
+     * 4.3.4
+     */
+    private static void mergeHeaders(HttpHeaders stored, HttpHeaders notModified) {
+        for (int i = 0; i < notModified.size(); i++) {
+            if (!isBodyHeader(notModified.name(i))) {
+                stored.remove(notModified.name(i));
+            }
+        }
+        for (int i = 0; i < notModified.size(); i++) {
+            if (!isBodyHeader(notModified.name(i))) {
+                stored.add(notModified.name(i), notModified.value(i));
+            }
+        }
+    }
+
+    private static boolean isBodyHeader(String field) {
+        return "Content-Length".equalsIgnoreCase(field) || "Content-Encoding".equalsIgnoreCase(field)
+               || "Content-Type".equalsIgnoreCase(field);
+    }
+
+    /**
+     * copy request and add validators of cached response
+     */
+    private static HttpRequest getConditionalRequest(HttpRequest request, HttpResponse cached) {
+        HttpRequest conditional = new HttpRequest(request);
+        String eTag = cached.getETag();
+        if (!StringUtils.isEmpty(eTag)) {
+            conditional.setRequestProperty("If-None-Match", eTag);
+        }
+        String lastModified = cached.getResponseHeader("Last-Modified");
+        if (!StringUtils.isEmpty(lastModified)) {
+            conditional.setRequestProperty("If-Modified-Since", lastModified);
+        }
+        return conditional;
+    }
+
+    /**
+     * cached response is shared, callers get a copy and the cache keeps a copy
+     *
+     * @param source
+     * @param keepExpiredTime if false, expired time will be computed again from headers
+     * @return
+     */
+    private static HttpResponse copyOf(HttpResponse source, boolean keepExpiredTime) {
+        HttpResponse response = new HttpResponse(source.getUrl());
+        response.setType(source.getType());
+        response.setResponseCode(source.getResponseCode());
+        response.setResponseHeaders(new HttpHeaders(source.getResponseHeaders()));
+        if (source.getResponseBodyBytes() != null) {
+            response.setResponseBody(source.getResponseBodyBytes(), source.getResponseBodyLength());
+        } else {
+            response.setResponseBody(source.getResponseBody());
+        }
+        if (keepExpiredTime) {
+            response.setExpiredTime(source.getExpiredTime());
+        }
+        return response.setInCache(true);
+    }
+
+    private static String getFileName(String url) {
+        return EncryptUtil.md5(url);
+    }
+
+    private HttpResponse readFromDisk(String url) {
+        File file = new File(folder, getFileName(url));
+        if (!file.isFile()) {
+            return null;
+        }
+
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (input.readInt() != DISK_VERSION || !url.equals(input.readUTF())) {
+                return null;
+            }
+            HttpResponse response = new HttpResponse(url);
+            response.setType(input.readInt());
+            response.setResponseCode(input.readInt());
+            response.setExpiredTime(input.readLong());
+            for (int i = input.readInt(); i > 0; i--) {
+                response.addResponseHeader(input.readUTF(), input.readUTF());
+            }
+            boolean isBytes = input.readBoolean();
+            byte[] body = new byte[input.readInt()];
+            input.readFully(body);
+            if (isBytes) {
+                response.setResponseBody(body, body.length);
+            } else {
+                response.setResponseBody(new String(body, HttpResponse.DEFAULT_CHARSET));
+            }
+            return response;
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    private void writeToDisk(HttpResponse response) {
+        if (!folder.exists() && !folder.mkdirs()) {
+            return;
+        }
+
+        File file = new File(folder, getFileName(response.getUrl()));
+        File temp = null;
+        DataOutputStream output = null;
+        try {
+            temp = File.createTempFile(file.getName(), TEMP_FILE_SUFFIX, folder);
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            output.writeInt(DISK_VERSION);
+            output.writeUTF(response.getUrl());
+            output.writeInt(response.getType());
+            output.writeInt(response.getResponseCode());
+            output.writeLong(response.getExpiredTime());
+            HttpHeaders headers = response.getResponseHeaders();
+            output.writeInt(headers.size());
+            for (int i = 0; i < headers.size(); i++) {
+                output.writeUTF(headers.name(i));
+                output.writeUTF(headers.value(i));
+            }
+            byte[] body = response.getResponseBodyBytes();
+            output.writeBoolean(body != null);
+            if (body != null) {
+                output.writeInt(response.getResponseBodyLength());
+                output.write(body, 0, response.getResponseBodyLength());
+            } else {
+                byte[] bytes = getBytes(response.getResponseBody());
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+            output.close();
+            output = null;
+            if (!temp.renameTo(file)) {
+                file.delete();
+                temp.renameTo(file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            IOUtils.closeQuietly(output);
+            if (temp != null && temp.exists()) {
+                temp.delete();
+            }
+        }
+        trimDisk();
+    }
+
+    private static byte[] getBytes(String body) throws UnsupportedEncodingException {
+        return body == null ? new byte[0] : body.getBytes(HttpResponse.DEFAULT_CHARSET);
+    }
+
+    /**
+     * remove oldest files until disk size is not bigger than max
+     */
+    private void trimDisk() {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= maxDiskSize) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified(), r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && size > maxDiskSize; i++) {
+            size -= files[i].length();
+            files[i].delete();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.andriodutils.network;
+
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.andriodutils.network.HttpUtils.HttpListener;
+
+/**
+ * HttpCall, handle of an asynchronous request submitted to {@link HttpDispatcher}
+ * <ul>
+ * <li>{@link #cancel()} cancel the request, {@link HttpListener#onCancelled()} will be called. A connection in use is
+ * disconnected, blocking reads of {@link HttpURLConnection} do not respond to interrupts</li>
+ * <li>{@link #get()} wait for the response like a {@link Future}</li>
+ * <li>{@link #isTimedOut()} whether the call passed its deadline, then {@link HttpListener#onPostGet(HttpResponse)}
+ * gets null</li>
+ * </ul>
+ */
+public class HttpCall extends FutureTask<HttpResponse> {
+
+    private final HttpRequest  request;
+    private final HttpListener listener;
+    private final Executor     callbackExecutor;
+    /** deadline in milliseconds of {@link System#currentTimeMillis()}, 0 represents no deadline **/
+    private final long         deadline;
+    private volatile boolean   isTimedOut;
+    private volatile Future<?> watchdog;
+    /** connection opened by the engine on the thread running this call, guarded by this **/
+    private HttpURLConnection  connection;
+
+    /** call running on current thread **/
+    private static final ThreadLocal<HttpCall> CURRENT = new ThreadLocal<HttpCall>();
+
+    HttpCall(HttpRequest request, long deadline, HttpListener listener, Executor callbackExecutor,
+             Callable<HttpResponse> callable) {
+        super(callable);
+        this.request = request;
+        this.deadline = deadline;
+        this.listener = listener;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return deadline in milliseconds, 0 represents no deadline
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return milliseconds left before deadline, {@link Long#MAX_VALUE} if no deadline
+     */
+    public long getRemainingTime() {
+        return deadline == 0 ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+    }
+
+    /**
+     * cancel the request, interrupt it if running
+     *
+     * @return false if the call has completed already
+     */
+    public boolean cancel() {
+        return cancel(true);
+    }
+
+    /**
+     * cancel the call and disconnect its connection, so the request stops holding the connection and its host permit
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean isCancelled = super.cancel(mayInterruptIfRunning);
+        if (isCancelled) {
+            synchronized (this) {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+        }
+        return isCancelled;
+    }
+
+    /**
+     * @return whether the call is cancelled by its deadline
+     */
+    public boolean isTimedOut() {
+        return isTimedOut;
+    }
+
+    /**
+     * complete a call which is not run by itself, like a request sent in a batch of {@link HttpBatcher}
+     */
+    void complete(HttpResponse response) {
+        set(response);
+    }
+
+    /**
+     * fail a call which is not run by itself
+     */
+    void fail(Throwable cause) {
+        setException(cause);
+    }
+
+    @Override
+    public void run() {
+        CURRENT.set(this);
+        try {
+            super.run();
+        } finally {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * @return call running on current thread, null if none
+     */
+    static HttpCall current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * called by the engine when a connection is opened for this call
+     *
+     * @param con
+     * @throws InterruptedIOException if the call is cancelled already
+     */
+    synchronized void attach(HttpURLConnection con) throws InterruptedIOException {
+        checkCancelled();
+        connection = con;
+    }
+
+    /**
+     * called by the engine between steps which can not be interrupted
+     *
+     * @throws InterruptedIOException if the call is cancelled
+     */
+    void checkCancelled() throws InterruptedIOException {
+        if (isCancelled()) {
+            throw new InterruptedIOException("call is cancelled");
+        }
+    }
+
+    /**
+     * called by the engine when the connection is not used any more
+     *
+     * @param con
+     */
+    synchronized void detach(HttpURLConnection con) {
+        if (connection == con) {
+            connection = null;
+        }
+    }
+
+    void setWatchdog(Future<?> watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * called by the watchdog of {@link HttpDispatcher} when deadline passed
+     */
+    void timeout() {
+        isTimedOut = true;
+        cancel(true);
+    }
+
+    @Override
+    protected void done() {
+        Future<?> w = watchdog;
+        if (w != null) {
+            w.cancel(false);
+        }
+        if (listener == null) {
+            return;
+        }
+
+        if (isCancelled() && !isTimedOut) {
+            callbackExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    listener.onCancelled();
+                }
+            });
+            return;
+        }
+
+        HttpResponse result = null;
+        if (!isCancelled()) {
+            try {
+                result = get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        final HttpResponse response = result;
+        callbackExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                listener.onPostGet(response);
+            }
+        });
+    }
+}
@@ -0,0 +1,132 @@
+package com.andriodutils.network;
+
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * HttpConnectionPool, keep-alive and per-host concurrency settings of {@link UrlConnectionEngine}
+ * <ul>
+ * <strong>Setting</strong>
+ * <li>{@link #HttpConnectionPool(int, long, int)}</li>
+ * <li>{@link #getMaxIdleConnections()} max idle connections kept alive per host</li>
+ * <li>{@link #getKeepAliveDuration()} idle connections older than it will be evicted</li>
+ * <li>{@link #getMaxRequestsPerHost()} max requests executing at the same time to one host</li>
+ * </ul>
+ * <ul>
+ * <strong>Attentions:</strong>
+ * <li>sockets are pooled by the platform HttpURLConnection, this class configures that pool by the system properties
+ * http.keepAlive, http.maxConnections and http.keepAliveDuration. The platform reads them once, so
+ * {@link #install()} should be called before the first connection is opened, {@link HttpUtils} does it for the
+ * default engine.</li>
+ * <li>a connection goes back to the pool only if its stream is read to the end and closed without
+ * {@link java.net.HttpURLConnection#disconnect()}</li>
+ * </ul>
+ */
+public class HttpConnectionPool {
+
+    /** default max idle connections per host **/
+    public static final int  DEFAULT_MAX_IDLE_CONNECTIONS  = 5;
+    /** default keep alive duration in milliseconds **/
+    public static final long DEFAULT_KEEP_ALIVE_DURATION   = 5 * 60 * 1000;
+    /** default max requests per host **/
+    public static final int  DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+
+    private final int                    maxIdleConnections;
+    private final long                   keepAliveDuration;
+    private final int                    maxRequestsPerHost;
+    /** key is host and port, value is permits of executing requests **/
+    private final Map<String, Semaphore> hostPermits;
+
+    public HttpConnectionPool() {
+        this(DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE_DURATION, DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+
+    /**
+     * @param maxIdleConnections max idle connections per host, 0 means disable keep-alive
+     * @param keepAliveDuration keep alive duration of idle connections in milliseconds
+     * @param maxRequestsPerHost max requests executing at the same time to one host
+     */
+    public HttpConnectionPool(int maxIdleConnections, long keepAliveDuration, int maxRequestsPerHost) {
+        if (maxIdleConnections < 0) {
+            throw new IllegalArgumentException("maxIdleConnections can not be negative");
+        }
+        if (keepAliveDuration <= 0) {
+            throw new IllegalArgumentException("keepAliveDuration must be positive");
+        }
+        if (maxRequestsPerHost <= 0) {
+            throw new IllegalArgumentException("maxRequestsPerHost must be positive");
+        }
+        this.maxIdleConnections = maxIdleConnections;
+        this.keepAliveDuration = keepAliveDuration;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        this.hostPermits = new HashMap<String, Semaphore>();
+    }
+
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    public long getKeepAliveDuration() {
+        return keepAliveDuration;
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    /**
+     * apply keep-alive settings to the platform HttpURLConnection pool
+     */
+    public void install() {
+        System.setProperty("http.keepAlive", maxIdleConnections > 0 ? "true" : "false");
+        System.setProperty("http.maxConnections", Integer.toString(Math.max(maxIdleConnections, 1)));
+        System.setProperty("http.keepAliveDuration", Long.toString(keepAliveDuration));
+    }
+
+    /**
+     * wait until a request to the host of url is allowed
+     *
+     * @param url
+     * @throws InterruptedIOException if current thread is interrupted while waiting
+     */
+    public void acquire(URL url) throws InterruptedIOException {
+        try {
+            getPermits(url).acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for " + url.getHost());
+        }
+    }
+
+    /**
+     * release the permit got by {@link #acquire(URL)}
+     *
+     * @param url
+     */
+    public void release(URL url) {
+        getPermits(url).release();
+    }
+
+    /**
+     * @param url
+     * @return the number of requests executing to the host of url
+     */
+    public int getRunningCount(URL url) {
+        return maxRequestsPerHost - getPermits(url).availablePermits();
+    }
+
+    private Semaphore getPermits(URL url) {
+        String key = url.getHost() + ":" + (url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+        synchronized (hostPermits) {
+            Semaphore permits = hostPermits.get(key);
+            if (permits == null) {
+                permits = new Semaphore(maxRequestsPerHost, true);
+                hostPermits.put(key, permits);
+            }
+            return permits;
+        }
+    }
+}
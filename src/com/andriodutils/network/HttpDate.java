@@ -0,0 +1,355 @@
+package com.andriodutils.network;
+
+/**
+ * HttpDate, parse and format dates of http headers, like Expires, Last-Modified and Retry-After
+ * <ul>
+ * <strong>Formats parsed</strong>, see RFC 7231 section 7.1.1.1
+ * <li>IMF-fixdate: Sun, 06 Nov 1994 08:49:37 GMT, one digit day is also accepted</li>
+ * <li>RFC 850: Sunday, 06-Nov-94 08:49:37 GMT, two digit year before 70 is 20xx</li>
+ * <li>asctime: Sun Nov  6 08:49:37 1994</li>
+ * <li>zone can be GMT, UTC, UT, Z or numeric like +0800, missing zone is GMT</li>
+ * </ul>
+ * <ul>
+ * <strong>Attentions:</strong>
+ * <li>no {@link java.text.SimpleDateFormat} or {@link java.util.Calendar}, all methods are thread safe</li>
+ * <li>parsing does not allocate, the last parsed and the last formatted value are cached, servers repeat the same
+ * date in many responses</li>
+ * </ul>
+ */
+public class HttpDate {
+
+    private static final String[] DAY_NAMES      = {"Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"};
+    private static final String[] MONTH_NAMES    = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep",
+                                                 "Oct", "Nov", "Dec"};
+    private static final long     MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private static volatile Entry lastParsed;
+    private static volatile Entry lastFormatted;
+
+    private HttpDate() {
+        throw new AssertionError();
+    }
+
+    /**
+     * parse http date
+     *
+     * <pre>
+     * parse("Sun, 06 Nov 1994 08:49:37 GMT")  = 784111777000
+     * parse("Sunday, 06-Nov-94 08:49:37 GMT") = 784111777000
+     * parse("Sun Nov  6 08:49:37 1994")       = 784111777000
+     * parse("0")                              = -1
+     * </pre>
+     *
+     * @param date
+     * @return -1 represents null or invalid date, otherwise time in milliseconds
+     */
+    public static long parse(String date) {
+        if (date == null) {
+            return -1;
+        }
+        Entry entry = lastParsed;
+        if (entry != null && entry.text.equals(date)) {
+            return entry.value;
+        }
+
+        long millis = parseDate(date);
+        if (millis != -1) {
+            lastParsed = new Entry(date, millis);
+        }
+        return millis;
+    }
+
+    /**
+     * format time to IMF-fixdate, like Sun, 06 Nov 1994 08:49:37 GMT
+     *
+     * @param millis time in milliseconds, milliseconds part is dropped
+     * @return
+     */
+    public static String format(long millis) {
+        long seconds = floorDiv(millis, 1000);
+        Entry entry = lastFormatted;
+        if (entry != null && entry.value == seconds) {
+            return entry.text;
+        }
+
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        int secondOfDay = (int)(seconds - days * 24 * 60 * 60);
+        // civil from days, see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        int dayOfEra = (int)(z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        int dayOfWeek = (int)floorMod(days + 4, 7);
+
+        StringBuilder sb = new StringBuilder(29);
+        sb.append(DAY_NAMES[dayOfWeek]).append(", ");
+        appendTwoDigits(sb, day);
+        sb.append(' ').append(MONTH_NAMES[month - 1]).append(' ');
+        if (year >= 0 && year < 1000) {
+            sb.append(year < 10 ? "000" : (year < 100 ? "00" : "0"));
+        }
+        sb.append(year).append(' ');
+        appendTwoDigits(sb, secondOfDay / 3600);
+        sb.append(':');
+        appendTwoDigits(sb, secondOfDay / 60 % 60);
+        sb.append(':');
+        appendTwoDigits(sb, secondOfDay % 60);
+        String text = sb.append(" GMT").toString();
+        lastFormatted = new Entry(text, seconds);
+        return text;
+    }
+
+    private static long parseDate(String s) {
+        int length = s.length();
+        int i = skipSpaces(s, 0);
+        // day name is optional and not validated
+        int nameEnd = skipLetters(s, i);
+        boolean hasComma = nameEnd < length && s.charAt(nameEnd) == ',';
+        boolean isAsctime = nameEnd > i && !hasComma;
+        if (hasComma) {
+            i = nameEnd + 1;
+        } else if (isAsctime) {
+            i = nameEnd;
+        }
+        i = skipSpaces(s, i);
+
+        int day;
+        int month;
+        long year = 0;
+        if (isAsctime) {
+            // Nov  6 08:49:37 1994
+            month = parseMonth(s, i);
+            if (month == -1) {
+                return -1;
+            }
+            i = skipSpaces(s, i + 3);
+            long number = readNumber(s, i, 2);
+            if (number == -1) {
+                return -1;
+            }
+            day = valueOf(number);
+            i = positionOf(number);
+        } else {
+            // 06 Nov 1994 or 06-Nov-94
+            long number = readNumber(s, i, 2);
+            if (number == -1 || !isSeparator(s, positionOf(number))) {
+                return -1;
+            }
+            day = valueOf(number);
+            i = positionOf(number) + 1;
+            month = parseMonth(s, i);
+            if (month == -1 || !isSeparator(s, i + 3)) {
+                return -1;
+            }
+            number = readNumber(s, i + 4, 4);
+            if (number == -1) {
+                return -1;
+            }
+            year = valueOf(number);
+            if (positionOf(number) - (i + 4) == 2) {
+                year += year < 70 ? 2000 : 1900;
+            }
+            i = positionOf(number);
+        }
+
+        // 08:49:37
+        i = skipSpaces(s, i);
+        long number = readNumber(s, i, 2);
+        if (number == -1 || !isChar(s, positionOf(number), ':')) {
+            return -1;
+        }
+        int hour = valueOf(number);
+        number = readNumber(s, positionOf(number) + 1, 2);
+        if (number == -1 || !isChar(s, positionOf(number), ':')) {
+            return -1;
+        }
+        int minute = valueOf(number);
+        number = readNumber(s, positionOf(number) + 1, 2);
+        if (number == -1) {
+            return -1;
+        }
+        int second = valueOf(number);
+        i = skipSpaces(s, positionOf(number));
+
+        if (isAsctime) {
+            number = readNumber(s, i, 4);
+            if (number == -1) {
+                return -1;
+            }
+            year = valueOf(number);
+            i = skipSpaces(s, positionOf(number));
+        }
+
+        long offset = parseZone(s, i);
+        if (offset == Long.MIN_VALUE || day < 1 || day > daysOfMonth(year, month) || hour > 23 || minute > 59
+            || second > 60) {
+            return -1;
+        }
+        if (second == 60) {
+            // leap second
+            second = 59;
+        }
+        long days = daysFromCivil(year, month, day);
+        return ((days * 24 + hour) * 60 + minute) * 60 * 1000 + second * 1000 - offset;
+    }
+
+    /**
+     * @return offset in milliseconds, {@link Long#MIN_VALUE} represents invalid zone
+     */
+    private static long parseZone(String s, int i) {
+        int length = s.length();
+        if (i >= length) {
+            return 0;
+        }
+        char c = s.charAt(i);
+        if (c == '+' || c == '-') {
+            long number = readNumber(s, i + 1, 4);
+            if (number == -1 || positionOf(number) != i + 5 || skipSpaces(s, i + 5) != length) {
+                return Long.MIN_VALUE;
+            }
+            int hhmm = valueOf(number);
+            long offset = ((hhmm / 100) * 60 + hhmm % 100) * 60 * 1000L;
+            return c == '+' ? offset : -offset;
+        }
+        int end = skipLetters(s, i);
+        if (skipSpaces(s, end) != length) {
+            return Long.MIN_VALUE;
+        }
+        if (s.regionMatches(true, i, "GMT", 0, 3) && end - i == 3 || s.regionMatches(true, i, "UTC", 0, 3)
+            && end - i == 3 || s.regionMatches(true, i, "UT", 0, 2) && end - i == 2
+            || s.regionMatches(true, i, "Z", 0, 1) && end - i == 1) {
+            return 0;
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * @return 1 to 12, -1 represents invalid
+     */
+    private static int parseMonth(String s, int i) {
+        if (i + 3 > s.length()) {
+            return -1;
+        }
+        for (int month = 0; month < MONTH_NAMES.length; month++) {
+            if (s.regionMatches(true, i, MONTH_NAMES[month], 0, 3)) {
+                return month + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * read at most maxDigits digits
+     *
+     * @return -1 if no digit, otherwise value in high bits and end position in low 16 bits
+     */
+    private static long readNumber(String s, int i, int maxDigits) {
+        int length = s.length();
+        int value = 0;
+        int start = i;
+        while (i < length && i - start < maxDigits) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            i++;
+        }
+        if (i == start || i > 0xFFFF) {
+            return -1;
+        }
+        return ((long)value << 16) | i;
+    }
+
+    private static int valueOf(long number) {
+        return (int)(number >>> 16);
+    }
+
+    private static int positionOf(long number) {
+        return (int)(number & 0xFFFF);
+    }
+
+    private static boolean isSeparator(String s, int i) {
+        return isChar(s, i, ' ') || isChar(s, i, '-');
+    }
+
+    private static boolean isChar(String s, int i, char c) {
+        return i < s.length() && s.charAt(i) == c;
+    }
+
+    private static int skipSpaces(String s, int i) {
+        while (i < s.length() && s.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipLetters(String s, int i) {
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if ((c < 'a' || c > 'z') && (c < 'A' || c > 'Z')) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static int daysOfMonth(long year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * days from 1970-01-01, see http://howardhinnant.github.io/date_algorithms.html
+     */
+    private static long daysFromCivil(long year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = floorDiv(year, 400);
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static void appendTwoDigits(StringBuilder sb, int value) {
+        sb.append((char)('0' + value / 10)).append((char)('0' + value % 10));
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && ((x < 0) != (y < 0))) ? q - 1 : q;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+
+    /**
+     * a date text and its value
+     */
+    private static class Entry {
+
+        final String text;
+        final long   value;
+
+        Entry(String text, long value) {
+            this.text = text;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.andriodutils.network;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.andriodutils.network.HttpUtils.HttpListener;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * HttpDispatcher, executes asynchronous requests on bounded thread pools
+ * <ul>
+ * <strong>Lanes</strong>
+ * <li>{@link #LANE_FOREGROUND} for requests the user is waiting for</li>
+ * <li>{@link #LANE_BACKGROUND} for prefetch and other work, it can never take threads of foreground</li>
+ * </ul>
+ * <ul>
+ * <strong>Attentions:</strong>
+ * <li>callbacks of {@link HttpListener} run on the callback executor, default is main thread</li>
+ * <li>the deadline of a call is propagated to connect and read timeout of its request, and the call is cancelled
+ * when deadline passed</li>
+ * <li>pass a callback executor like a direct executor to use it in plain java</li>
+ * </ul>
+ */
+public class HttpDispatcher {
+
+    /** lane for requests the user is waiting for **/
+    public static final int                   LANE_FOREGROUND                 = 0;
+    /** lane for prefetch and other work **/
+    public static final int                   LANE_BACKGROUND                 = 1;
+
+    /** default max threads of foreground lane **/
+    public static final int                   DEFAULT_MAX_FOREGROUND_REQUESTS = 4;
+    /** default max threads of background lane **/
+    public static final int                   DEFAULT_MAX_BACKGROUND_REQUESTS = 2;
+
+    private static final long                 KEEP_ALIVE_SECONDS              = 30;
+
+    private final ThreadPoolExecutor          foregroundExecutor;
+    private final ThreadPoolExecutor          backgroundExecutor;
+    private final ScheduledThreadPoolExecutor watchdogExecutor;
+    private final Executor                    callbackExecutor;
+
+    /**
+     * default thread counts, callbacks run on main thread
+     */
+    public HttpDispatcher() {
+        this(DEFAULT_MAX_FOREGROUND_REQUESTS, DEFAULT_MAX_BACKGROUND_REQUESTS, null);
+    }
+
+    /**
+     * @param maxForegroundRequests max threads of foreground lane
+     * @param maxBackgroundRequests max threads of background lane
+     * @param callbackExecutor executor to run callbacks of {@link HttpListener}, null represents main thread
+     */
+    public HttpDispatcher(int maxForegroundRequests, int maxBackgroundRequests, Executor callbackExecutor) {
+        if (maxForegroundRequests <= 0 || maxBackgroundRequests <= 0) {
+            throw new IllegalArgumentException("max requests must be positive");
+        }
+        this.foregroundExecutor = newExecutor(maxForegroundRequests, "foreground");
+        this.backgroundExecutor = newExecutor(maxBackgroundRequests, "background");
+        this.watchdogExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("watchdog"));
+        this.callbackExecutor = callbackExecutor == null ? new MainThreadExecutor() : callbackExecutor;
+    }
+
+    /**
+     * submit a http get
+     *
+     * @param request
+     * @param lane {@link #LANE_FOREGROUND} or {@link #LANE_BACKGROUND}
+     * @param timeoutMillis max milliseconds from now to the response, 0 represents no deadline
+     * @param listener can be null
+     * @return handle to cancel or wait for the request
+     */
+    public HttpCall enqueue(final HttpRequest request, int lane, long timeoutMillis, HttpListener listener) {
+        if (request == null) {
+            throw new IllegalArgumentException("request can not be null");
+        }
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeout can not be negative");
+        }
+
+        final long deadline = timeoutMillis == 0 ? 0 : System.currentTimeMillis() + timeoutMillis;
+        final HttpCall call = new HttpCall(request, deadline, listener, callbackExecutor, new Callable<HttpResponse>() {
+
+            @Override
+            public HttpResponse call() throws Exception {
+                if (deadline == 0) {
+                    return HttpUtils.httpGet(request);
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                return remaining <= 0 ? null : HttpUtils.httpGet(limitTimeout(request, remaining));
+            }
+        });
+
+        if (deadline != 0) {
+            call.setWatchdog(watchdogExecutor.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    call.timeout();
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS));
+        }
+        (lane == LANE_BACKGROUND ? backgroundExecutor : foregroundExecutor).execute(call);
+        return call;
+    }
+
+    /**
+     * @param lane {@link #LANE_FOREGROUND} or {@link #LANE_BACKGROUND}
+     * @return count of requests waiting for a thread
+     */
+    public int getQueuedCount(int lane) {
+        return (lane == LANE_BACKGROUND ? backgroundExecutor : foregroundExecutor).getQueue().size();
+    }
+
+    /**
+     * @param lane {@link #LANE_FOREGROUND} or {@link #LANE_BACKGROUND}
+     * @return count of requests executing
+     */
+    public int getRunningCount(int lane) {
+        return (lane == LANE_BACKGROUND ? backgroundExecutor : foregroundExecutor).getActiveCount();
+    }
+
+    /**
+     * stop accepting requests, queued requests still run
+     */
+    public void shutdown() {
+        foregroundExecutor.shutdown();
+        backgroundExecutor.shutdown();
+        watchdogExecutor.shutdown();
+    }
+
+    /**
+     * copy request, connect and read timeout can not be bigger than remaining time
+     */
+    private static HttpRequest limitTimeout(HttpRequest request, long remaining) {
+        HttpRequest limited = new HttpRequest(request);
+        int timeout = (int)Math.min(remaining, Integer.MAX_VALUE);
+        if (limited.getConnectTimeout() <= 0 || limited.getConnectTimeout() > timeout) {
+            limited.setConnectTimeout(timeout);
+        }
+        if (limited.getReadTimeout() <= 0 || limited.getReadTimeout() > timeout) {
+            limited.setReadTimeout(timeout);
+        }
+        return limited;
+    }
+
+    private static ThreadPoolExecutor newExecutor(int maxThreads, String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS,
+                                                             TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                                                             new NamedThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * daemon threads named like HttpDispatcher-foreground-1
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String        name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        public NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "HttpDispatcher-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * run callbacks on main thread
+     */
+    static class MainThreadExecutor implements Executor {
+
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            handler.post(command);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.andriodutils.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * HttpEngine, the transport used by {@link HttpUtils} to execute a {@link HttpRequest}
+ * <ul>
+ * <li>default engine is {@link UrlConnectionEngine}</li>
+ * <li>you can plug another engine by {@link HttpUtils#setHttpEngine(HttpEngine)}</li>
+ * </ul>
+ */
+public interface HttpEngine {
+
+    /** http method get **/
+    public static final String METHOD_GET  = "GET";
+    /** http method post **/
+    public static final String METHOD_POST = "POST";
+
+    /**
+     * execute request synchronous
+     *
+     * @param method http method, {@link #METHOD_GET} or {@link #METHOD_POST}
+     * @param request
+     * @return the response of the url, never null
+     * @throws IOException if an error occurs while connecting or reading
+     */
+    public HttpResponse execute(String method, HttpRequest request) throws IOException;
+
+    /**
+     * open the response body as a stream, the body is not buffered
+     *
+     * @param method http method, {@link #METHOD_GET} or {@link #METHOD_POST}
+     * @param request
+     * @return the stream of response body, never null. It must be closed to release the connection
+     * @throws IOException if an error occurs while connecting
+     */
+    public InputStream open(String method, HttpRequest request) throws IOException;
+}
@@ -0,0 +1,21 @@
+package com.andriodutils.network;
+
+/**
+ * HttpEventListener, receives the {@link HttpTiming} of every request
+ * <ul>
+ * <li>for {@link HttpUtils} set it by {@link HttpUtils#setHttpEventListener(HttpEventListener)}</li>
+ * <li>for OkHttpManager set it by <code>Config.Builder.eventListener</code></li>
+ * <li>{@link HttpMetrics} aggregates timings into histograms</li>
+ * <li>{@link BandwidthEstimator} estimates bandwidth and latency of the link</li>
+ * <li>it is called on the thread of the request, it should return quickly and must be thread safe</li>
+ * </ul>
+ */
+public interface HttpEventListener {
+
+    /**
+     * a request finished, succeeded or failed
+     *
+     * @param timing
+     */
+    public void onRequestEnd(HttpTiming timing);
+}
@@ -0,0 +1,230 @@
+package com.andriodutils.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HttpHeaders, http header fields in receiving order
+ * <ul>
+ * <li>names are case insensitive, the original case is kept</li>
+ * <li>a name can have multiple values, like Set-Cookie</li>
+ * <li>names and values are kept in one array, no entry object or map is created</li>
+ * <li>not thread safe</li>
+ * </ul>
+ */
+public class HttpHeaders {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /** name at 2 * i, value at 2 * i + 1 **/
+    private String[]         namesAndValues;
+    private int              size;
+    /** changed on every modification, used to invalidate values parsed from headers **/
+    private int              modCount;
+
+    public HttpHeaders() {
+        namesAndValues = new String[DEFAULT_CAPACITY * 2];
+    }
+
+    /**
+     * copy headers
+     *
+     * @param headers
+     */
+    public HttpHeaders(HttpHeaders headers) {
+        namesAndValues = new String[Math.max(headers.size, DEFAULT_CAPACITY) * 2];
+        System.arraycopy(headers.namesAndValues, 0, namesAndValues, 0, headers.size * 2);
+        size = headers.size;
+    }
+
+    /**
+     * @return count of fields, a name with two values is counted twice
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param index
+     * @return name of field at index
+     */
+    public String name(int index) {
+        checkIndex(index);
+        return namesAndValues[index * 2];
+    }
+
+    /**
+     * @param index
+     * @return value of field at index
+     */
+    public String value(int index) {
+        checkIndex(index);
+        return namesAndValues[index * 2 + 1];
+    }
+
+    /**
+     * get value of name
+     *
+     * @param name case insensitive
+     * @return the last value if there are multiple values, null if not exist
+     */
+    public String get(String name) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (name.equalsIgnoreCase(namesAndValues[i * 2])) {
+                return namesAndValues[i * 2 + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * get all values of name
+     *
+     * @param name case insensitive
+     * @return values in receiving order, empty list if not exist
+     */
+    public List<String> getAll(String name) {
+        List<String> values = null;
+        for (int i = 0; i < size; i++) {
+            if (name.equalsIgnoreCase(namesAndValues[i * 2])) {
+                if (values == null) {
+                    values = new ArrayList<String>(2);
+                }
+                values.add(namesAndValues[i * 2 + 1]);
+            }
+        }
+        return values == null ? Collections.<String> emptyList() : values;
+    }
+
+    public boolean contains(String name) {
+        return get(name) != null;
+    }
+
+    /**
+     * add a field, other values of name are kept
+     *
+     * @param name
+     * @param value null is ignored
+     * @return this
+     */
+    public HttpHeaders add(String name, String value) {
+        if (name == null) {
+            throw new IllegalArgumentException("name can not be null");
+        }
+        if (value == null) {
+            return this;
+        }
+        if (size * 2 == namesAndValues.length) {
+            String[] newNamesAndValues = new String[namesAndValues.length * 2];
+            System.arraycopy(namesAndValues, 0, newNamesAndValues, 0, size * 2);
+            namesAndValues = newNamesAndValues;
+        }
+        namesAndValues[size * 2] = name;
+        namesAndValues[size * 2 + 1] = value;
+        size++;
+        modCount++;
+        return this;
+    }
+
+    /**
+     * set value of name, other values of name are removed
+     *
+     * @param name
+     * @param value null represents remove
+     * @return this
+     */
+    public HttpHeaders set(String name, String value) {
+        remove(name);
+        return add(name, value);
+    }
+
+    /**
+     * remove all values of name
+     *
+     * @param name case insensitive
+     * @return this
+     */
+    public HttpHeaders remove(String name) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (!name.equalsIgnoreCase(namesAndValues[i * 2])) {
+                namesAndValues[count * 2] = namesAndValues[i * 2];
+                namesAndValues[count * 2 + 1] = namesAndValues[i * 2 + 1];
+                count++;
+            }
+        }
+        if (count == size) {
+            return this;
+        }
+        for (int i = count * 2; i < size * 2; i++) {
+            namesAndValues[i] = null;
+        }
+        size = count;
+        modCount++;
+        return this;
+    }
+
+    /**
+     * add all fields of headers
+     *
+     * @param headers
+     * @return this
+     */
+    public HttpHeaders addAll(HttpHeaders headers) {
+        for (int i = 0; i < headers.size; i++) {
+            add(headers.namesAndValues[i * 2], headers.namesAndValues[i * 2 + 1]);
+        }
+        return this;
+    }
+
+    /**
+     * add all entries of map, values are converted by toString
+     *
+     * @param headers null values are ignored
+     * @return this
+     */
+    public HttpHeaders addAll(Map<String, ?> headers) {
+        for (Map.Entry<String, ?> entry : headers.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null) {
+                add(entry.getKey(), entry.getValue().toString());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * remove all fields
+     */
+    public void clear() {
+        for (int i = 0; i < size * 2; i++) {
+            namesAndValues[i] = null;
+        }
+        size = 0;
+        modCount++;
+    }
+
+    int getModCount() {
+        return modCount;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            sb.append(namesAndValues[i * 2]).append(": ").append(namesAndValues[i * 2 + 1]).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,227 @@
+package com.andriodutils.network;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HttpMetrics, {@link HttpEventListener} which aggregates timings per host and per endpoint
+ * <ul>
+ * <li>endpoint is host and path without query, like api.example.com/v1/users</li>
+ * <li>each of them keeps histograms of total and first byte time, and counters of requests, failures and bytes</li>
+ * <li>recording is lock free, {@link #getHostStats()} and {@link #getEndpointStats()} copy the counters</li>
+ * <li>endpoints are limited by maxEndpoints, later ones are counted in {@link #OTHER_ENDPOINT} of the host</li>
+ * </ul>
+ * <ul>
+ * <strong>Usage</strong>
+ * <li><code>HttpMetrics metrics = new HttpMetrics();</code></li>
+ * <li><code>HttpUtils.setHttpEventListener(metrics);</code></li>
+ * <li><code>OkHttpManager.init(new OkHttpManager.Config.Builder().eventListener(metrics).build());</code></li>
+ * </ul>
+ */
+public class HttpMetrics implements HttpEventListener {
+
+    /** default max endpoints **/
+    public static final int                      DEFAULT_MAX_ENDPOINTS = 256;
+    /** path of endpoint which counts requests after max endpoints reached **/
+    public static final String                   OTHER_ENDPOINT        = "/*";
+
+    private final int                            maxEndpoints;
+    private final ConcurrentMap<String, Metrics> hosts                 = new ConcurrentHashMap<String, Metrics>();
+    private final ConcurrentMap<String, Metrics> endpoints             = new ConcurrentHashMap<String, Metrics>();
+    private final HttpEventListener              delegate;
+
+    public HttpMetrics() {
+        this(DEFAULT_MAX_ENDPOINTS, null);
+    }
+
+    /**
+     * @param maxEndpoints max endpoints to keep separately
+     * @param delegate listener which also receives every timing, can be null
+     */
+    public HttpMetrics(int maxEndpoints, HttpEventListener delegate) {
+        if (maxEndpoints <= 0) {
+            throw new IllegalArgumentException("maxEndpoints must be positive");
+        }
+        this.maxEndpoints = maxEndpoints;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void onRequestEnd(HttpTiming timing) {
+        String host = timing.getHost();
+        getMetrics(hosts, host).record(timing);
+        getEndpointMetrics(host, timing.getUrl()).record(timing);
+        if (delegate != null) {
+            delegate.onRequestEnd(timing);
+        }
+    }
+
+    /**
+     * @return stats of each host, sorted by host
+     */
+    public Map<String, Stats> getHostStats() {
+        return snapshot(hosts);
+    }
+
+    /**
+     * @return stats of each endpoint, sorted by endpoint
+     */
+    public Map<String, Stats> getEndpointStats() {
+        return snapshot(endpoints);
+    }
+
+    /**
+     * clear all stats
+     */
+    public void reset() {
+        hosts.clear();
+        endpoints.clear();
+    }
+
+    private Metrics getEndpointMetrics(String host, String url) {
+        String endpoint = host + getPath(url);
+        Metrics metrics = endpoints.get(endpoint);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (endpoints.size() >= maxEndpoints) {
+            endpoint = host + OTHER_ENDPOINT;
+        }
+        return getMetrics(endpoints, endpoint);
+    }
+
+    private static Metrics getMetrics(ConcurrentMap<String, Metrics> map, String key) {
+        Metrics metrics = map.get(key);
+        if (metrics == null) {
+            metrics = new Metrics();
+            Metrics old = map.putIfAbsent(key, metrics);
+            if (old != null) {
+                metrics = old;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * path of url without scheme, host, query and fragment
+     */
+    private static String getPath(String url) {
+        int start = url.indexOf("://");
+        start = url.indexOf('/', start == -1 ? 0 : start + 3);
+        if (start == -1) {
+            return "/";
+        }
+        int end = url.length();
+        int query = url.indexOf('?', start);
+        if (query != -1) {
+            end = query;
+        }
+        int fragment = url.indexOf('#', start);
+        if (fragment != -1 && fragment < end) {
+            end = fragment;
+        }
+        return url.substring(start, end);
+    }
+
+    private static Map<String, Stats> snapshot(ConcurrentMap<String, Metrics> map) {
+        Map<String, Stats> stats = new TreeMap<String, Stats>();
+        for (Map.Entry<String, Metrics> entry : map.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return stats;
+    }
+
+    /**
+     * live counters of a host or endpoint
+     */
+    private static class Metrics {
+
+        private final LatencyHistogram total         = new LatencyHistogram();
+        private final LatencyHistogram firstByte     = new LatencyHistogram();
+        private final AtomicLong       failures      = new AtomicLong();
+        private final AtomicLong       bytesSent     = new AtomicLong();
+        private final AtomicLong       bytesReceived = new AtomicLong();
+
+        void record(HttpTiming timing) {
+            total.record(timing.getTotalMillis());
+            firstByte.record(timing.getFirstByteMillis());
+            if (timing.isFailed()) {
+                failures.incrementAndGet();
+            }
+            if (timing.getBytesSent() > 0) {
+                bytesSent.addAndGet(timing.getBytesSent());
+            }
+            if (timing.getBytesReceived() > 0) {
+                bytesReceived.addAndGet(timing.getBytesReceived());
+            }
+        }
+
+        Stats snapshot() {
+            return new Stats(total.snapshot(), firstByte.snapshot(), failures.get(), bytesSent.get(),
+                             bytesReceived.get());
+        }
+    }
+
+    /**
+     * Stats, immutable copy of counters of a host or endpoint
+     */
+    public static class Stats {
+
+        private final LatencyHistogram.Snapshot total;
+        private final LatencyHistogram.Snapshot firstByte;
+        private final long                      failures;
+        private final long                      bytesSent;
+        private final long                      bytesReceived;
+
+        Stats(LatencyHistogram.Snapshot total, LatencyHistogram.Snapshot firstByte, long failures, long bytesSent,
+              long bytesReceived) {
+            this.total = total;
+            this.firstByte = firstByte;
+            this.failures = failures;
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+        }
+
+        /**
+         * @return count of requests, including failed
+         */
+        public long getRequestCount() {
+            return total.getCount();
+        }
+
+        public long getFailureCount() {
+            return failures;
+        }
+
+        /**
+         * @return histogram of total time
+         */
+        public LatencyHistogram.Snapshot getTotal() {
+            return total;
+        }
+
+        /**
+         * @return histogram of first byte time, the server time
+         */
+        public LatencyHistogram.Snapshot getFirstByte() {
+            return firstByte;
+        }
+
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + getRequestCount() + " failures=" + failures + " sent=" + bytesSent + " received="
+                   + bytesReceived + " total[" + total + "] firstByte[" + firstByte + "]";
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.andriodutils.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * HttpMultipartBody, multipart/form-data body of RFC 7578, created by {@link Builder}
+ *
+ * <pre>
+ * HttpBody body = new HttpMultipartBody.Builder().addFormField("user", "trinea")
+ *                                                .addFile("photo", new File("/sdcard/a.jpg"))
+ *                                                .build();
+ * </pre>
+ * <ul>
+ * <li>parts are written one by one, file parts are read in chunks, so the whole body is never in memory</li>
+ * <li>length is known if lengths of all parts are known, then the body is sent in fixed length streaming mode</li>
+ * </ul>
+ */
+public class HttpMultipartBody extends HttpBody {
+
+    private static final byte[] CRLF           = {'\r', '\n'};
+    private static final byte[] DASHDASH       = {'-', '-'};
+    private static final char[] BOUNDARY_CHARS = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ"
+                                                   .toCharArray();
+
+    private final byte[]        boundary;
+    private final String        contentType;
+    private final List<Part>    parts;
+
+    private HttpMultipartBody(String boundary, List<Part> parts) {
+        this.boundary = HttpBody.getBytes(boundary);
+        this.contentType = "multipart/form-data; boundary=" + boundary;
+        this.parts = parts;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return -1 if length of any part is unknown
+     */
+    @Override
+    public long getContentLength() {
+        long length = 0;
+        for (Part part : parts) {
+            long bodyLength = part.body.getContentLength();
+            if (bodyLength == -1) {
+                return -1;
+            }
+            length += DASHDASH.length + boundary.length + CRLF.length + part.headers.length + bodyLength
+                      + CRLF.length;
+        }
+        return length + DASHDASH.length + boundary.length + DASHDASH.length + CRLF.length;
+    }
+
+    @Override
+    public void writeTo(OutputStream output) throws IOException {
+        for (Part part : parts) {
+            output.write(DASHDASH);
+            output.write(boundary);
+            output.write(CRLF);
+            output.write(part.headers);
+            part.body.writeTo(output);
+            output.write(CRLF);
+        }
+        output.write(DASHDASH);
+        output.write(boundary);
+        output.write(DASHDASH);
+        output.write(CRLF);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        for (Part part : parts) {
+            if (!part.body.isRepeatable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return parts count
+     */
+    public int size() {
+        return parts.size();
+    }
+
+    /**
+     * a part with its encoded headers
+     */
+    private static class Part {
+
+        final byte[]   headers;
+        final HttpBody body;
+
+        Part(byte[] headers, HttpBody body) {
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Builder of {@link HttpMultipartBody}
+     */
+    public static class Builder {
+
+        private final String     boundary;
+        private final List<Part> parts = new ArrayList<Part>();
+
+        public Builder() {
+            this(randomBoundary());
+        }
+
+        /**
+         * @param boundary must not appear in any part
+         */
+        public Builder(String boundary) {
+            if (boundary == null || boundary.length() == 0 || boundary.length() > 70) {
+                throw new IllegalArgumentException("boundary length must be in [1, 70]");
+            }
+            this.boundary = boundary;
+        }
+
+        /**
+         * add a text field
+         *
+         * @param name
+         * @param value encoded in utf-8, null is processed as empty string
+         * @return this
+         */
+        public Builder addFormField(String name, String value) {
+            return addPart(name, null, HttpBody.create(null, value == null ? "" : value));
+        }
+
+        /**
+         * add a file, Content-Type is guessed from file name
+         *
+         * @param name
+         * @param file
+         * @return this
+         */
+        public Builder addFile(String name, File file) {
+            return addFile(name, file, null);
+        }
+
+        /**
+         * add a file
+         *
+         * @param name
+         * @param file
+         * @param contentType null represents guessing from file name
+         * @return this
+         */
+        public Builder addFile(String name, File file, String contentType) {
+            if (file == null) {
+                throw new IllegalArgumentException("file can not be null");
+            }
+            if (contentType == null) {
+                contentType = guessContentType(file.getName());
+            }
+            return addPart(name, file.getName(), HttpBody.create(contentType, file));
+        }
+
+        /**
+         * add a stream as file, the body built can be written only once
+         *
+         * @param name
+         * @param fileName
+         * @param input read to the end and closed when the body is written
+         * @param length bytes of input, -1 represents unknown, then the body is sent in chunked streaming mode
+         * @param contentType null represents guessing from file name
+         * @return this
+         */
+        public Builder addStream(String name, String fileName, InputStream input, long length, String contentType) {
+            if (contentType == null) {
+                contentType = guessContentType(fileName);
+            }
+            return addPart(name, fileName, HttpBody.create(contentType, input, length));
+        }
+
+        /**
+         * add a part
+         *
+         * @param name
+         * @param fileName null represents not a file
+         * @param body
+         * @return this
+         */
+        public Builder addPart(String name, String fileName, HttpBody body) {
+            if (name == null || body == null) {
+                throw new IllegalArgumentException("name and body can not be null");
+            }
+            StringBuilder headers = new StringBuilder(128);
+            headers.append("Content-Disposition: form-data; name=");
+            appendQuoted(headers, name);
+            if (fileName != null) {
+                headers.append("; filename=");
+                appendQuoted(headers, fileName);
+            }
+            headers.append("\r\n");
+            if (body.getContentType() != null) {
+                headers.append("Content-Type: ").append(body.getContentType()).append("\r\n");
+            }
+            headers.append("\r\n");
+            parts.add(new Part(HttpBody.getBytes(headers.toString()), body));
+            return this;
+        }
+
+        public HttpMultipartBody build() {
+            if (parts.isEmpty()) {
+                throw new IllegalStateException("multipart body must have at least one part");
+            }
+            return new HttpMultipartBody(boundary, Collections.unmodifiableList(new ArrayList<Part>(parts)));
+        }
+
+        /**
+         * quote and escape like browsers, quote and line breaks are percent encoded
+         */
+        private static void appendQuoted(StringBuilder sb, String value) {
+            sb.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '\n':
+                        sb.append("%0A");
+                        break;
+                    case '\r':
+                        sb.append("%0D");
+                        break;
+                    case '"':
+                        sb.append("%22");
+                        break;
+                    default:
+                        sb.append(c);
+                        break;
+                }
+            }
+            sb.append('"');
+        }
+
+        private static String guessContentType(String fileName) {
+            String contentType = fileName == null ? null : URLConnection.guessContentTypeFromName(fileName);
+            return contentType == null ? "application/octet-stream" : contentType;
+        }
+
+        private static String randomBoundary() {
+            Random random = new Random();
+            char[] chars = new char[32];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = BOUNDARY_CHARS[random.nextInt(BOUNDARY_CHARS.length)];
+            }
+            return new String(chars);
+        }
+    }
+}
@@ -12,6 +12,7 @@ import java.util.Map;
  * <strong>Constructor</strong>
  * <li>{@link HttpRequest#HttpRequest(String)}</li>
  * <li>{@link HttpRequest#HttpRequest(String, Map)}</li>
+ * <li>{@link HttpRequest#HttpRequest(HttpRequest)}</li>
  * </ul>
  * <ul>
  * <strong>Setting</strong>
@@ -21,6 +22,9 @@ import java.util.Map;
  * <li>{@link #setUserAgent(String)}</li>
  * <li>{@link #setRequestProperty(String, String)}</li>
  * <li>{@link #setRequestProperties(Map)}</li>
+ * <li>{@link #setBody(HttpBody)} streaming body of post, like file or multipart</li>
+ * <li>{@link #setProgressListener(ProgressListener)}</li>
+ * <li>{@link #setGzipBody(boolean)}</li>
  * </ul>
  * 
  * @author <a href="http://www.trinea.cn" target="_blank">Trinea</a> 2013-5-12
@@ -32,6 +36,9 @@ public class HttpRequest {
     private int                 readTimeout;
     private Map<String, String> parasMap;
     private Map<String, String> requestProperties;
+    private HttpBody            body;
+    private ProgressListener    progressListener;
+    private boolean             isGzipBody;
 
     public HttpRequest(String url) {
         this.url = url;
@@ -48,6 +55,23 @@ public class HttpRequest {
         requestProperties = new HashMap<String, String>();
     }
 
+    /**
+     * copy constructor, request properties are copied, paras map and body are shared
+     * 
+     * @param request
+     */
+    public HttpRequest(HttpRequest request) {
+        this.url = request.url;
+        this.parasMap = request.parasMap;
+        this.connectTimeout = request.connectTimeout;
+        this.readTimeout = request.readTimeout;
+        this.body = request.body;
+        this.progressListener = request.progressListener;
+        this.isGzipBody = request.isGzipBody;
+        requestProperties = request.requestProperties == null ? new HashMap<String, String>()
+            : new HashMap<String, String>(request.requestProperties);
+    }
+
     public String getUrl() {
         return url;
     }
@@ -155,4 +179,47 @@ public class HttpRequest {
     public void setRequestProperties(Map<String, String> requestProperties) {
         this.requestProperties = requestProperties;
     }
+
+    /**
+     * @return body of post, null represents paras are posted as form
+     */
+    public HttpBody getBody() {
+        return body;
+    }
+
+    /**
+     * set body of post, paras are not posted if body is set
+     * 
+     * @param body
+     */
+    public void setBody(HttpBody body) {
+        this.body = body;
+    }
+
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    /**
+     * @param progressListener receives progress of body upload
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public boolean isGzipBody() {
+        return isGzipBody;
+    }
+
+    /**
+     * whether to compress body of post with gzip, the server must accept Content-Encoding: gzip
+     * <ul>
+     * <li>compressed length is unknown before sending, so the body is sent in chunked streaming mode</li>
+     * </ul>
+     * 
+     * @param isGzipBody default is false
+     */
+    public void setGzipBody(boolean isGzipBody) {
+        this.isGzipBody = isGzipBody;
+    }
 }
@@ -1,6 +1,9 @@
 package com.andriodutils.network;
 
-import java.util.HashMap;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Locale;
 import java.util.Map;
 
 
@@ -18,27 +21,44 @@ import com.andriodutils.time.TimeUtil;
  * </ul>
  * <ul>
  * <strong>Get</strong>
- * <li>{@link #getResponseBody()}</li>
+ * <li>{@link #getResponseBody()} decoded lazily by {@link #getCharset()}</li>
+ * <li>{@link #getResponseBodyBytes()}</li>
+ * <li>{@link #getResponseBodyStream()}</li>
+ * <li>{@link #getCharset()}</li>
+ * <li>{@link #getCompressedLength()} and {@link #getUncompressedLength()}</li>
  * <li>{@link #getUrl()}</li>
  * <li>{@link #getExpiredTime()} expires time</li>
  * <li>{@link #getExpiresHeader()}</li>
+ * <li>{@link #getResponseHeaders()} all headers in receiving order</li>
+ * <li>{@link #getCacheControl()}, {@link #getETag()}, {@link #getLastModified()}, {@link #getContentLength()} and
+ * {@link #getMimeType()}, parsed from headers on the first call and kept until headers change</li>
  * </ul>
  * <ul>
  * <strong>Setting</strong>
  * <li>{@link #setUrl(String)}</li>
  * <li>{@link #setResponseBody(String)}</li>
+ * <li>{@link #setResponseBody(byte[], int)}</li>
  * <li>{@link #setResponseHeader(String, String)}</li>
- * <li>{@link #setResponseHeaders(Map)}</li>
+ * <li>{@link #addResponseHeader(String, String)}</li>
+ * <li>{@link #setResponseHeaders(HttpHeaders)}</li>
  * </ul>
  * 
  * @author <a href="http://www.trinea.cn" target="_blank">Trinea</a> 2013-5-12
  */
 public class HttpResponse {
 
+    /** charset used if Content-Type has no charset **/
+    public static final String  DEFAULT_CHARSET = "UTF-8";
+
     private String              url;
-    /** http response content **/
+    /** http response content, decoded from responseBytes when first used **/
     private String              responseBody;
-    private Map<String, Object> responseHeaders;
+    /** raw http response content, valid bytes are [0, responseLength) **/
+    private byte[]              responseBytes;
+    private int                 responseLength;
+    /** bytes of response body on the wire, -1 represents unknown **/
+    private long                compressedLength = -1;
+    private HttpHeaders         responseHeaders;
     /** type to mark this response **/
     private int                 type;
     /** expired time in milliseconds **/
@@ -59,16 +79,39 @@ public class HttpResponse {
      */
     private int                 responseCode = -1;
 
+    /** values parsed from headers, replaced as a whole when headers are modified, readers never see a part **/
+    private volatile ParsedHeaders parsedHeaders;
+
     public HttpResponse(String url) {
         this.url = url;
         type = 0;
         isInCache = false;
         isInitExpiredTime = false;
-        responseHeaders = new HashMap<String, Object>();
+        responseHeaders = new HttpHeaders();
     }
 
     public HttpResponse() {
-        responseHeaders = new HashMap<String, Object>();
+        responseHeaders = new HttpHeaders();
+    }
+
+    /**
+     * copy this response, headers are copied, body is shared
+     * 
+     * @return
+     */
+    HttpResponse copy() {
+        HttpResponse response = new HttpResponse(url);
+        response.type = type;
+        response.responseCode = responseCode;
+        response.responseHeaders = new HttpHeaders(responseHeaders);
+        response.responseBody = responseBody;
+        response.responseBytes = responseBytes;
+        response.responseLength = responseLength;
+        response.compressedLength = compressedLength;
+        response.expiredTime = expiredTime;
+        response.isInitExpiredTime = isInitExpiredTime;
+        response.isInCache = isInCache;
+        return response;
     }
 
     public String getUrl() {
@@ -79,12 +122,150 @@ public class HttpResponse {
         this.url = url;
     }
 
+    /**
+     * get response body as String
+     * <ul>
+     * <li>raw bytes are decoded by {@link #getCharset()} on the first call, and the result is kept</li>
+     * </ul>
+     * 
+     * @return
+     */
     public String getResponseBody() {
+        if (responseBody == null && responseBytes != null) {
+            try {
+                responseBody = new String(responseBytes, 0, responseLength, getCharset());
+            } catch (UnsupportedEncodingException e) {
+                try {
+                    responseBody = new String(responseBytes, 0, responseLength, DEFAULT_CHARSET);
+                } catch (UnsupportedEncodingException e1) {
+                    throw new RuntimeException("UnsupportedEncodingException occurred. ", e1);
+                }
+            }
+        }
         return responseBody;
     }
 
     public void setResponseBody(String responseBody) {
         this.responseBody = responseBody;
+        this.responseBytes = null;
+        this.responseLength = 0;
+    }
+
+    /**
+     * set raw response body, the array is kept without copy
+     * 
+     * @param responseBytes
+     * @param length valid bytes are [0, length)
+     */
+    public void setResponseBody(byte[] responseBytes, int length) {
+        if (responseBytes != null && (length < 0 || length > responseBytes.length)) {
+            throw new IllegalArgumentException("length is out of bounds");
+        }
+        this.responseBytes = responseBytes;
+        this.responseLength = responseBytes == null ? 0 : length;
+        this.responseBody = null;
+    }
+
+    /**
+     * get raw response body without copy
+     * 
+     * @return null if body is set by {@link #setResponseBody(String)}, valid bytes are [0,
+     *         {@link #getResponseBodyLength()})
+     */
+    public byte[] getResponseBodyBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * @return length of raw response body
+     */
+    public int getResponseBodyLength() {
+        return responseLength;
+    }
+
+    /**
+     * @return bytes of response body on the wire before decompression, equals to {@link #getUncompressedLength()} if
+     *         the body is not compressed, -1 represents unknown
+     */
+    public long getCompressedLength() {
+        return compressedLength;
+    }
+
+    public void setCompressedLength(long compressedLength) {
+        this.compressedLength = compressedLength;
+    }
+
+    /**
+     * @return bytes of response body after decompression
+     */
+    public long getUncompressedLength() {
+        return responseBytes == null ? -1 : responseLength;
+    }
+
+    /**
+     * @return Content-Encoding of response, null if the body is not compressed
+     */
+    public String getContentEncoding() {
+        return getResponseHeader("Content-Encoding");
+    }
+
+    /**
+     * get raw response body as stream, nothing is decoded or copied
+     * 
+     * @return null if no raw response body
+     */
+    public InputStream getResponseBodyStream() {
+        return responseBytes == null ? null : new ByteArrayInputStream(responseBytes, 0, responseLength);
+    }
+
+    /**
+     * get charset in Content-Type of response header
+     * 
+     * @return {@link #DEFAULT_CHARSET} if no charset in Content-Type
+     */
+    public String getCharset() {
+        return parseHeaders().charset;
+    }
+
+    /**
+     * get media type in Content-Type of response header
+     * 
+     * <pre>
+     * Content-Type: text/HTML; charset=utf-8 returns text/html
+     * </pre>
+     * 
+     * @return lower case type/subtype without parameters, null if no Content-Type
+     */
+    public String getMimeType() {
+        return parseHeaders().mimeType;
+    }
+
+    /**
+     * @return Content-Length of response header, -1 represents not exist or invalid
+     */
+    public long getContentLength() {
+        return parseHeaders().contentLength;
+    }
+
+    /**
+     * @return ETag of response header as it is, null if not exist
+     */
+    public String getETag() {
+        return getResponseHeader("ETag");
+    }
+
+    /**
+     * @return Last-Modified of response header in milliseconds, -1 represents not exist or invalid
+     */
+    public long getLastModified() {
+        return parseHeaders().lastModified;
+    }
+
+    /**
+     * @return directives of Cache-Control of response header, {@link CacheControl#EMPTY} if not exist
+     */
+    public CacheControl getCacheControl() {
+        return parseHeaders().cacheControl;
     }
 
     /**
@@ -109,16 +290,30 @@ public class HttpResponse {
     }
 
     /**
-     * not avaliable now
-     * 
-     * @return
+     * @return all response headers, modifications are visible to this response
      */
-    private Map<String, Object> getResponseHeaders() {
+    public HttpHeaders getResponseHeaders() {
         return responseHeaders;
     }
 
+    /**
+     * @param responseHeaders kept without copy, null is processed as empty headers
+     */
+    public void setResponseHeaders(HttpHeaders responseHeaders) {
+        this.responseHeaders = responseHeaders == null ? new HttpHeaders() : responseHeaders;
+    }
+
+    /**
+     * @param responseHeaders copied, values are converted by toString
+     * @deprecated use {@link #setResponseHeaders(HttpHeaders)}
+     */
+    @Deprecated
     public void setResponseHeaders(Map<String, Object> responseHeaders) {
-        this.responseHeaders = responseHeaders;
+        HttpHeaders headers = new HttpHeaders();
+        if (responseHeaders != null) {
+            headers.addAll(responseHeaders);
+        }
+        setResponseHeaders(headers);
     }
 
     /**
@@ -187,7 +382,7 @@ public class HttpResponse {
      * @return
      */
     public boolean isExpired() {
-        return TimeUtil.getCurrentTimeInLong() > expiredTime;
+        return TimeUtil.getCurrentTimeInLong() > getExpiredTime();
     }
 
     /**
@@ -216,40 +411,7 @@ public class HttpResponse {
      * @return null represents http error or no expires in response headers
      */
     public String getExpiresHeader() {
-        try {
-            return responseHeaders == null ? null : (String)responseHeaders.get("expires");
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-
-    /**
-     * http cache-control in reponse header
-     * 
-     * @return -1 represents http error or no cache-control in response headers, or max-age in seconds
-     */
-    private long getCacheControlMaxAge() {
-        try {
-            String cacheControl = (String)responseHeaders.get("cache-control");
-            if (!StringUtils.isEmpty(cacheControl)) {
-                int start = cacheControl.indexOf("max-age=");
-                if (start != -1) {
-                    int end = cacheControl.indexOf(",", start);
-                    String maxAge;
-                    if (end != -1) {
-                        maxAge = cacheControl.substring(start + "max-age=".length(), end);
-                    } else {
-                        maxAge = cacheControl.substring(start + "max-age=".length());
-                    }
-                    return Long.parseLong(maxAge);
-                }
-            }
-            return -1;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return -1;
-        }
+        return getResponseHeader("Expires");
     }
 
     /**
@@ -262,36 +424,136 @@ public class HttpResponse {
      *         </ul>
      */
     private long getExpiresInMillis() {
-        long maxAge = getCacheControlMaxAge();
+        long maxAge = getCacheControl().getMaxAgeSeconds();
         if (maxAge != -1) {
             return System.currentTimeMillis() + maxAge * 1000;
         } else {
             String expire = getExpiresHeader();
             if (!StringUtils.isEmpty(expire)) {
-                return HttpUtils.parseGmtTime(getExpiresHeader());
+                return HttpUtils.parseGmtTime(expire);
             }
         }
         return -1;
     }
 
     /**
-     * set response header
+     * set response header, other values of the field are removed
      * 
-     * @param field
-     * @param newValue
+     * @param field case insensitive
+     * @param newValue null represents remove
      */
     public void setResponseHeader(String field, String newValue) {
-        if (responseHeaders != null) {
-            responseHeaders.put(field, newValue);
-        }
+        responseHeaders.set(field, newValue);
     }
 
     /**
-     * get response header, not avaliable now
+     * add response header, other values of the field are kept
      * 
      * @param field
+     * @param value null is ignored
+     */
+    public void addResponseHeader(String field, String value) {
+        responseHeaders.add(field, value);
+    }
+
+    /**
+     * get response header
+     * 
+     * @param field case insensitive header name, like Expires, Cache-Control, ETag
+     * @return the last value if the field has multiple values, null if not exist
      */
-    private Object getResponseHeader(String field) {
-        return responseHeaders == null ? null : responseHeaders.get(field);
+    public String getResponseHeader(String field) {
+        return responseHeaders.get(field);
+    }
+
+    /**
+     * parse typed values from headers if headers are modified since last parsing, the result is immutable so a
+     * response shared by threads can be read without locks
+     */
+    private ParsedHeaders parseHeaders() {
+        HttpHeaders headers = responseHeaders;
+        int modCount = headers.getModCount();
+        ParsedHeaders parsed = parsedHeaders;
+        if (parsed != null && parsed.headers == headers && parsed.modCount == modCount) {
+            return parsed;
+        }
+        String cacheControlValue = null;
+        String contentType = null;
+        long contentLength = -1;
+        long lastModified = -1;
+        for (int i = 0; i < headers.size(); i++) {
+            String name = headers.name(i);
+            String value = headers.value(i);
+            if ("Cache-Control".equalsIgnoreCase(name)) {
+                cacheControlValue = cacheControlValue == null ? value : cacheControlValue + ", " + value;
+            } else if ("Content-Type".equalsIgnoreCase(name)) {
+                contentType = value;
+            } else if ("Content-Length".equalsIgnoreCase(name)) {
+                contentLength = parseContentLength(value);
+            } else if ("Last-Modified".equalsIgnoreCase(name)) {
+                lastModified = HttpDate.parse(value);
+            }
+        }
+        parsed = new ParsedHeaders(headers, modCount, CacheControl.parse(cacheControlValue), contentType,
+                                   contentLength, lastModified);
+        parsedHeaders = parsed;
+        return parsed;
+    }
+
+    private static long parseContentLength(String value) {
+        try {
+            long length = Long.parseLong(value.trim());
+            return length < 0 ? -1 : length;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * typed values of headers, immutable
+     */
+    private static class ParsedHeaders {
+
+        final HttpHeaders  headers;
+        final int          modCount;
+        final CacheControl cacheControl;
+        final String       mimeType;
+        final String       charset;
+        final long         contentLength;
+        final long         lastModified;
+
+        ParsedHeaders(HttpHeaders headers, int modCount, CacheControl cacheControl, String contentType,
+                      long contentLength, long lastModified) {
+            this.headers = headers;
+            this.modCount = modCount;
+            this.cacheControl = cacheControl;
+            this.contentLength = contentLength;
+            this.lastModified = lastModified;
+
+            String mimeType = null;
+            String charset = DEFAULT_CHARSET;
+            if (!StringUtils.isEmpty(contentType)) {
+                String[] paras = contentType.split(";");
+                String type = paras[0].trim();
+                if (type.length() > 0) {
+                    mimeType = type.toLowerCase(Locale.ENGLISH);
+                }
+                for (int i = 1; i < paras.length; i++) {
+                    String para = paras[i].trim();
+                    if (para.regionMatches(true, 0, "charset=", 0, "charset=".length())) {
+                        String value = para.substring("charset=".length()).trim();
+                        if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+                            value = value.substring(1, value.length() - 1);
+                        }
+                        if (!StringUtils.isEmpty(value)) {
+                            charset = value;
+                            break;
+                        }
+                    }
+                }
+            }
+            this.mimeType = mimeType;
+            this.charset = charset;
+        }
     }
 }
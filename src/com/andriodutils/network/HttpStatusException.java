@@ -0,0 +1,74 @@
+package com.andriodutils.network;
+
+import java.io.IOException;
+
+import com.andriodutils.string.StringUtils;
+
+/**
+ * HttpStatusException, thrown when the server answers with an error status code
+ * <ul>
+ * <li>{@link #getResponseCode()} the status code, 4xx or 5xx</li>
+ * <li>{@link #getRetryAfterMillis()} the Retry-After header of 429 or 503 responses</li>
+ * </ul>
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String      url;
+    private final int         responseCode;
+    private final String      retryAfter;
+
+    /**
+     * @param url
+     * @param responseCode
+     * @param retryAfter value of Retry-After header, can be null
+     */
+    public HttpStatusException(String url, int responseCode, String retryAfter) {
+        super("HTTP " + responseCode + " for " + url);
+        this.url = url;
+        this.responseCode = responseCode;
+        this.retryAfter = retryAfter;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * @return value of Retry-After header, null if not exist
+     */
+    public String getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Retry-After in milliseconds from now
+     *
+     * @return -1 if no Retry-After or it can not be parsed, otherwise delay in milliseconds, never negative
+     */
+    public long getRetryAfterMillis() {
+        if (StringUtils.isEmpty(retryAfter)) {
+            return -1;
+        }
+        String value = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // not delay-seconds, should be a http date
+        }
+        long time = HttpUtils.parseGmtTime(value);
+        return time == -1 ? -1 : Math.max(0, time - System.currentTimeMillis());
+    }
+
+    /**
+     * @return whether the status represents the server is overloaded or down, 408, 429 and 5xx except 501
+     */
+    public boolean isServerFailure() {
+        return responseCode == 408 || responseCode == 429 || (responseCode >= 500 && responseCode != 501);
+    }
+}
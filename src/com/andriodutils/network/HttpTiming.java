@@ -0,0 +1,205 @@
+package com.andriodutils.network;
+
+import java.io.IOException;
+
+/**
+ * HttpTiming, where the time of one request went, reported to {@link HttpEventListener}
+ * <ul>
+ * <strong>Phases</strong>, in milliseconds, -1 represents the phase is unknown or did not happen
+ * <li>{@link #getDnsMillis()} resolving host</li>
+ * <li>{@link #getConnectMillis()} tcp connect, including tls if {@link #getTlsMillis()} is -1</li>
+ * <li>{@link #getTlsMillis()} tls handshake</li>
+ * <li>{@link #getRequestMillis()} writing request headers and body</li>
+ * <li>{@link #getFirstByteMillis()} from request sent to response headers received, the server time</li>
+ * <li>{@link #getBodyMillis()} reading response body</li>
+ * <li>{@link #getTotalMillis()} from start to end of request</li>
+ * </ul>
+ * <ul>
+ * <strong>Attentions:</strong>
+ * <li>a reused connection has no dns, connect and tls phase</li>
+ * <li>which phases are known depends on the transport, HttpURLConnection can not split connect and tls, OkHttp can
+ * not split dns, connect and tls</li>
+ * </ul>
+ */
+public class HttpTiming {
+
+    private final String method;
+    private final String url;
+    private final long   startMillis;
+    private final long   startNanos;
+    private int          responseCode    = -1;
+    private long         dnsMillis       = -1;
+    private long         connectMillis   = -1;
+    private long         tlsMillis       = -1;
+    private long         requestMillis   = -1;
+    private long         firstByteMillis = -1;
+    private long         bodyMillis      = -1;
+    private long         totalMillis     = -1;
+    private long         bytesSent       = 0;
+    private long         bytesReceived   = 0;
+    private IOException  failure;
+
+    /**
+     * start timing a request now
+     *
+     * @param method
+     * @param url
+     */
+    public HttpTiming(String method, String url) {
+        this.method = method;
+        this.url = url;
+        this.startMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * milliseconds since start, for transports to measure phases
+     *
+     * @return
+     */
+    public long elapsedMillis() {
+        return toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * convert nanoTime duration to milliseconds
+     *
+     * @param nanos
+     * @return
+     */
+    public static long toMillis(long nanos) {
+        return nanos / 1000000;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return host with port, see {@link CircuitBreaker#getHost(String)}
+     */
+    public String getHost() {
+        return CircuitBreaker.getHost(url);
+    }
+
+    /**
+     * @return wall clock time of start
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    public void setResponseCode(int responseCode) {
+        this.responseCode = responseCode;
+    }
+
+    public long getDnsMillis() {
+        return dnsMillis;
+    }
+
+    public void setDnsMillis(long dnsMillis) {
+        this.dnsMillis = dnsMillis;
+    }
+
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    public void setConnectMillis(long connectMillis) {
+        this.connectMillis = connectMillis;
+    }
+
+    public long getTlsMillis() {
+        return tlsMillis;
+    }
+
+    public void setTlsMillis(long tlsMillis) {
+        this.tlsMillis = tlsMillis;
+    }
+
+    public long getRequestMillis() {
+        return requestMillis;
+    }
+
+    public void setRequestMillis(long requestMillis) {
+        this.requestMillis = requestMillis;
+    }
+
+    public long getFirstByteMillis() {
+        return firstByteMillis;
+    }
+
+    public void setFirstByteMillis(long firstByteMillis) {
+        this.firstByteMillis = firstByteMillis;
+    }
+
+    public long getBodyMillis() {
+        return bodyMillis;
+    }
+
+    public void setBodyMillis(long bodyMillis) {
+        this.bodyMillis = bodyMillis;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public void setBytesSent(long bytesSent) {
+        this.bytesSent = bytesSent;
+    }
+
+    /**
+     * @return bytes of response body on the wire, before decompression
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public void setBytesReceived(long bytesReceived) {
+        this.bytesReceived = bytesReceived;
+    }
+
+    /**
+     * @return null if request succeeded
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    /**
+     * end timing, set total time and failure
+     *
+     * @param failure null if request succeeded
+     * @return this
+     */
+    public HttpTiming end(IOException failure) {
+        this.failure = failure;
+        this.totalMillis = elapsedMillis();
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + url + " " + responseCode + " total=" + totalMillis + "ms dns=" + dnsMillis + " connect="
+               + connectMillis + " tls=" + tlsMillis + " request=" + requestMillis + " firstByte=" + firstByteMillis
+               + " body=" + bodyMillis + " sent=" + bytesSent + " received=" + bytesReceived
+               + (failure == null ? "" : " failure=" + failure);
+    }
+}
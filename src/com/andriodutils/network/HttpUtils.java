@@ -1,23 +1,13 @@
 package com.andriodutils.network;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.text.SimpleDateFormat;
-import java.util.Iterator;
-import java.util.Locale;
 import java.util.Map;
 
-import com.andriodutils.collection.ArrayUtils;
 import com.andriodutils.collection.MapUtils;
-import com.andriodutils.file.IOUtils;
 import com.andriodutils.string.StringUtils;
 
-import android.os.AsyncTask;
-
 /**
  * HttpUtils
  * <ul>
@@ -25,9 +15,11 @@ import android.os.AsyncTask;
  * <li>{@link #httpGet(HttpRequest)} http get synchronous</li>
  * <li>{@link #httpGet(String)} http get synchronous</li>
  * <li>{@link #httpGetString(String)} http get synchronous, response is String</li>
+ * <li>{@link #httpGetStream(HttpRequest)} http get synchronous, response is InputStream</li>
  * 
  * <li>{@link #httpGetAsync(HttpRequest, HttpListener)} http get asynchronous</li>
  * <li>{@link #httpGetAsync(String, HttpListener)} http get asynchronous</li>
+ * <li>{@link #httpGetAsync(HttpRequest, int, long, HttpListener)} http get asynchronous with lane and deadline</li>
  * </ul>
  * <ul>
  * <strong>Http post</strong>
@@ -37,6 +29,15 @@ import android.os.AsyncTask;
  * <li>{@link #httpPostString(String, Map)}</li>
  * </ul>
  * <ul>
+ * <strong>Http engine</strong>
+ * <li>{@link #getHttpEngine()}</li>
+ * <li>{@link #setHttpEngine(HttpEngine)}</li>
+ * <li>{@link #getHttpDispatcher()}</li>
+ * <li>{@link #setHttpDispatcher(HttpDispatcher)}</li>
+ * <li>{@link #getHttpEventListener()}</li>
+ * <li>{@link #setHttpEventListener(HttpEventListener)}</li>
+ * </ul>
+ * <ul>
  * <strong>Http params</strong>
  * <li>{@link #getUrlWithParas(String, Map)}</li>
  * <li>{@link #getUrlWithValueEncodeParas(String, Map)}</li>
@@ -59,60 +60,130 @@ public class HttpUtils {
     /** equal sign **/
     public static final String EQUAL_SIGN             = "=";
 
+    private static volatile HttpEngine        engine;
+    private static volatile HttpDispatcher    dispatcher;
+    private static volatile HttpEventListener eventListener;
+
     private HttpUtils() {
         throw new AssertionError();
     }
 
     /**
-     * http get synchronous
+     * get the engine which executes {@link #httpGet(HttpRequest)} and {@link #httpPost(HttpRequest)}
+     * 
+     * @return if not set, return a {@link UrlConnectionEngine} with default {@link HttpConnectionPool}
+     */
+    public static HttpEngine getHttpEngine() {
+        if (engine == null) {
+            synchronized (HttpUtils.class) {
+                if (engine == null) {
+                    HttpConnectionPool pool = new HttpConnectionPool();
+                    pool.install();
+                    engine = new UrlConnectionEngine(pool);
+                }
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * get the dispatcher which executes {@link #httpGetAsync(HttpRequest, int, long, HttpListener)}
+     * 
+     * @return if not set, return a {@link HttpDispatcher} with default thread counts
+     */
+    public static HttpDispatcher getHttpDispatcher() {
+        if (dispatcher == null) {
+            synchronized (HttpUtils.class) {
+                if (dispatcher == null) {
+                    dispatcher = new HttpDispatcher();
+                }
+            }
+        }
+        return dispatcher;
+    }
+
+    /**
+     * set the dispatcher which executes {@link #httpGetAsync(HttpRequest, int, long, HttpListener)}
+     * 
+     * @param httpDispatcher
+     */
+    public static void setHttpDispatcher(HttpDispatcher httpDispatcher) {
+        if (httpDispatcher == null) {
+            throw new IllegalArgumentException("httpDispatcher can not be null");
+        }
+        dispatcher = httpDispatcher;
+    }
+
+    /**
+     * get the listener which receives {@link HttpTiming} of every request of {@link UrlConnectionEngine}
+     * 
+     * @return null if not set
+     */
+    public static HttpEventListener getHttpEventListener() {
+        return eventListener;
+    }
+
+    /**
+     * set the listener which receives {@link HttpTiming} of every request of {@link UrlConnectionEngine}, like
+     * {@link HttpMetrics}
+     * 
+     * @param httpEventListener null represents no timing
+     */
+    public static void setHttpEventListener(HttpEventListener httpEventListener) {
+        eventListener = httpEventListener;
+    }
+
+    /**
+     * set the engine which executes {@link #httpGet(HttpRequest)} and {@link #httpPost(HttpRequest)}
      * <ul>
-     * <li>use gzip compression default</li>
-     * <li>use bufferedReader to improve the reading speed</li>
+     * <li>wrap {@link #getHttpEngine()} by {@link ResilientEngine} to retry failures and fail fast for hosts which
+     * are down</li>
+     * <li>wrap it by {@link SingleFlightEngine} to share identical concurrent gets</li>
      * </ul>
      * 
+     * @param httpEngine
+     */
+    public static void setHttpEngine(HttpEngine httpEngine) {
+        if (httpEngine == null) {
+            throw new IllegalArgumentException("httpEngine can not be null");
+        }
+        engine = httpEngine;
+    }
+
+    /**
+     * execute request by {@link #getHttpEngine()}
+     * 
+     * @param method
      * @param request
      * @return the response of the url, if null represents http error
      */
-    public static HttpResponse httpGet(HttpRequest request) {
+    private static HttpResponse execute(String method, HttpRequest request) {
         if (request == null) {
             return null;
         }
 
-        BufferedReader input = null;
-        HttpURLConnection con = null;
         try {
-            URL url = new URL(request.getUrl());
-            try {
-                HttpResponse response = new HttpResponse(request.getUrl());
-                // default gzip encode
-                con = (HttpURLConnection)url.openConnection();
-                setURLConnection(request, con);
-                input = new BufferedReader(new InputStreamReader(con.getInputStream()));
-                StringBuilder sb = new StringBuilder();
-                String s;
-                while ((s = input.readLine()) != null) {
-                    sb.append(s).append("\n");
-                }
-                response.setResponseBody(sb.toString());
-                setHttpResponse(con, response);
-                return response;
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        } catch (MalformedURLException e1) {
-            e1.printStackTrace();
-        } finally {
-            // close buffered
-            IOUtils.closeQuietly(input);
-            // disconnecting releases the resources held by a connection so they may be closed or reused
-            if (con != null) {
-                con.disconnect();
-            }
+            return getHttpEngine().execute(method, request);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-
         return null;
     }
 
+    /**
+     * http get synchronous
+     * <ul>
+     * <li>use gzip compression default, see {@link UrlConnectionEngine#ACCEPT_ENCODING}</li>
+     * <li>executed by {@link #getHttpEngine()}, connections are kept alive and reused</li>
+     * </ul>
+     * 
+     * @param request
+     * @return the response of the url, if null represents http error
+     */
+    public static HttpResponse httpGet(HttpRequest request) {
+        return execute(HttpEngine.METHOD_GET, request);
+    }
+
     /**
      * http get synchronous
      * 
@@ -148,25 +219,60 @@ public class HttpUtils {
         return response == null ? null : response.getResponseBody();
     }
 
+    /**
+     * http get synchronous, response body is not buffered
+     * <ul>
+     * <li>use it for large response, the body can be read without holding all of it in memory</li>
+     * <li>the stream must be closed, or the connection can not be reused</li>
+     * </ul>
+     * 
+     * @param request
+     * @return the stream of response body, if null represents http error
+     */
+    public static InputStream httpGetStream(HttpRequest request) {
+        if (request == null) {
+            return null;
+        }
+
+        try {
+            return getHttpEngine().open(HttpEngine.METHOD_GET, request);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * http get synchronous, response body is not buffered
+     * 
+     * @param httpUrl
+     * @return the stream of response body, if null represents http error
+     * @see HttpUtils#httpGetStream(HttpRequest)
+     */
+    public static InputStream httpGetStream(String httpUrl) {
+        return httpGetStream(new HttpRequest(httpUrl));
+    }
+
     /**
      * http get asynchronous
      * <ul>
-     * <li>It gets data from network asynchronous.</li>
+     * <li>It gets data from network asynchronous, on foreground lane of {@link #getHttpDispatcher()}.</li>
      * <li>If you want get data synchronous, use {@link #httpGet(HttpRequest)} or {@link #httpGetString(HttpRequest)}</li>
      * </ul>
      * 
      * @param url
      * @param listener listener which can do something before or after HttpGet. this can be null if you not want to do
      *        something
+     * @return handle to cancel or wait for the request
      */
-    public static void httpGetAsync(String url, HttpListener listener) {
-        new HttpStringAsyncTask(listener).execute(url);
+    public static HttpCall httpGetAsync(String url, HttpListener listener) {
+        return httpGetAsync(new HttpRequest(url), listener);
     }
 
     /**
      * http get asynchronous
      * <ul>
-     * <li>It gets data or network asynchronous.</li>
+     * <li>It gets data or network asynchronous, on foreground lane of {@link #getHttpDispatcher()}.</li>
      * <li>If you want get data synchronous, use {@link HttpCache#httpGet(HttpRequest)} or
      * {@link HttpCache#httpGetString(HttpRequest)}</li>
      * </ul>
@@ -174,66 +280,47 @@ public class HttpUtils {
      * @param request
      * @param listener listener which can do something before or after HttpGet. this can be null if you not want to do
      *        something
+     * @return handle to cancel or wait for the request
+     */
+    public static HttpCall httpGetAsync(HttpRequest request, HttpListener listener) {
+        return httpGetAsync(request, HttpDispatcher.LANE_FOREGROUND, 0, listener);
+    }
+
+    /**
+     * http get asynchronous
+     * <ul>
+     * <li>{@link HttpListener#onPreGet()} runs on the calling thread before the request is submitted</li>
+     * <li>{@link HttpListener#onPostGet(HttpResponse)} gets null if the deadline passed</li>
+     * </ul>
+     * 
+     * @param request
+     * @param lane {@link HttpDispatcher#LANE_FOREGROUND} or {@link HttpDispatcher#LANE_BACKGROUND}
+     * @param timeoutMillis max milliseconds from now to the response, 0 represents no deadline
+     * @param listener can be null
+     * @return handle to cancel or wait for the request
      */
-    public static void httpGetAsync(HttpRequest request, HttpListener listener) {
-        new HttpRequestAsyncTask(listener).execute(request);
+    public static HttpCall httpGetAsync(HttpRequest request, int lane, long timeoutMillis, HttpListener listener) {
+        if (listener != null) {
+            listener.onPreGet();
+        }
+        return getHttpDispatcher().enqueue(request, lane, timeoutMillis, listener);
     }
 
     /**
      * http post
      * <ul>
-     * <li>use gzip compression default</li>
-     * <li>use bufferedReader to improve the reading speed</li>
+     * <li>use gzip compression default, see {@link UrlConnectionEngine#ACCEPT_ENCODING}</li>
+     * <li>executed by {@link #getHttpEngine()}, connections are kept alive and reused</li>
+     * <li>paras are posted as form, or {@link HttpRequest#setBody(HttpBody)} streams a file, stream or
+     * {@link HttpMultipartBody}, see {@link HttpRequest#setProgressListener(ProgressListener)} and
+     * {@link HttpRequest#setGzipBody(boolean)}</li>
      * </ul>
      * 
-     * @param httpUrl
-     * @param paras
+     * @param request
      * @return the response of the url, if null represents http error
      */
     public static HttpResponse httpPost(HttpRequest request) {
-        if (request == null) {
-            return null;
-        }
-
-        BufferedReader input = null;
-        HttpURLConnection con = null;
-        try {
-            URL url = new URL(request.getUrl());
-            try {
-                HttpResponse response = new HttpResponse(request.getUrl());
-                // default gzip encode
-                con = (HttpURLConnection)url.openConnection();
-                setURLConnection(request, con);
-                con.setRequestMethod("POST");
-                con.setDoOutput(true);
-                String paras = request.getParas();
-                if (!StringUtils.isEmpty(paras)) {
-                    con.getOutputStream().write(paras.getBytes());
-                }
-                input = new BufferedReader(new InputStreamReader(con.getInputStream()));
-                StringBuilder sb = new StringBuilder();
-                String s;
-                while ((s = input.readLine()) != null) {
-                    sb.append(s).append("\n");
-                }
-                response.setResponseBody(sb.toString());
-                setHttpResponse(con, response);
-                return response;
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        } catch (MalformedURLException e1) {
-            e1.printStackTrace();
-        } finally {
-            // close buffered
-            IOUtils.closeQuietly(input);
-            // disconnecting releases the resources held by a connection so they may be closed or reused
-            if (con != null) {
-                con.disconnect();
-            }
-        }
-
-        return null;
+        return execute(HttpEngine.METHOD_POST, request);
     }
 
     /**
@@ -288,12 +375,7 @@ public class HttpUtils {
      * @return if url is null, process it as empty string
      */
     public static String getUrlWithParas(String url, Map<String, String> parasMap) {
-        StringBuilder urlWithParas = new StringBuilder(StringUtils.isEmpty(url) ? "" : url);
-        String paras = joinParas(parasMap);
-        if (!StringUtils.isEmpty(paras)) {
-            urlWithParas.append(URL_AND_PARA_SEPARATOR).append(paras);
-        }
-        return urlWithParas.toString();
+        return UrlBuilder.obtain().url(url).rawParas(parasMap).toString();
     }
 
     /**
@@ -303,15 +385,10 @@ public class HttpUtils {
      * @param parasMap
      * @return
      * @see #getUrlWithParas(String, Map)
-     * @see StringUtils#utf8Encode(String)
+     * @see UrlBuilder#para(String, String)
      */
     public static String getUrlWithValueEncodeParas(String url, Map<String, String> parasMap) {
-        StringBuilder urlWithParas = new StringBuilder(StringUtils.isEmpty(url) ? "" : url);
-        String paras = joinParasWithEncodedValue(parasMap);
-        if (!StringUtils.isEmpty(paras)) {
-            urlWithParas.append(URL_AND_PARA_SEPARATOR).append(paras);
-        }
-        return urlWithParas.toString();
+        return UrlBuilder.obtain().url(url).paras(parasMap).toString();
     }
 
     /**
@@ -325,47 +402,27 @@ public class HttpUtils {
             return null;
         }
 
-        StringBuilder paras = new StringBuilder();
-        Iterator<Map.Entry<String, String>> ite = parasMap.entrySet().iterator();
-        while (ite.hasNext()) {
-            Map.Entry<String, String> entry = (Map.Entry<String, String>)ite.next();
-            paras.append(entry.getKey()).append(EQUAL_SIGN).append(entry.getValue());
-            if (ite.hasNext()) {
-                paras.append(PARAMETERS_SEPARATOR);
-            }
-        }
-        return paras.toString();
+        return UrlBuilder.obtain().rawParas(parasMap).toString();
     }
 
     /**
-     * join paras with encoded value
+     * join paras with encoded key and value
      * 
      * @param parasMap
-     * @return
+     * @return empty string if parasMap is empty
      * @see #joinParas(Map)
-     * @see StringUtils#utf8Encode(String)
+     * @see UrlBuilder#para(String, String)
      */
     public static String joinParasWithEncodedValue(Map<String, String> parasMap) {
-        StringBuilder paras = new StringBuilder("");
-        if (parasMap != null && parasMap.size() > 0) {
-            Iterator<Map.Entry<String, String>> ite = parasMap.entrySet().iterator();
-            try {
-                while (ite.hasNext()) {
-                    Map.Entry<String, String> entry = (Map.Entry<String, String>)ite.next();
-                    paras.append(entry.getKey()).append(EQUAL_SIGN).append(StringUtils.utf8Encode(entry.getValue()));
-                    if (ite.hasNext()) {
-                        paras.append(PARAMETERS_SEPARATOR);
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+        if (parasMap == null || parasMap.size() == 0) {
+            return "";
         }
-        return paras.toString();
+
+        return UrlBuilder.obtain().paras(parasMap).toString();
     }
 
     /**
-     * append a key and value pair to url
+     * append a key and value pair to url, key and value are encoded
      * 
      * @param url
      * @param paraKey
@@ -377,31 +434,18 @@ public class HttpUtils {
             return url;
         }
 
-        StringBuilder sb = new StringBuilder(url);
-        if (!url.contains(URL_AND_PARA_SEPARATOR)) {
-            sb.append(URL_AND_PARA_SEPARATOR);
-        } else {
-            sb.append(PARAMETERS_SEPARATOR);
-        }
-        return sb.append(paraKey).append(EQUAL_SIGN).append(paraValue).toString();
+        return UrlBuilder.obtain().url(url).para(paraKey, paraValue).toString();
     }
 
-    private static final SimpleDateFormat GMT_FORMAT = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss z",
-                                                             Locale.ENGLISH);
-
     /**
      * parse gmt time to long
      * 
      * @param gmtTime likes Thu, 11 Apr 2013 10:20:30 GMT
      * @return -1 represents exception otherwise time in milliseconds
+     * @see HttpDate#parse(String)
      */
     public static long parseGmtTime(String gmtTime) {
-        try {
-            return GMT_FORMAT.parse(gmtTime).getTime();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return -1;
+        return HttpDate.parse(gmtTime);
     }
 
     /**
@@ -410,7 +454,7 @@ public class HttpUtils {
      * @param request source request
      * @param urlConnection destin url connection
      */
-    private static void setURLConnection(HttpRequest request, HttpURLConnection urlConnection) {
+    static void setURLConnection(HttpRequest request, HttpURLConnection urlConnection) {
         if (request == null || urlConnection == null) {
             return;
         }
@@ -448,7 +492,7 @@ public class HttpUtils {
      * @param urlConnection source url connection
      * @param response destin response
      */
-    private static void setHttpResponse(HttpURLConnection urlConnection, HttpResponse response) {
+    static void setHttpResponse(HttpURLConnection urlConnection, HttpResponse response) {
         if (response == null || urlConnection == null) {
             return;
         }
@@ -457,72 +501,17 @@ public class HttpUtils {
         } catch (IOException e) {
             response.setResponseCode(-1);
         }
-        response.setResponseHeader("expires", urlConnection.getHeaderField("Expires"));
-        response.setResponseHeader("cache-control", urlConnection.getHeaderField("Cache-Control"));
-    }
-
-    /**
-     * AsyncTask to get data by String url
-     * 
-     * @author <a href="http://www.trinea.cn" target="_blank">Trinea</a> 2013-11-15
-     */
-    private static class HttpStringAsyncTask extends AsyncTask<String, Void, HttpResponse> {
-
-        private HttpListener listener;
-
-        public HttpStringAsyncTask(HttpListener listener) {
-            this.listener = listener;
-        }
-
-        protected HttpResponse doInBackground(String... url) {
-            if (ArrayUtils.isEmpty(url)) {
-                return null;
-            }
-            return httpGet(url[0]);
-        }
-
-        protected void onPreExecute() {
-            if (listener != null) {
-                listener.onPreGet();
+        // all fields in receiving order, by index to avoid the map built by getHeaderFields
+        HttpHeaders headers = response.getResponseHeaders();
+        for (int i = 0;; i++) {
+            String value = urlConnection.getHeaderField(i);
+            if (value == null) {
+                break;
             }
-        }
-
-        protected void onPostExecute(HttpResponse httpResponse) {
-            if (listener != null) {
-                listener.onPostGet(httpResponse);
-            }
-        }
-    }
-
-    /**
-     * AsyncTask to get data by HttpRequest
-     * 
-     * 
-     */
-    private static class HttpRequestAsyncTask extends AsyncTask<HttpRequest, Void, HttpResponse> {
-
-        private HttpListener listener;
-
-        public HttpRequestAsyncTask(HttpListener listener) {
-            this.listener = listener;
-        }
-
-        protected HttpResponse doInBackground(HttpRequest... httpRequest) {
-            if (ArrayUtils.isEmpty(httpRequest)) {
-                return null;
-            }
-            return httpGet(httpRequest[0]);
-        }
-
-        protected void onPreExecute() {
-            if (listener != null) {
-                listener.onPreGet();
-            }
-        }
-
-        protected void onPostExecute(HttpResponse httpResponse) {
-            if (listener != null) {
-                listener.onPostGet(httpResponse);
+            String field = urlConnection.getHeaderFieldKey(i);
+            // null field is the status line
+            if (field != null) {
+                headers.add(field, value);
             }
         }
     }
@@ -551,5 +540,10 @@ public class HttpUtils {
          * @param httpResponse get by the url
          */
         protected void onPostGet(HttpResponse httpResponse) {}
+
+        /**
+         * Runs on the UI thread if the request is cancelled by {@link HttpCall#cancel()}, onPostGet will not be called.
+         */
+        protected void onCancelled() {}
     }
 }
@@ -0,0 +1,144 @@
+package com.andriodutils.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram, lock free histogram of milliseconds
+ * <ul>
+ * <li>bucket i holds values less than 2^i milliseconds, the last bucket holds all larger values, about 65 seconds</li>
+ * <li>{@link #record(long)} only increments atomic counters, it can be called from any thread</li>
+ * <li>{@link #snapshot()} copies the counters, it is not atomic across buckets, which is fine for monitoring</li>
+ * </ul>
+ */
+public class LatencyHistogram {
+
+    /** count of buckets **/
+    public static final int       BUCKET_COUNT = 18;
+
+    private final AtomicLongArray buckets      = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong      sum          = new AtomicLong();
+    private final AtomicLong      max          = new AtomicLong();
+
+    /**
+     * record a value
+     *
+     * @param millis negative value is ignored
+     */
+    public void record(long millis) {
+        if (millis < 0) {
+            return;
+        }
+        buckets.incrementAndGet(getBucket(millis));
+        sum.addAndGet(millis);
+        long currentMax;
+        while (millis > (currentMax = max.get()) && !max.compareAndSet(currentMax, millis)) {}
+    }
+
+    /**
+     * @return copy of current counters
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts, sum.get(), max.get());
+    }
+
+    /**
+     * upper bound of bucket, exclusive
+     *
+     * @param bucket
+     * @return -1 for the last bucket which has no bound
+     */
+    public static long getBucketBound(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? -1 : 1L << bucket;
+    }
+
+    private static int getBucket(long millis) {
+        // values in [2^(i-1), 2^i) go to bucket i, 0 goes to bucket 0
+        int bucket = 64 - Long.numberOfLeadingZeros(millis);
+        return bucket < BUCKET_COUNT ? bucket : BUCKET_COUNT - 1;
+    }
+
+    /**
+     * Snapshot, immutable copy of a {@link LatencyHistogram}
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long   count;
+        private final long   sum;
+        private final long   max;
+
+        Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return count of values
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return 0 if no values
+         */
+        public long getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * @param bucket
+         * @return count of values in bucket, see {@link LatencyHistogram#getBucketBound(int)}
+         */
+        public long getBucketCount(int bucket) {
+            return counts[bucket];
+        }
+
+        /**
+         * estimate percentile by the upper bound of bucket which contains it
+         *
+         * @param percentile in (0, 100], like 50, 90, 99
+         * @return 0 if no values, never more than {@link #getMax()}
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long)Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    long bound = getBucketBound(i);
+                    return bound == -1 ? max : Math.min(bound, max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " mean=" + getMean() + "ms p50=" + getPercentile(50) + "ms p90="
+                   + getPercentile(90) + "ms p99=" + getPercentile(99) + "ms max=" + max + "ms";
+        }
+    }
+}
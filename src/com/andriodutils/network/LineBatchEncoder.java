@@ -0,0 +1,60 @@
+package com.andriodutils.network;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LineBatchEncoder, a simple {@link BatchEncoder} in text lines
+ * <ul>
+ * <li>request: paras of every request are encoded by {@link HttpRequest#getParas()} and posted one per line</li>
+ * <li>response: the server answers one line per request in the same order, line i is the body of response i, they
+ * share the response code of the batch</li>
+ * <li>timeouts and request properties of the first request are used by the batch request</li>
+ * </ul>
+ */
+public class LineBatchEncoder implements BatchEncoder {
+
+    /** Content-Type of batch request **/
+    public static final String CONTENT_TYPE = "text/plain; charset=utf-8";
+
+    @Override
+    public HttpRequest encode(String url, List<HttpRequest> requests) throws IOException {
+        UrlBuilder builder = new UrlBuilder(requests.size() * 64);
+        for (int i = 0; i < requests.size(); i++) {
+            if (i > 0) {
+                builder.append('\n');
+            }
+            // paras are percent encoded, they never contain line breaks
+            builder.append(requests.get(i).getParas());
+        }
+        HttpRequest batch = new HttpRequest(requests.get(0));
+        batch.setParasMap(null);
+        batch.setBody(HttpBody.create(CONTENT_TYPE, builder.toBytes()));
+        return batch;
+    }
+
+    @Override
+    public List<HttpResponse> decode(HttpResponse response, List<HttpRequest> requests) throws IOException {
+        String body = response.getResponseBody();
+        List<HttpResponse> responses = new ArrayList<HttpResponse>(requests.size());
+        int start = 0;
+        for (int i = 0; i < requests.size(); i++) {
+            if (body == null || start > body.length()) {
+                throw new IOException("batch response has " + i + " lines, expected " + requests.size());
+            }
+            int end = body.indexOf('\n', start);
+            if (end == -1) {
+                end = body.length();
+            }
+            String line = body.substring(start, end > start && body.charAt(end - 1) == '\r' ? end - 1 : end);
+            start = end + 1;
+
+            HttpResponse single = new HttpResponse(requests.get(i).getUrl());
+            single.setResponseCode(response.getResponseCode());
+            single.setResponseBody(line);
+            responses.add(single);
+        }
+        return responses;
+    }
+}
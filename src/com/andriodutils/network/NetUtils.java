@@ -16,11 +16,15 @@ public class NetUtils {
     }
 
     /**
-     * 判断网络是否连接
+     * 判断网络是否连接，{@link NetworkStateMonitor}已启动时直接读取它的状态
      *
      * @return
      */
     public static boolean isConnected(Context context) {
+        NetworkStateMonitor monitor = NetworkStateMonitor.getRunningInstance();
+        if (monitor != null) {
+            return monitor.getState().isConnected();
+        }
 
         ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
 
@@ -40,12 +44,18 @@ public class NetUtils {
      * 判断是否是wifi连接
      */
     public static boolean isWifi(Context context) {
+        NetworkStateMonitor monitor = NetworkStateMonitor.getRunningInstance();
+        if (monitor != null) {
+            return monitor.getState().isWifi();
+        }
+
         ConnectivityManager cm = (ConnectivityManager) context
                 .getSystemService(Context.CONNECTIVITY_SERVICE);
 
         if (cm == null)
             return false;
-        return cm.getActiveNetworkInfo().getType() == ConnectivityManager.TYPE_WIFI;
+        NetworkInfo info = cm.getActiveNetworkInfo();
+        return info != null && info.getType() == ConnectivityManager.TYPE_WIFI;
 
     }
     
@@ -53,12 +63,18 @@ public class NetUtils {
      * 判断是否是有线连接
      */
     public static boolean isWiredNet(Context context) {
+        NetworkStateMonitor monitor = NetworkStateMonitor.getRunningInstance();
+        if (monitor != null) {
+            return monitor.getState().isEthernet();
+        }
+
         ConnectivityManager cm = (ConnectivityManager) context
                 .getSystemService(Context.CONNECTIVITY_SERVICE);
 
         if (cm == null)
             return false;
-        return cm.getActiveNetworkInfo().getType() == ConnectivityManager.TYPE_ETHERNET;
+        NetworkInfo info = cm.getActiveNetworkInfo();
+        return info != null && info.getType() == ConnectivityManager.TYPE_ETHERNET;
 
     }
 
@@ -0,0 +1,124 @@
+package com.andriodutils.network;
+
+/**
+ * NetworkState, immutable snapshot of the active network published by {@link NetworkStateMonitor}
+ * <ul>
+ * <li>{@link #getType()} is the connection class, {@link #TYPE_NONE} when not connected</li>
+ * <li>{@link #isMetered()} is true if the user may pay for traffic, prefetching should be skipped then</li>
+ * <li>{@link #getSubtype()} is the raw subtype of the system, one of TelephonyManager.NETWORK_TYPE_* for cellular</li>
+ * </ul>
+ */
+public final class NetworkState {
+
+    /** not connected **/
+    public static final int          TYPE_NONE     = 0;
+    public static final int          TYPE_WIFI     = 1;
+    /** mobile data, including wimax **/
+    public static final int          TYPE_CELLULAR = 2;
+    public static final int          TYPE_ETHERNET = 3;
+    /** connected by others, such as bluetooth tethering **/
+    public static final int          TYPE_OTHER    = 4;
+
+    /** state when not connected **/
+    public static final NetworkState DISCONNECTED  = new NetworkState(TYPE_NONE, 0, false, false, 0);
+
+    private final int                type;
+    private final int                subtype;
+    private final boolean            isMetered;
+    private final boolean            isRoaming;
+    private final long               time;
+
+    /**
+     * @param type one of TYPE_*
+     * @param subtype
+     * @param isMetered
+     * @param isRoaming
+     * @param time when the state is read, in elapsed realtime millis
+     */
+    public NetworkState(int type, int subtype, boolean isMetered, boolean isRoaming, long time) {
+        this.type = type;
+        this.subtype = subtype;
+        this.isMetered = isMetered;
+        this.isRoaming = isRoaming;
+        this.time = time;
+    }
+
+    public boolean isConnected() {
+        return type != TYPE_NONE;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getSubtype() {
+        return subtype;
+    }
+
+    public boolean isWifi() {
+        return type == TYPE_WIFI;
+    }
+
+    public boolean isCellular() {
+        return type == TYPE_CELLULAR;
+    }
+
+    public boolean isEthernet() {
+        return type == TYPE_ETHERNET;
+    }
+
+    public boolean isMetered() {
+        return isMetered;
+    }
+
+    public boolean isRoaming() {
+        return isRoaming;
+    }
+
+    /**
+     * @return when the state is read, in elapsed realtime millis
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * whether two states are the same network, read time is ignored
+     *
+     * @param other
+     * @return
+     */
+    public boolean isSameNetwork(NetworkState other) {
+        return other != null && type == other.type && subtype == other.subtype && isMetered == other.isMetered
+               && isRoaming == other.isRoaming;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(48).append("NetworkState{");
+        switch (type) {
+            case TYPE_NONE:
+                builder.append("none");
+                break;
+            case TYPE_WIFI:
+                builder.append("wifi");
+                break;
+            case TYPE_CELLULAR:
+                builder.append("cellular/").append(subtype);
+                break;
+            case TYPE_ETHERNET:
+                builder.append("ethernet");
+                break;
+            default:
+                builder.append("other");
+                break;
+        }
+        if (isMetered) {
+            builder.append(", metered");
+        }
+        if (isRoaming) {
+            builder.append(", roaming");
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,202 @@
+package com.andriodutils.network;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * NetworkStateMonitor, keeps the state of the active network without querying the system on every read
+ *
+ * <pre>
+ * NetworkStateMonitor monitor = NetworkStateMonitor.getInstance(context);
+ * if (monitor.getState().isMetered()) {
+ *     // skip prefetching
+ * }
+ * monitor.addListener(listener);
+ * </pre>
+ * <ul>
+ * <li>one receiver of {@link ConnectivityManager#CONNECTIVITY_ACTION} is registered on the application context, the
+ * state is read from {@link ConnectivityManager} only when the system reports a change</li>
+ * <li>{@link #getState()} returns the latest {@link NetworkState} from a volatile field, it is cheap and can be called
+ * from any thread</li>
+ * <li>{@link Listener}s are called only when the network really changes, on main thread for changes reported by the
+ * system</li>
+ * <li>when a monitor is running, {@link NetUtils#isConnected(Context)}, {@link NetUtils#isWifi(Context)} and
+ * {@link NetUtils#isWiredNet(Context)} read its state</li>
+ * </ul>
+ * <ul>
+ * <strong>Attentions:</strong>
+ * <li>permission android.permission.ACCESS_NETWORK_STATE is required</li>
+ * <li>before android 4.1 metered can not be read, cellular is regarded as metered</li>
+ * </ul>
+ */
+public class NetworkStateMonitor {
+
+    private static volatile NetworkStateMonitor  instance;
+
+    private final Context                        context;
+    private final ConnectivityManager            connectivityManager;
+    private final BroadcastReceiver              receiver  = new ConnectivityReceiver();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private volatile NetworkState                state;
+
+    private NetworkStateMonitor(Context context) {
+        this.context = context;
+        this.connectivityManager = (ConnectivityManager)context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.state = readState();
+    }
+
+    /**
+     * get the running monitor, start one if there is none
+     *
+     * @param context
+     * @return
+     */
+    public static NetworkStateMonitor getInstance(Context context) {
+        NetworkStateMonitor monitor = instance;
+        if (monitor == null) {
+            synchronized (NetworkStateMonitor.class) {
+                monitor = instance;
+                if (monitor == null) {
+                    Context appContext = context.getApplicationContext();
+                    monitor = new NetworkStateMonitor(appContext == null ? context : appContext);
+                    monitor.context.registerReceiver(monitor.receiver,
+                                                     new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+                    instance = monitor;
+                }
+            }
+        }
+        return monitor;
+    }
+
+    /**
+     * @return the running monitor, null if not started
+     */
+    static NetworkStateMonitor getRunningInstance() {
+        return instance;
+    }
+
+    /**
+     * unregister the receiver, listeners are not called any more. {@link #getInstance(Context)} starts a new one
+     */
+    public void stop() {
+        synchronized (NetworkStateMonitor.class) {
+            if (instance != this) {
+                return;
+            }
+            instance = null;
+        }
+        context.unregisterReceiver(receiver);
+        listeners.clear();
+    }
+
+    /**
+     * @return latest state, never null
+     */
+    public NetworkState getState() {
+        return state;
+    }
+
+    /**
+     * @param listener added only once
+     */
+    public void addListener(Listener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener can not be null");
+        }
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * read the state from system again, listeners are called on current thread if network changed. It is called
+     * automatically when the system reports a change
+     *
+     * @return latest state
+     */
+    public NetworkState refresh() {
+        NetworkState oldState, newState;
+        synchronized (this) {
+            oldState = state;
+            newState = readState();
+            if (newState.isSameNetwork(oldState)) {
+                return oldState;
+            }
+            state = newState;
+        }
+        for (Listener listener : listeners) {
+            listener.onNetworkStateChanged(oldState, newState);
+        }
+        return newState;
+    }
+
+    private NetworkState readState() {
+        NetworkInfo info = connectivityManager == null ? null : connectivityManager.getActiveNetworkInfo();
+        if (info == null || !info.isConnected()) {
+            return NetworkState.DISCONNECTED;
+        }
+
+        int type = getType(info.getType());
+        boolean isMetered;
+        if (Build.VERSION.SDK_INT >= 16) {
+            isMetered = connectivityManager.isActiveNetworkMetered();
+        } else {
+            isMetered = type == NetworkState.TYPE_CELLULAR;
+        }
+        return new NetworkState(type, info.getSubtype(), isMetered, info.isRoaming(), SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * map ConnectivityManager.TYPE_* to NetworkState.TYPE_*
+     */
+    private static int getType(int systemType) {
+        switch (systemType) {
+            case ConnectivityManager.TYPE_WIFI:
+                return NetworkState.TYPE_WIFI;
+            case ConnectivityManager.TYPE_ETHERNET:
+                return NetworkState.TYPE_ETHERNET;
+            case ConnectivityManager.TYPE_MOBILE:
+            // TYPE_MOBILE_MMS, TYPE_MOBILE_SUPL, TYPE_MOBILE_DUN and TYPE_MOBILE_HIPRI
+            case 2:
+            case 3:
+            case 4:
+            case 5:
+            case ConnectivityManager.TYPE_WIMAX:
+                return NetworkState.TYPE_CELLULAR;
+            default:
+                return NetworkState.TYPE_OTHER;
+        }
+    }
+
+    private class ConnectivityReceiver extends BroadcastReceiver {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            refresh();
+        }
+    }
+
+    /**
+     * Listener of network changes
+     */
+    public interface Listener {
+
+        /**
+         * called when the active network changed
+         *
+         * @param oldState
+         * @param newState
+         */
+        public void onNetworkStateChanged(NetworkState oldState, NetworkState newState);
+    }
+}
@@ -0,0 +1,669 @@
+package com.andriodutils.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import com.andriodutils.file.IOUtils;
+import com.andriodutils.network.NetworkStateMonitor.Listener;
+
+import android.content.Context;
+
+/**
+ * OfflineQueue, durable queue of outgoing requests which are sent when network is available
+ *
+ * <pre>
+ * OfflineQueue queue = new OfflineQueue(context, new File(context.getFilesDir(), "outbox.log"), 2);
+ * queue.enqueue(HttpEngine.METHOD_POST, new HttpRequest(url, parasMap));
+ * </pre>
+ * <ul>
+ * <strong>Persistence</strong>
+ * <li>every request is appended to an append-only log and synced to disk before {@link #enqueue(String, HttpRequest)}
+ * returns, so it survives process death</li>
+ * <li>a request acknowledged by the server is marked by a small record, the log is rewritten with only pending
+ * requests when acknowledged records are more than pending ones</li>
+ * <li>records have length and crc32, a record torn by a crash is dropped when loading</li>
+ * <li>a record failed to append, like on a full disk, is cut off the log, so it does not hide records appended after
+ * it. If it can not be cut off, the log is closed and later enqueues fail</li>
+ * </ul>
+ * <ul>
+ * <strong>Replay</strong>
+ * <li>requests are started in enqueuing order, at most maxConcurrency at the same time, maxConcurrency 1 keeps strict
+ * order</li>
+ * <li>with a context, {@link #replay()} is called when {@link NetworkStateMonitor} reports connectivity returns</li>
+ * <li>{@link #replay()} waits a random delay up to {@link #setReplayJitter(long)} first, so devices which get coverage
+ * back together do not hit the server together</li>
+ * <li>on network failures or server failures sending pauses and resumes after the backoff of {@link RetryPolicy}, a
+ * Retry-After longer than the max backoff waits the max backoff</li>
+ * <li>a request rejected by 4xx except 408 and 429, with a malformed url or failed by a runtime exception is dropped,
+ * retrying can not make it succeed</li>
+ * <li>a request failed {@link #setMaxAttempts(int)} times is dropped, so it does not block requests behind it
+ * forever</li>
+ * </ul>
+ * <ul>
+ * <strong>Attentions:</strong>
+ * <li>only requests safe to send twice should be queued, a request may be sent again if the process dies before its
+ * acknowledgement is written. Every request gets header {@link #HEADER_IDEMPOTENCY_KEY} so the server can drop
+ * duplicates</li>
+ * <li>url, paras, request properties and timeouts are persisted, {@link HttpRequest#getBody()} is not supported</li>
+ * </ul>
+ */
+public class OfflineQueue {
+
+    /** header of unique id of every request, kept if the request has one **/
+    public static final String                HEADER_IDEMPOTENCY_KEY  = "Idempotency-Key";
+    /** default max requests sent at the same time **/
+    public static final int                   DEFAULT_MAX_CONCURRENCY = 2;
+    /** default max random delay before replaying **/
+    public static final long                  DEFAULT_REPLAY_JITTER   = 3 * 1000;
+    /** default max times a request is sent before it is dropped, about an hour of retrying at the max backoff **/
+    public static final int                   DEFAULT_MAX_ATTEMPTS    = 20;
+
+    private static final byte                 RECORD_ADD              = 1;
+    private static final byte                 RECORD_ACK              = 2;
+    /** compact only if acknowledged records are more than this **/
+    private static final int                  MIN_COMPACT_RECORDS     = 64;
+    private static final String               TEMP_FILE_SUFFIX        = ".compact";
+    /** max delay of retries **/
+    private static final long                 MAX_RETRY_DELAY         = 5 * 60 * 1000;
+
+    private final NetworkStateMonitor         monitor;
+    private final Listener                    networkListener;
+    private final File                        logFile;
+    private final int                         maxConcurrency;
+    private final RetryPolicy                 retryPolicy;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Random                      random                  = new Random();
+
+    /** requests waiting to be sent, ordered by sequence **/
+    private final TreeMap<Long, Entry>        waiting                 = new TreeMap<Long, Entry>();
+    private final Map<Long, Entry>            sending                 = new HashMap<Long, Entry>();
+    private FileOutputStream                  output;
+    private long                              nextSequence            = 1;
+    /** acknowledged records in the log **/
+    private int                               ackedRecords;
+    private int                               failures;
+    private IOException                       lastFailure;
+    private boolean                           isPaused;
+    private boolean                           isReplayScheduled;
+    private boolean                           isClosed;
+    private long                              replayJitter            = DEFAULT_REPLAY_JITTER;
+    private int                               maxAttempts             = DEFAULT_MAX_ATTEMPTS;
+    private volatile Callback                 callback;
+
+    /**
+     * @param context used to watch connectivity by {@link NetworkStateMonitor}, null represents always connected
+     * @param logFile file of the log, created if not exists
+     * @param maxConcurrency max requests sent at the same time
+     * @throws IOException if the log can not be read or created
+     */
+    public OfflineQueue(Context context, File logFile, int maxConcurrency) throws IOException {
+        if (logFile == null || maxConcurrency <= 0) {
+            throw new IllegalArgumentException("logFile can not be null and maxConcurrency must be positive");
+        }
+        this.logFile = logFile;
+        this.maxConcurrency = maxConcurrency;
+        this.retryPolicy = new RetryPolicy(Integer.MAX_VALUE, 1000, MAX_RETRY_DELAY);
+        this.retryPolicy.setRetryNonIdempotent(true);
+        this.executor = new ScheduledThreadPoolExecutor(maxConcurrency, new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "OfflineQueue-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        synchronized (this) {
+            load();
+            if (ackedRecords > 0) {
+                compact();
+            } else {
+                output = new FileOutputStream(logFile, true);
+            }
+        }
+        if (context == null) {
+            this.monitor = null;
+            this.networkListener = null;
+        } else {
+            this.monitor = NetworkStateMonitor.getInstance(context);
+            this.networkListener = new Listener() {
+
+                @Override
+                public void onNetworkStateChanged(NetworkState oldState, NetworkState newState) {
+                    if (!oldState.isConnected() && newState.isConnected()) {
+                        replay();
+                    }
+                }
+            };
+            this.monitor.addListener(networkListener);
+        }
+    }
+
+    /**
+     * receives results of queued requests, called on threads of the queue
+     */
+    public interface Callback {
+
+        /**
+         * the request is acknowledged by the server and removed from the queue
+         */
+        public void onSent(HttpRequest request, HttpResponse response);
+
+        /**
+         * the request is removed from the queue without success, it is rejected by the server, can never succeed or
+         * failed too many times
+         */
+        public void onDropped(HttpRequest request, IOException e);
+
+        /**
+         * the log can not be written, acknowledged requests may be sent again after restart
+         */
+        public void onLogFailure(IOException e);
+    }
+
+    public void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * @param replayJitter max random delay in milliseconds before {@link #replay()} starts sending, default is
+     *        {@link #DEFAULT_REPLAY_JITTER}
+     */
+    public synchronized void setReplayJitter(long replayJitter) {
+        if (replayJitter < 0) {
+            throw new IllegalArgumentException("replayJitter can not be negative");
+        }
+        this.replayJitter = replayJitter;
+    }
+
+    /**
+     * @param maxAttempts max times a request is sent before it is dropped, default is {@link #DEFAULT_MAX_ATTEMPTS}.
+     *        Attempts are counted from loading, a restart gives every request maxAttempts again
+     */
+    public synchronized void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * persist a request, it is sent at once if network is available and no earlier request is waiting
+     *
+     * @param method {@link HttpEngine#METHOD_GET} or {@link HttpEngine#METHOD_POST}
+     * @param request copied, later changes are not queued
+     * @return sequence of the request in the queue
+     * @throws IOException if the request can not be written to disk, then it is not queued
+     */
+    public long enqueue(String method, HttpRequest request) throws IOException {
+        if (request == null || request.getUrl() == null || method == null) {
+            throw new IllegalArgumentException("method, request and its url can not be null");
+        }
+        if (request.getBody() != null) {
+            throw new IllegalArgumentException("body of request can not be persisted, use paras instead");
+        }
+        HttpRequest copy = new HttpRequest(request);
+        if (request.getParasMap() != null) {
+            copy.setParasMap(new HashMap<String, String>(request.getParasMap()));
+        }
+        if (copy.getRequestProperty(HEADER_IDEMPOTENCY_KEY) == null) {
+            copy.setRequestProperty(HEADER_IDEMPOTENCY_KEY, UUID.randomUUID().toString());
+        }
+
+        long sequence;
+        synchronized (this) {
+            if (isClosed) {
+                throw new IOException("queue is closed");
+            }
+            Entry entry = new Entry(nextSequence, method, copy);
+            appendRecord(encodeAdd(entry), true);
+            nextSequence++;
+            waiting.put(entry.sequence, entry);
+            sequence = entry.sequence;
+        }
+        dispatch();
+        return sequence;
+    }
+
+    /**
+     * start sending after a random delay, called automatically when connectivity returns if a context is given
+     */
+    public synchronized void replay() {
+        // scheduled under the lock, close() shuts down the executor under the same lock
+        if (isClosed || isReplayScheduled) {
+            return;
+        }
+        isReplayScheduled = true;
+        long delay = replayJitter == 0 ? 0 : (long)(random.nextDouble() * replayJitter);
+        executor.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (OfflineQueue.this) {
+                    isReplayScheduled = false;
+                    isPaused = false;
+                    failures = 0;
+                }
+                dispatch();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return count of requests not acknowledged, including requests being sent
+     */
+    public synchronized int size() {
+        return waiting.size() + sending.size();
+    }
+
+    /**
+     * stop sending and close the log, requests being sent are still acknowledged if they succeed
+     */
+    public synchronized void close() {
+        isClosed = true;
+        if (monitor != null) {
+            monitor.removeListener(networkListener);
+        }
+        executor.shutdown();
+        IOUtils.closeQuietly(output);
+        output = null;
+    }
+
+    private boolean isConnected() {
+        return monitor == null || monitor.getState().isConnected();
+    }
+
+    /**
+     * start waiting requests in order until maxConcurrency requests are being sent
+     */
+    private void dispatch() {
+        if (!isConnected()) {
+            return;
+        }
+        synchronized (this) {
+            while (!isClosed && !isPaused && sending.size() < maxConcurrency && !waiting.isEmpty()) {
+                Entry entry = waiting.remove(waiting.firstKey());
+                sending.put(entry.sequence, entry);
+                executor.execute(new SendTask(entry));
+            }
+        }
+    }
+
+    private void onSent(Entry entry, HttpResponse response) {
+        acknowledge(entry);
+        Callback c = callback;
+        if (c != null) {
+            c.onSent(entry.request, response);
+        }
+        dispatch();
+    }
+
+    /**
+     * remove a request which can not succeed
+     */
+    private void onDropped(Entry entry, IOException e) {
+        acknowledge(entry);
+        Callback c = callback;
+        if (c != null) {
+            c.onDropped(entry.request, e);
+        }
+        dispatch();
+    }
+
+    private void onFailure(Entry entry, IOException e) {
+        boolean isDropped;
+        synchronized (this) {
+            isDropped = isPermanentFailure(e) || ++entry.attempts >= maxAttempts;
+        }
+        if (isDropped) {
+            onDropped(entry, e);
+            return;
+        }
+
+        synchronized (this) {
+            sending.remove(entry.sequence);
+            waiting.put(entry.sequence, entry);
+            isPaused = true;
+            lastFailure = e;
+            if (!sending.isEmpty() || isClosed) {
+                return;
+            }
+            // the last failed request decides when to resume
+            long delay = retryPolicy.getRetryDelay(Math.min(failures++, 30), entry.method, lastFailure);
+            if (delay < 0) {
+                // Retry-After is too long or the circuit is open, a connected device may never replay
+                delay = MAX_RETRY_DELAY;
+            }
+            executor.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    synchronized (OfflineQueue.this) {
+                        isPaused = false;
+                    }
+                    dispatch();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * remove a request and write its acknowledgement, compact the log if it is mostly acknowledged
+     */
+    private synchronized void acknowledge(Entry entry) {
+        sending.remove(entry.sequence);
+        failures = 0;
+        if (isClosed) {
+            return;
+        }
+        try {
+            // not synced, a lost acknowledgement only sends the request again
+            appendRecord(encodeAck(entry.sequence), false);
+            ackedRecords++;
+            if (ackedRecords >= MIN_COMPACT_RECORDS && ackedRecords > waiting.size() + sending.size()) {
+                compact();
+            }
+        } catch (IOException e) {
+            Callback c = callback;
+            if (c != null) {
+                c.onLogFailure(e);
+            }
+        }
+    }
+
+    /**
+     * @return whether retrying can never make the request succeed
+     */
+    private static boolean isPermanentFailure(IOException e) {
+        if (e instanceof HttpStatusException) {
+            return !((HttpStatusException)e).isServerFailure();
+        }
+        return e instanceof MalformedURLException;
+    }
+
+    /**
+     * rewrite the log with pending requests only, the new log replaces the old one by rename
+     */
+    private void compact() throws IOException {
+        File temp = new File(logFile.getPath() + TEMP_FILE_SUFFIX);
+        FileOutputStream compacted = new FileOutputStream(temp);
+        try {
+            TreeMap<Long, Entry> pending = new TreeMap<Long, Entry>(waiting);
+            pending.putAll(sending);
+            for (Entry entry : pending.values()) {
+                compacted.write(frame(encodeAdd(entry)));
+            }
+            compacted.getFD().sync();
+        } finally {
+            IOUtils.closeQuietly(compacted);
+        }
+        IOUtils.closeQuietly(output);
+        output = null;
+        if (!temp.renameTo(logFile)) {
+            temp.delete();
+            output = new FileOutputStream(logFile, true);
+            throw new IOException("rename " + temp + " to " + logFile + " failed");
+        }
+        output = new FileOutputStream(logFile, true);
+        ackedRecords = 0;
+    }
+
+    /**
+     * read records until the end or the first broken record, the broken tail is truncated
+     */
+    private void load() throws IOException {
+        if (!logFile.exists()) {
+            File parent = logFile.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("create folder " + parent + " failed");
+            }
+            return;
+        }
+
+        DataInputStream input = new DataInputStream(new FileInputStream(logFile));
+        long validLength = 0;
+        try {
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = input.readInt();
+                    if (length <= 0 || length > logFile.length() - validLength) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    input.readFully(payload);
+                    crc.reset();
+                    crc.update(payload);
+                    if (input.readLong() != crc.getValue()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                applyRecord(payload);
+                validLength += 4 + payload.length + 8;
+            }
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+
+        if (validLength < logFile.length()) {
+            RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    private void applyRecord(byte[] payload) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = input.readByte();
+        long sequence = input.readLong();
+        nextSequence = Math.max(nextSequence, sequence + 1);
+        if (type == RECORD_ACK) {
+            waiting.remove(sequence);
+            ackedRecords++;
+            return;
+        }
+        if (type != RECORD_ADD) {
+            throw new IOException("unknown record type " + type);
+        }
+
+        String method = readString(input);
+        HttpRequest request = new HttpRequest(readString(input));
+        int connectTimeout = input.readInt();
+        if (connectTimeout >= 0) {
+            request.setConnectTimeout(connectTimeout);
+        }
+        int readTimeout = input.readInt();
+        if (readTimeout >= 0) {
+            request.setReadTimeout(readTimeout);
+        }
+        request.setParasMap(readMap(input));
+        Map<String, String> properties = readMap(input);
+        if (properties != null) {
+            request.setRequestProperties(properties);
+        }
+        waiting.put(sequence, new Entry(sequence, method, request));
+    }
+
+    private void appendRecord(byte[] payload, boolean sync) throws IOException {
+        if (output == null) {
+            throw new IOException("log is not open");
+        }
+        FileChannel channel = output.getChannel();
+        long end = channel.size();
+        boolean isAppended = false;
+        try {
+            output.write(frame(payload));
+            if (sync) {
+                output.getFD().sync();
+            }
+            isAppended = true;
+        } finally {
+            if (!isAppended) {
+                discardTail(channel, end);
+            }
+        }
+    }
+
+    /**
+     * cut off a partly appended record, loading stops at a broken record and would drop every record after it
+     */
+    private void discardTail(FileChannel channel, long end) {
+        try {
+            channel.truncate(end);
+        } catch (IOException e) {
+            // nothing can be appended after the broken record safely
+            IOUtils.closeQuietly(output);
+            output = null;
+        }
+    }
+
+    /**
+     * @return length, payload and crc32 of payload
+     */
+    private static byte[] frame(byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 12);
+        DataOutputStream data = new DataOutputStream(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        data.writeInt(payload.length);
+        data.write(payload);
+        data.writeLong(crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeAdd(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream data = new DataOutputStream(bytes);
+        HttpRequest request = entry.request;
+        data.writeByte(RECORD_ADD);
+        data.writeLong(entry.sequence);
+        writeString(data, entry.method);
+        writeString(data, request.getUrl());
+        data.writeInt(request.getConnectTimeout());
+        data.writeInt(request.getReadTimeout());
+        writeMap(data, request.getParasMap());
+        writeMap(data, request.getRequestProperties());
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeAck(long sequence) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(9);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(RECORD_ACK);
+        data.writeLong(sequence);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * length and utf-8 bytes, not limited to 64k like writeUTF
+     */
+    private static void writeString(DataOutputStream output, String str) throws IOException {
+        byte[] bytes = HttpBody.getBytes(str);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, HttpResponse.DEFAULT_CHARSET);
+    }
+
+    /**
+     * -1 represents null map, null values are written as empty string
+     */
+    private static void writeMap(DataOutputStream output, Map<String, String> map) throws IOException {
+        if (map == null) {
+            output.writeInt(-1);
+            return;
+        }
+        output.writeInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            writeString(output, entry.getKey());
+            writeString(output, entry.getValue() == null ? "" : entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readMap(DataInputStream input) throws IOException {
+        int size = input.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, String> map = new HashMap<String, String>();
+        for (int i = 0; i < size; i++) {
+            map.put(readString(input), readString(input));
+        }
+        return map;
+    }
+
+    /**
+     * a queued request
+     */
+    private static class Entry {
+
+        final long        sequence;
+        final String      method;
+        final HttpRequest request;
+        /** times failed since loaded, guarded by the queue **/
+        int               attempts;
+
+        Entry(long sequence, String method, HttpRequest request) {
+            this.sequence = sequence;
+            this.method = method;
+            this.request = request;
+        }
+    }
+
+    private class SendTask implements Runnable {
+
+        private final Entry entry;
+
+        SendTask(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public void run() {
+            HttpResponse response;
+            try {
+                response = HttpUtils.getHttpEngine().execute(entry.method, entry.request);
+            } catch (IOException e) {
+                onFailure(entry, e);
+                return;
+            } catch (RuntimeException e) {
+                // a bug or a bad request, it would fail the same way again
+                onDropped(entry, new IOException(e.toString()));
+                return;
+            }
+            onSent(entry, response);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.andriodutils.network;
+
+/**
+ * ProgressListener, receives progress of request body upload
+ * <ul>
+ * <li>set it by {@link HttpRequest#setProgressListener(ProgressListener)}</li>
+ * <li>it is called on the thread of the request after every chunk is written, it should return quickly</li>
+ * </ul>
+ */
+public interface ProgressListener {
+
+    /**
+     * @param written bytes of body written, before gzip compression
+     * @param total length of body, -1 represents unknown
+     */
+    public void onProgress(long written, long total);
+}
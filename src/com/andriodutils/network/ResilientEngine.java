@@ -0,0 +1,130 @@
+package com.andriodutils.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ResilientEngine, {@link HttpEngine} which retries failed requests and fails fast for hosts which are down
+ * <ul>
+ * <li>enable it by
+ * <code>HttpUtils.setHttpEngine(new ResilientEngine(HttpUtils.getHttpEngine(), new RetryPolicy(), new CircuitBreaker()))</code></li>
+ * <li>retries follow {@link RetryPolicy}, the thread sleeps between attempts, interrupting it stops retrying</li>
+ * <li>every attempt is checked by {@link CircuitBreaker}, {@link CircuitOpenException} is thrown without network
+ * call when the host is down</li>
+ * <li>{@link #open(String, HttpRequest)} retries only until the response stream is opened</li>
+ * <li>request whose {@link HttpBody} is not repeatable, like a stream, is not retried</li>
+ * </ul>
+ */
+public class ResilientEngine implements HttpEngine {
+
+    private final HttpEngine     delegate;
+    private final RetryPolicy    retryPolicy;
+    private final CircuitBreaker circuitBreaker;
+    private final AtomicLong     retryCount = new AtomicLong();
+
+    /**
+     * @param delegate
+     * @param retryPolicy null represents no retry
+     * @param circuitBreaker null represents no circuit breaker
+     */
+    public ResilientEngine(HttpEngine delegate, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate can not be null");
+        }
+        this.delegate = delegate;
+        this.retryPolicy = retryPolicy;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public HttpEngine getDelegate() {
+        return delegate;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @return count of retries
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    @Override
+    public HttpResponse execute(String method, HttpRequest request) throws IOException {
+        String host = CircuitBreaker.getHost(request.getUrl());
+        for (int retries = 0;; retries++) {
+            checkRequest(host);
+            try {
+                HttpResponse response = delegate.execute(method, request);
+                onSuccess(host);
+                return response;
+            } catch (IOException e) {
+                onFailure(host, e);
+                waitForRetry(retries, method, request, e);
+            }
+        }
+    }
+
+    @Override
+    public InputStream open(String method, HttpRequest request) throws IOException {
+        String host = CircuitBreaker.getHost(request.getUrl());
+        for (int retries = 0;; retries++) {
+            checkRequest(host);
+            try {
+                InputStream input = delegate.open(method, request);
+                onSuccess(host);
+                return input;
+            } catch (IOException e) {
+                onFailure(host, e);
+                waitForRetry(retries, method, request, e);
+            }
+        }
+    }
+
+    private void checkRequest(String host) throws CircuitOpenException {
+        if (circuitBreaker != null) {
+            circuitBreaker.checkRequest(host);
+        }
+    }
+
+    private void onSuccess(String host) {
+        if (circuitBreaker != null) {
+            circuitBreaker.onSuccess(host);
+        }
+    }
+
+    private void onFailure(String host, IOException e) {
+        if (circuitBreaker != null) {
+            circuitBreaker.onFailure(host, e);
+        }
+    }
+
+    /**
+     * sleep before the next attempt
+     *
+     * @throws IOException e itself if it should not be retried
+     */
+    private void waitForRetry(int retries, String method, HttpRequest request, IOException e) throws IOException {
+        long delay = retryPolicy == null ? -1 : retryPolicy.getRetryDelay(retries, method, e);
+        if (delay < 0 || (request.getBody() != null && !request.getBody().isRepeatable())) {
+            throw e;
+        }
+        retryCount.incrementAndGet();
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException ioe = new InterruptedIOException("interrupted while waiting for retry");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.andriodutils.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * ResponseBuffer, growable byte buffer holding a response body
+ * <ul>
+ * <li>initial capacity is taken from Content-Length, so a body with known length is never copied while reading</li>
+ * <li>{@link #getBuffer()} exposes the internal array without copy, valid bytes are [0, {@link #size()})</li>
+ * <li>{@link #getReadBuffer()} is a per thread chunk reused by every read</li>
+ * </ul>
+ */
+public class ResponseBuffer extends ByteArrayOutputStream {
+
+    /** size of read chunk **/
+    public static final int READ_BUFFER_SIZE = 8 * 1024;
+    /** max initial capacity, a wrong Content-Length can not make us allocate too much **/
+    private static final int MAX_INIT_SIZE = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<byte[]> READ_BUFFER = new ThreadLocal<byte[]>() {
+
+        @Override
+        protected byte[] initialValue() {
+            return new byte[READ_BUFFER_SIZE];
+        }
+    };
+
+    /**
+     * @param contentLength Content-Length of the body, -1 if unknown
+     */
+    public ResponseBuffer(int contentLength) {
+        super(contentLength > 0 ? Math.min(contentLength, MAX_INIT_SIZE) : READ_BUFFER_SIZE);
+    }
+
+    /**
+     * read the stream to the end into this buffer, the stream is not closed
+     *
+     * @param input
+     * @return this
+     * @throws IOException
+     */
+    public ResponseBuffer readFrom(InputStream input) throws IOException {
+        byte[] chunk = getReadBuffer();
+        int length;
+        while ((length = input.read(chunk)) != -1) {
+            write(chunk, 0, length);
+        }
+        return this;
+    }
+
+    /**
+     * @return the internal array, valid bytes are [0, {@link #size()})
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * @return read chunk of current thread
+     */
+    public static byte[] getReadBuffer() {
+        return READ_BUFFER.get();
+    }
+}
@@ -0,0 +1,155 @@
+package com.andriodutils.network;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * RetryPolicy, decides whether and when a failed request is retried
+ * <ul>
+ * <strong>Delay</strong>
+ * <li>exponential backoff, attempt n waits about baseDelay * 2^n, not more than maxDelay</li>
+ * <li>half of the delay is random jitter, so clients failed together do not retry together</li>
+ * <li>Retry-After of 429 and 503 responses is used instead if exists, request is not retried if it is longer than
+ * maxDelay</li>
+ * </ul>
+ * <ul>
+ * <strong>Retryable failures</strong>
+ * <li>connect failures, unknown host and timeouts</li>
+ * <li>408, 429 and 5xx responses except 501, see {@link HttpStatusException#isServerFailure()}</li>
+ * <li>requests other than get are only retried when the request was not sent, unless
+ * {@link #setRetryNonIdempotent(boolean)}</li>
+ * <li>never retried: cancellation and {@link CircuitOpenException}</li>
+ * </ul>
+ * <ul>
+ * <strong>Usage</strong>
+ * <li>{@link HttpUtils}: <code>HttpUtils.setHttpEngine(new ResilientEngine(HttpUtils.getHttpEngine(), new RetryPolicy(), new CircuitBreaker()))</code></li>
+ * <li>OkHttpManager: add <code>new RetryInterceptor(new RetryPolicy(), new CircuitBreaker())</code> by
+ * <code>Config.Builder.addInterceptor</code></li>
+ * </ul>
+ */
+public class RetryPolicy {
+
+    /** default max retries after the first attempt **/
+    public static final int     DEFAULT_MAX_RETRIES = 2;
+    /** default delay before the first retry **/
+    public static final long    DEFAULT_BASE_DELAY  = 500;
+    /** default max delay before a retry **/
+    public static final long    DEFAULT_MAX_DELAY   = 10 * 1000;
+
+    private static final Random RANDOM              = new Random();
+
+    private final int           maxRetries;
+    private final long          baseDelay;
+    private final long          maxDelay;
+    private boolean             retryNonIdempotent  = false;
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * @param maxRetries max retries after the first attempt, 0 represents no retry
+     * @param baseDelay delay in milliseconds before the first retry
+     * @param maxDelay max delay in milliseconds before a retry
+     */
+    public RetryPolicy(int maxRetries, long baseDelay, long maxDelay) {
+        if (maxRetries < 0 || baseDelay < 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("maxRetries and baseDelay can not be negative, maxDelay can not be less than baseDelay");
+        }
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public boolean isRetryNonIdempotent() {
+        return retryNonIdempotent;
+    }
+
+    /**
+     * whether post may be retried after it was sent, default is false because the server may have processed it
+     *
+     * @param retryNonIdempotent
+     */
+    public void setRetryNonIdempotent(boolean retryNonIdempotent) {
+        this.retryNonIdempotent = retryNonIdempotent;
+    }
+
+    /**
+     * get delay before the next attempt
+     *
+     * @param retries retries already done, 0 after the first attempt failed
+     * @param method http method of the failed request
+     * @param e the failure
+     * @return -1 represents do not retry, otherwise delay in milliseconds
+     */
+    public long getRetryDelay(int retries, String method, IOException e) {
+        if (retries >= maxRetries || !isRetryable(method, e)) {
+            return -1;
+        }
+
+        if (e instanceof HttpStatusException) {
+            long retryAfter = ((HttpStatusException)e).getRetryAfterMillis();
+            if (retryAfter >= 0) {
+                return retryAfter <= maxDelay ? retryAfter : -1;
+            }
+        }
+        long delay = baseDelay << Math.min(retries, 30);
+        if (delay <= 0 || delay > maxDelay) {
+            delay = maxDelay;
+        }
+        long half = delay / 2;
+        return half + (long)(RANDOM.nextDouble() * (delay - half));
+    }
+
+    /**
+     * whether the failure is worth retrying
+     *
+     * @param method
+     * @param e
+     * @return
+     */
+    public boolean isRetryable(String method, IOException e) {
+        if (e == null || e instanceof CircuitOpenException) {
+            return false;
+        }
+        boolean isIdempotent = retryNonIdempotent || !HttpEngine.METHOD_POST.equalsIgnoreCase(method);
+        if (e instanceof HttpStatusException) {
+            HttpStatusException statusException = (HttpStatusException)e;
+            if (!statusException.isServerFailure()) {
+                return false;
+            }
+            // 429 and 503 mean the request was rejected before processing
+            int code = statusException.getResponseCode();
+            return isIdempotent || code == 429 || code == 503;
+        }
+        // the request was never sent
+        if (e instanceof ConnectException || e instanceof UnknownHostException || e instanceof NoRouteToHostException) {
+            return true;
+        }
+        if (e instanceof SocketTimeoutException) {
+            return isIdempotent;
+        }
+        // cancelled or interrupted
+        if (e instanceof InterruptedIOException) {
+            return false;
+        }
+        return isIdempotent;
+    }
+}
@@ -0,0 +1,163 @@
+package com.andriodutils.network;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SingleFlight, concurrent calls with the same key share one execution
+ * <ul>
+ * <li>the first caller of a key executes the callable, callers coming before it finishes wait and get the same result
+ * or exception</li>
+ * <li>if the execution fails only because the executing caller is cancelled or interrupted, its failure is not shared,
+ * one of the waiting callers executes again for the others</li>
+ * <li>the key is removed when the execution finishes, so the next call executes again, nothing is cached</li>
+ * <li>{@link #getDedupedCount()} count of calls which did not execute by themselves</li>
+ * </ul>
+ *
+ * @param <V> result type
+ */
+public class SingleFlight<V> {
+
+    private final Map<String, Flight<V>> inFlight      = new HashMap<String, Flight<V>>();
+    private final AtomicLong             executedCount = new AtomicLong();
+    private final AtomicLong             dedupedCount  = new AtomicLong();
+
+    /**
+     * execute callable, or wait for the execution of the same key in flight
+     *
+     * @param key
+     * @param callable
+     * @return result of the shared execution
+     * @throws Exception thrown by callable
+     * @throws InterruptedException if current thread is interrupted while waiting
+     */
+    public V execute(String key, Callable<V> callable) throws Exception {
+        boolean isDeduped = false;
+        while (true) {
+            Flight<V> flight;
+            boolean isLeader = false;
+            synchronized (inFlight) {
+                flight = inFlight.get(key);
+                if (flight == null) {
+                    flight = new Flight<V>(this, key, callable);
+                    inFlight.put(key, flight);
+                    isLeader = true;
+                }
+            }
+
+            if (isLeader) {
+                executedCount.incrementAndGet();
+                flight.run();
+            } else if (!isDeduped) {
+                isDeduped = true;
+                dedupedCount.incrementAndGet();
+            }
+
+            try {
+                return flight.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof AbandonedException) {
+                    if (!isLeader) {
+                        // the leader gave up for itself, execute again
+                        continue;
+                    }
+                    cause = cause.getCause();
+                }
+                if (cause instanceof Exception) {
+                    throw (Exception)cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return count of executions
+     */
+    public long getExecutedCount() {
+        return executedCount.get();
+    }
+
+    /**
+     * @return count of calls shared an execution of others
+     */
+    public long getDedupedCount() {
+        return dedupedCount.get();
+    }
+
+    /**
+     * @return count of keys in flight
+     */
+    public int getInFlightCount() {
+        synchronized (inFlight) {
+            return inFlight.size();
+        }
+    }
+
+    /**
+     * whether the failure belongs to the executing caller only, like its cancellation or deadline, called on the
+     * thread of the caller. A socket timeout is shared, waiting callers would meet it too
+     */
+    private static boolean isAbandoned(Throwable cause) {
+        return Thread.currentThread().isInterrupted() || cause instanceof InterruptedException
+               || (cause instanceof InterruptedIOException && !(cause instanceof SocketTimeoutException));
+    }
+
+    /**
+     * an execution in flight, it leaves the map before waiting callers wake up, so they find a new one if they execute
+     * again
+     */
+    private static class Flight<V> extends FutureTask<V> {
+
+        private final SingleFlight<V> owner;
+        private final String          key;
+
+        Flight(SingleFlight<V> owner, String key, Callable<V> callable) {
+            super(callable);
+            this.owner = owner;
+            this.key = key;
+        }
+
+        @Override
+        protected void set(V v) {
+            remove();
+            super.set(v);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            remove();
+            super.setException(isAbandoned(t) ? new AbandonedException(t) : t);
+        }
+
+        private void remove() {
+            synchronized (owner.inFlight) {
+                if (owner.inFlight.get(key) == this) {
+                    owner.inFlight.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * failure of the executing caller which is not shared
+     */
+    private static class AbandonedException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        AbandonedException(Throwable cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.andriodutils.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+/**
+ * SingleFlightEngine, {@link HttpEngine} which makes identical concurrent gets share one network call
+ * <ul>
+ * <li>enable it by <code>HttpUtils.setHttpEngine(new SingleFlightEngine(HttpUtils.getHttpEngine()))</code></li>
+ * <li>gets are identical if their url and request properties are equal</li>
+ * <li>every caller gets its own {@link HttpResponse}, the body bytes are shared</li>
+ * <li>if the caller making the network call is cancelled or passes its deadline, the others are not failed, one of
+ * them makes the call again</li>
+ * <li>post and {@link #open(String, HttpRequest)} are passed to the delegate directly</li>
+ * </ul>
+ */
+public class SingleFlightEngine implements HttpEngine {
+
+    private final HttpEngine                 delegate;
+    private final SingleFlight<HttpResponse> flight;
+
+    public SingleFlightEngine(HttpEngine delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate can not be null");
+        }
+        this.delegate = delegate;
+        this.flight = new SingleFlight<HttpResponse>();
+    }
+
+    public HttpEngine getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return count of gets which shared a network call of others
+     */
+    public long getDedupedCount() {
+        return flight.getDedupedCount();
+    }
+
+    /**
+     * @return count of network calls of gets
+     */
+    public long getExecutedCount() {
+        return flight.getExecutedCount();
+    }
+
+    @Override
+    public HttpResponse execute(final String method, final HttpRequest request) throws IOException {
+        if (!METHOD_GET.equals(method)) {
+            return delegate.execute(method, request);
+        }
+
+        try {
+            return flight.execute(getKey(method, request), new Callable<HttpResponse>() {
+
+                @Override
+                public HttpResponse call() throws Exception {
+                    return delegate.execute(method, request);
+                }
+            }).copy();
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for " + request.getUrl());
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public InputStream open(String method, HttpRequest request) throws IOException {
+        return delegate.open(method, request);
+    }
+
+    /**
+     * method, url and sorted request properties
+     */
+    private static String getKey(String method, HttpRequest request) {
+        StringBuilder key = new StringBuilder(method).append(' ').append(request.getUrl());
+        Map<String, String> properties = request.getRequestProperties();
+        if (properties != null && !properties.isEmpty()) {
+            TreeMap<String, String> sorted = new TreeMap<String, String>();
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                if (entry.getKey() != null) {
+                    sorted.put(entry.getKey(), entry.getValue());
+                }
+            }
+            for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                key.append('\n').append(entry.getKey()).append(':').append(entry.getValue());
+            }
+        }
+        return key.toString();
+    }
+}
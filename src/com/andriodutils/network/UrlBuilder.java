@@ -0,0 +1,323 @@
+package com.andriodutils.network;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+
+/**
+ * UrlBuilder, builds url and query string with percent encoding of RFC 3986
+ * <ul>
+ * <li>unreserved characters ALPHA, DIGIT, "-", ".", "_" and "~" are kept, others are encoded as %XX of utf-8 bytes, space
+ * is encoded as %20</li>
+ * <li>characters are appended to a growable char array directly, no intermediate string or byte array is created</li>
+ * <li>{@link #obtain()} returns a builder reused by current thread, the result must be taken by {@link #toString()}
+ * or {@link #toBytes()} before obtaining it again</li>
+ * </ul>
+ *
+ * <pre>
+ * UrlBuilder.obtain().url("http://a.com/s").para("q", "a b").para("n", "1").toString() = "http://a.com/s?q=a%20b&amp;n=1"
+ * UrlBuilder.obtain().para("k", "中").toString()                                      = "k=%E4%B8%AD"
+ * </pre>
+ */
+public class UrlBuilder {
+
+    private static final int       DEFAULT_CAPACITY  = 256;
+    /** buffer of builder of current thread larger than this is not kept **/
+    private static final int       MAX_KEPT_CAPACITY = 16 * 1024;
+    private static final char[]    HEX_DIGITS        = "0123456789ABCDEF".toCharArray();
+    private static final boolean[] UNRESERVED        = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        UNRESERVED['-'] = true;
+        UNRESERVED['.'] = true;
+        UNRESERVED['_'] = true;
+        UNRESERVED['~'] = true;
+    }
+
+    private static final ThreadLocal<UrlBuilder> LOCAL_BUILDER = new ThreadLocal<UrlBuilder>() {
+
+        @Override
+        protected UrlBuilder initialValue() {
+            return new UrlBuilder();
+        }
+    };
+
+    private char[] buffer;
+    private int    length;
+    /** separator before next para, 0 represents none **/
+    private char   separator;
+
+    public UrlBuilder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity initial capacity in chars
+     */
+    public UrlBuilder(int capacity) {
+        buffer = new char[capacity > 0 ? capacity : DEFAULT_CAPACITY];
+    }
+
+    /**
+     * get the empty builder of current thread
+     *
+     * @return
+     */
+    public static UrlBuilder obtain() {
+        UrlBuilder builder = LOCAL_BUILDER.get();
+        if (builder.buffer.length > MAX_KEPT_CAPACITY) {
+            builder = new UrlBuilder();
+            LOCAL_BUILDER.set(builder);
+        }
+        return builder.reset();
+    }
+
+    /**
+     * percent encode a string, it does not touch the builder of current thread
+     *
+     * @param str
+     * @return null if str is null, str itself if nothing need encoding
+     */
+    public static String encode(String str) {
+        if (str == null) {
+            return null;
+        }
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c >= 128 || !UNRESERVED[c]) {
+                return new UrlBuilder(str.length() * 3).appendEncoded(str).toString();
+            }
+        }
+        return str;
+    }
+
+    /**
+     * clear the builder
+     *
+     * @return this
+     */
+    public UrlBuilder reset() {
+        length = 0;
+        separator = 0;
+        return this;
+    }
+
+    /**
+     * clear the builder and start with url, paras are appended after "?", or after "&amp;" if url already has query
+     *
+     * @param url appended as it is, null is processed as empty string
+     * @return this
+     */
+    public UrlBuilder url(String url) {
+        reset();
+        if (url == null || url.length() == 0) {
+            separator = '?';
+            return this;
+        }
+        append(url);
+        char last = url.charAt(url.length() - 1);
+        if (url.indexOf('?') == -1) {
+            separator = '?';
+        } else if (last != '?' && last != '&') {
+            separator = '&';
+        }
+        return this;
+    }
+
+    /**
+     * append a para, key and value are encoded
+     *
+     * @param key
+     * @param value null is processed as empty string
+     * @return this
+     */
+    public UrlBuilder para(String key, String value) {
+        appendSeparator();
+        appendEncoded(key);
+        append('=');
+        appendEncoded(value);
+        return this;
+    }
+
+    /**
+     * append a para as it is, key and value should be encoded already
+     *
+     * @param key
+     * @param value null is processed as empty string
+     * @return this
+     */
+    public UrlBuilder rawPara(String key, String value) {
+        appendSeparator();
+        append(key);
+        append('=');
+        append(value);
+        return this;
+    }
+
+    /**
+     * append paras, keys and values are encoded
+     *
+     * @param parasMap can be null
+     * @return this
+     */
+    public UrlBuilder paras(Map<String, String> parasMap) {
+        if (parasMap != null) {
+            for (Map.Entry<String, String> entry : parasMap.entrySet()) {
+                para(entry.getKey(), entry.getValue());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * append paras as they are
+     *
+     * @param parasMap can be null
+     * @return this
+     */
+    public UrlBuilder rawParas(Map<String, String> parasMap) {
+        if (parasMap != null) {
+            for (Map.Entry<String, String> entry : parasMap.entrySet()) {
+                rawPara(entry.getKey(), entry.getValue());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * append string as it is
+     *
+     * @param str null is ignored
+     * @return this
+     */
+    public UrlBuilder append(String str) {
+        if (str != null) {
+            int count = str.length();
+            ensureCapacity(length + count);
+            str.getChars(0, count, buffer, length);
+            length += count;
+        }
+        return this;
+    }
+
+    /**
+     * append a char as it is
+     *
+     * @param c
+     * @return this
+     */
+    public UrlBuilder append(char c) {
+        ensureCapacity(length + 1);
+        buffer[length++] = c;
+        return this;
+    }
+
+    /**
+     * append percent encoded string
+     *
+     * @param str null is ignored
+     * @return this
+     */
+    public UrlBuilder appendEncoded(String str) {
+        if (str == null) {
+            return this;
+        }
+        int count = str.length();
+        // most chars of para are unreserved
+        ensureCapacity(length + count);
+        for (int i = 0; i < count; i++) {
+            char c = str.charAt(i);
+            if (c < 128) {
+                if (UNRESERVED[c]) {
+                    ensureCapacity(length + 1);
+                    buffer[length++] = c;
+                } else {
+                    appendEscaped(c);
+                }
+            } else if (c < 0x800) {
+                appendEscaped(0xC0 | (c >> 6));
+                appendEscaped(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                appendEscaped(0xF0 | (codePoint >> 18));
+                appendEscaped(0x80 | ((codePoint >> 12) & 0x3F));
+                appendEscaped(0x80 | ((codePoint >> 6) & 0x3F));
+                appendEscaped(0x80 | (codePoint & 0x3F));
+            } else {
+                if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                    // unpaired surrogate, encoded as U+FFFD like String.getBytes
+                    c = '\uFFFD';
+                }
+                appendEscaped(0xE0 | (c >> 12));
+                appendEscaped(0x80 | ((c >> 6) & 0x3F));
+                appendEscaped(0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return length in chars
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return url or query built
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * @return bytes of url or query built in utf-8, they are ascii if only encoded content is appended
+     */
+    public byte[] toBytes() {
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] >= 128) {
+                try {
+                    return toString().getBytes(HttpResponse.DEFAULT_CHARSET);
+                } catch (UnsupportedEncodingException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte)buffer[i];
+        }
+        return bytes;
+    }
+
+    private void appendSeparator() {
+        if (separator != 0) {
+            append(separator);
+        }
+        separator = '&';
+    }
+
+    private void appendEscaped(int b) {
+        ensureCapacity(length + 3);
+        buffer[length++] = '%';
+        buffer[length++] = HEX_DIGITS[(b >> 4) & 0x0F];
+        buffer[length++] = HEX_DIGITS[b & 0x0F];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            char[] newBuffer = new char[Math.max(capacity, buffer.length * 2)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+}
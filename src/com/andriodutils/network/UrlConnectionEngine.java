@@ -0,0 +1,448 @@
+package com.andriodutils.network;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.andriodutils.file.IOUtils;
+import com.andriodutils.string.StringUtils;
+
+/**
+ * UrlConnectionEngine, {@link HttpEngine} based on {@link HttpURLConnection}
+ * <ul>
+ * <li>connections are kept alive and reused by the pool configured in {@link HttpConnectionPool}</li>
+ * <li>requests to one host are limited by {@link HttpConnectionPool#getMaxRequestsPerHost()}</li>
+ * <li>a request executed by a {@link HttpCall} is disconnected when the call is cancelled</li>
+ * <li>gzip and deflate are accepted by default, compressed body is decompressed while reading</li>
+ * <li>body of post is streamed in fixed length or chunked mode, see {@link HttpBody}</li>
+ * <li>error status is thrown as {@link HttpStatusException}</li>
+ * <li>{@link HttpTiming} of every request is reported to {@link HttpUtils#getHttpEventListener()} if it is set</li>
+ * </ul>
+ */
+public class UrlConnectionEngine implements HttpEngine {
+
+    /** request header of accepted encodings **/
+    public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    /** encodings accepted if request does not set {@link #HEADER_ACCEPT_ENCODING} **/
+    public static final String ACCEPT_ENCODING        = "gzip, deflate";
+    /** Content-Type of paras posted **/
+    public static final String FORM_CONTENT_TYPE      = "application/x-www-form-urlencoded";
+
+    private static final String HEADER_CONTENT_TYPE     = "Content-Type";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+    private final HttpConnectionPool pool;
+
+    public UrlConnectionEngine() {
+        this(new HttpConnectionPool());
+    }
+
+    public UrlConnectionEngine(HttpConnectionPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool can not be null");
+        }
+        this.pool = pool;
+    }
+
+    public HttpConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    @Override
+    public HttpResponse execute(String method, HttpRequest request) throws IOException {
+        URL url = new URL(request.getUrl());
+        HttpEventListener listener = HttpUtils.getHttpEventListener();
+        HttpTiming timing = listener == null ? null : new HttpTiming(method, request.getUrl());
+        pool.acquire(url);
+        HttpCall call = HttpCall.current();
+        HttpURLConnection con = null;
+        InputStream input = null;
+        InputStream decoded = null;
+        IOException failure = null;
+        try {
+            HttpResponse response = new HttpResponse(request.getUrl());
+            con = connect(method, request, url, timing, call);
+            checkResponseCode(request, con, timing);
+            long bodyStart = elapsedMillis(timing);
+            input = con.getInputStream();
+            HttpUtils.setHttpResponse(con, response);
+            CountingInputStream raw = new CountingInputStream(input);
+            String encoding = con.getContentEncoding();
+            decoded = decode(raw, encoding);
+            ResponseBuffer body;
+            if (decoded == raw) {
+                body = new ResponseBuffer(con.getContentLength());
+            } else {
+                body = new ResponseBuffer(con.getContentLength() > 0 ? con.getContentLength() * 4 : -1);
+            }
+            body.readFrom(decoded);
+            // trailer of compressed body may be left, read it so the connection can be reused
+            discard(raw);
+            response.setResponseBody(body.getBuffer(), body.size());
+            response.setCompressedLength(raw.getCount());
+            if (timing != null) {
+                timing.setBodyMillis(timing.elapsedMillis() - bodyStart);
+                timing.setBytesReceived(raw.getCount());
+            }
+            return response;
+        } catch (IOException e) {
+            failure = e;
+            // read the error body to the end, so the connection can still be reused
+            discardErrorStream(con);
+            throw e;
+        } finally {
+            // close stream without disconnect, the connection goes back to the pool. Closing decoded stream also
+            // releases native memory of its inflater
+            IOUtils.closeQuietly(decoded);
+            IOUtils.closeQuietly(input);
+            if (call != null && con != null) {
+                call.detach(con);
+            }
+            pool.release(url);
+            if (timing != null) {
+                listener.onRequestEnd(timing.end(failure));
+            }
+        }
+    }
+
+    @Override
+    public InputStream open(String method, HttpRequest request) throws IOException {
+        final URL url = new URL(request.getUrl());
+        final HttpEventListener listener = HttpUtils.getHttpEventListener();
+        final HttpTiming timing = listener == null ? null : new HttpTiming(method, request.getUrl());
+        pool.acquire(url);
+        HttpURLConnection con = null;
+        try {
+            con = connect(method, request, url, timing, null);
+            checkResponseCode(request, con, timing);
+            final long bodyStart = elapsedMillis(timing);
+            final CountingInputStream raw = new CountingInputStream(con.getInputStream());
+            return new FilterInputStream(decode(raw, con.getContentEncoding())) {
+
+                private boolean isClosed = false;
+
+                @Override
+                public void close() throws IOException {
+                    if (isClosed) {
+                        return;
+                    }
+                    isClosed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        pool.release(url);
+                        if (timing != null) {
+                            timing.setBodyMillis(timing.elapsedMillis() - bodyStart);
+                            timing.setBytesReceived(raw.getCount());
+                            listener.onRequestEnd(timing.end(null));
+                        }
+                    }
+                }
+            };
+        } catch (IOException e) {
+            discardErrorStream(con);
+            pool.release(url);
+            if (timing != null) {
+                listener.onRequestEnd(timing.end(e));
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            pool.release(url);
+            throw e;
+        }
+    }
+
+    /**
+     * open connection and write request body
+     * 
+     * @param method
+     * @param request
+     * @param url
+     * @param timing null represents not timing
+     * @param call null represents not run by a call, otherwise the connection is disconnected when it is cancelled
+     * @return connection ready to get input stream
+     * @throws IOException
+     */
+    private HttpURLConnection connect(String method, HttpRequest request, URL url, HttpTiming timing, HttpCall call)
+            throws IOException {
+        HttpURLConnection con = (HttpURLConnection)url.openConnection();
+        if (call != null) {
+            call.attach(con);
+        }
+        if (timing != null) {
+            timeDns(url, timing);
+            if (call != null) {
+                // resolving can not be interrupted, do not connect if the call is cancelled meanwhile
+                call.checkCancelled();
+            }
+        }
+        HttpUtils.setURLConnection(request, con);
+        if (StringUtils.isEmpty(request.getRequestProperty(HEADER_ACCEPT_ENCODING))) {
+            con.setRequestProperty(HEADER_ACCEPT_ENCODING, ACCEPT_ENCODING);
+        }
+        HttpBody body = null;
+        if (METHOD_POST.equals(method)) {
+            con.setRequestMethod(METHOD_POST);
+            con.setDoOutput(true);
+            body = getPostBody(request);
+            if (body != null) {
+                setStreamingMode(request, body, con);
+            }
+        }
+        if (timing != null) {
+            // connect explicitly to split connect from request
+            long connectStart = timing.elapsedMillis();
+            con.connect();
+            timing.setConnectMillis(timing.elapsedMillis() - connectStart);
+        }
+        long requestStart = elapsedMillis(timing);
+        long bytesSent = body == null ? 0 : writeBody(request, body, con);
+        if (timing != null) {
+            timing.setRequestMillis(timing.elapsedMillis() - requestStart);
+            timing.setBytesSent(bytesSent);
+        }
+        return con;
+    }
+
+    /**
+     * resolve the host before connecting to time dns, the connection gets the address from dns cache. Timing must not
+     * change the result of the request, so the host is not resolved if a proxy is used, and a host which can not be
+     * resolved here is left to the connection, dns is -1 in both cases
+     */
+    private static void timeDns(URL url, HttpTiming timing) {
+        if (isProxied(url)) {
+            return;
+        }
+        long dnsStart = timing.elapsedMillis();
+        try {
+            InetAddress.getAllByName(url.getHost());
+        } catch (UnknownHostException e) {
+            // the connection may still reach the host, e.g. by split dns
+            timing.setDnsMillis(-1);
+            return;
+        }
+        timing.setDnsMillis(timing.elapsedMillis() - dnsStart);
+    }
+
+    /**
+     * @return whether the connection to url goes through a proxy, which resolves the host itself
+     */
+    private static boolean isProxied(URL url) {
+        ProxySelector selector = ProxySelector.getDefault();
+        if (selector == null) {
+            return false;
+        }
+        List<Proxy> proxies;
+        try {
+            proxies = selector.select(url.toURI());
+        } catch (URISyntaxException e) {
+            // not sure, do not resolve
+            return true;
+        }
+        for (Proxy proxy : proxies) {
+            if (proxy.type() != Proxy.Type.DIRECT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return {@link HttpRequest#getBody()}, or paras as form, null represents nothing to post
+     */
+    private static HttpBody getPostBody(HttpRequest request) {
+        if (request.getBody() != null) {
+            return request.getBody();
+        }
+        String paras = request.getParas();
+        return StringUtils.isEmpty(paras) ? null : HttpBody.create(FORM_CONTENT_TYPE, paras);
+    }
+
+    /**
+     * stream body to the server instead of buffering it in the connection, fixed length if length is known and body
+     * is not compressed, otherwise chunked
+     */
+    private static void setStreamingMode(HttpRequest request, HttpBody body, HttpURLConnection con) {
+        if (body.getContentType() != null && con.getRequestProperty(HEADER_CONTENT_TYPE) == null) {
+            con.setRequestProperty(HEADER_CONTENT_TYPE, body.getContentType());
+        }
+        long length = body.getContentLength();
+        if (request.isGzipBody()) {
+            con.setRequestProperty(HEADER_CONTENT_ENCODING, "gzip");
+            con.setChunkedStreamingMode(0);
+        } else if (length >= 0 && length <= Integer.MAX_VALUE) {
+            // the long version is added in api 19
+            con.setFixedLengthStreamingMode((int)length);
+        } else {
+            con.setChunkedStreamingMode(0);
+        }
+    }
+
+    /**
+     * write body, compressed if {@link HttpRequest#isGzipBody()}, progress is reported before compression
+     * 
+     * @return bytes sent on the wire
+     */
+    private static long writeBody(HttpRequest request, HttpBody body, HttpURLConnection con) throws IOException {
+        OutputStream output = con.getOutputStream();
+        CountingOutputStream wire = new CountingOutputStream(output);
+        GzipBodyStream gzip = null;
+        boolean isWritten = false;
+        try {
+            OutputStream sink = wire;
+            if (request.isGzipBody()) {
+                sink = gzip = new GzipBodyStream(wire);
+            }
+            if (request.getProgressListener() != null) {
+                sink = new CountingOutputStream(sink, request.getProgressListener(), body.getContentLength());
+            }
+            body.writeTo(sink);
+            if (gzip != null) {
+                // write the trailer, end the deflater and close the wire
+                gzip.close();
+            } else {
+                output.close();
+            }
+            isWritten = true;
+        } finally {
+            if (!isWritten) {
+                IOUtils.closeQuietly(gzip);
+                IOUtils.closeQuietly(output);
+            }
+        }
+        return wire.getCount();
+    }
+
+    private static long elapsedMillis(HttpTiming timing) {
+        return timing == null ? 0 : timing.elapsedMillis();
+    }
+
+    /**
+     * wait for response headers, throw {@link HttpStatusException} with status code and Retry-After if the response
+     * is an error
+     */
+    private static void checkResponseCode(HttpRequest request, HttpURLConnection con, HttpTiming timing)
+            throws IOException {
+        long firstByteStart = elapsedMillis(timing);
+        int responseCode = con.getResponseCode();
+        if (timing != null) {
+            timing.setFirstByteMillis(timing.elapsedMillis() - firstByteStart);
+            timing.setResponseCode(responseCode);
+        }
+        if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            throw new HttpStatusException(request.getUrl(), responseCode, con.getHeaderField("Retry-After"));
+        }
+    }
+
+    /**
+     * wrap stream with decompression of Content-Encoding
+     * 
+     * @param input
+     * @param encoding Content-Encoding of response
+     * @return input itself if encoding is not gzip or deflate
+     * @throws IOException
+     */
+    static InputStream decode(InputStream input, String encoding) throws IOException {
+        if (StringUtils.isEmpty(encoding)) {
+            return input;
+        }
+        encoding = encoding.trim();
+        if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+            return new GZIPInputStream(input, ResponseBuffer.READ_BUFFER_SIZE);
+        }
+        if ("deflate".equalsIgnoreCase(encoding)) {
+            // deflate should be zlib wrapped, but some servers send raw deflate
+            BufferedInputStream buffered = new BufferedInputStream(input, ResponseBuffer.READ_BUFFER_SIZE);
+            buffered.mark(2);
+            int cmf = buffered.read();
+            int flg = buffered.read();
+            buffered.reset();
+            boolean isZlib = cmf != -1 && flg != -1 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            return new DeflateInputStream(buffered, new Inflater(!isZlib));
+        }
+        return input;
+    }
+
+    /**
+     * GZIPOutputStream of old platforms does not end its deflater if finishing fails on close, end it anyway
+     */
+    private static class GzipBodyStream extends GZIPOutputStream {
+
+        GzipBodyStream(OutputStream output) throws IOException {
+            super(output, ResponseBuffer.READ_BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                def.end();
+            }
+        }
+    }
+
+    /**
+     * InflaterInputStream does not end an inflater passed in, end it on close to release native memory
+     */
+    private static class DeflateInputStream extends InflaterInputStream {
+
+        private boolean isClosed = false;
+
+        DeflateInputStream(InputStream input, Inflater inflater) {
+            super(input, inflater, ResponseBuffer.READ_BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+
+    /**
+     * read the stream to the end
+     */
+    private static void discard(InputStream input) throws IOException {
+        byte[] buffer = ResponseBuffer.getReadBuffer();
+        while (input.read(buffer) != -1) {}
+    }
+
+    private static void discardErrorStream(HttpURLConnection con) {
+        if (con == null) {
+            return;
+        }
+        InputStream error = con.getErrorStream();
+        if (error == null) {
+            return;
+        }
+        try {
+            discard(error);
+        } catch (IOException e) {
+            // ignored, the connection will not be reused
+        } finally {
+            IOUtils.closeQuietly(error);
+        }
+    }
+}
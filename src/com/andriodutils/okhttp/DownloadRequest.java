@@ -0,0 +1,128 @@
+package com.andriodutils.okhttp;
+
+import java.io.File;
+
+/**
+ * 文件下载请求
+ * <ul>
+ * <li>下载中的数据写在 文件名.part 中，进度记录在 文件名.part.meta 中，中断后再次下载同一个文件会从断点继续</li>
+ * <li>{@link #setSegmentCount(int)} 服务器支持Range时把大文件分成多段并行下载</li>
+ * <li>{@link #setChecksum(String, String)} 下载完成后校验文件</li>
+ * <li>{@link #setProgressInterval(long)} 进度回调的最小间隔</li>
+ * </ul>
+ */
+public class DownloadRequest {
+
+    /**
+     * 默认进度回调间隔，毫秒
+     */
+    public static final long DEFAULT_PROGRESS_INTERVAL = 200;
+
+    /**
+     * 每段的最小字节数，文件太小时不分段
+     */
+    public static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private final String url;
+    private final String desDir;
+    private String fileName;
+    private int segmentCount = 1;
+    private String checksumAlgorithm;
+    private String checksum;
+    private long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+
+    /**
+     * @param url    下载地址
+     * @param desDir 目标目录
+     */
+    public DownloadRequest(String url, String desDir) {
+        if (url == null || desDir == null) {
+            throw new IllegalArgumentException("url and desDir can not be null");
+        }
+        this.url = url;
+        this.desDir = desDir;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getDesDir() {
+        return desDir;
+    }
+
+    /**
+     * 文件名，默认取url最后一段
+     *
+     * @return
+     */
+    public String getFileName() {
+        if (fileName != null) {
+            return fileName;
+        }
+        int separatorIndex = url.lastIndexOf("/");
+        return (separatorIndex < 0) ? url : url.substring(separatorIndex + 1, url.length());
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * @return 下载完成后的文件
+     */
+    public File getFile() {
+        return new File(desDir, getFileName());
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * 并行下载的段数，默认1，每段不小于{@link #MIN_SEGMENT_SIZE}
+     *
+     * @param segmentCount
+     */
+    public void setSegmentCount(int segmentCount) {
+        if (segmentCount < 1) {
+            throw new IllegalArgumentException("segmentCount must be positive");
+        }
+        this.segmentCount = segmentCount;
+    }
+
+    public String getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * 下载完成后校验文件，不一致时删除文件并回调失败
+     *
+     * @param algorithm {@link java.security.MessageDigest}支持的算法，如MD5、SHA-256
+     * @param checksum  十六进制的摘要，不区分大小写
+     */
+    public void setChecksum(String algorithm, String checksum) {
+        this.checksumAlgorithm = algorithm;
+        this.checksum = checksum;
+    }
+
+    public long getProgressInterval() {
+        return progressInterval;
+    }
+
+    /**
+     * 进度回调的最小间隔，毫秒，默认{@link #DEFAULT_PROGRESS_INTERVAL}
+     *
+     * @param progressInterval
+     */
+    public void setProgressInterval(long progressInterval) {
+        if (progressInterval < 0) {
+            throw new IllegalArgumentException("progressInterval can not be negative");
+        }
+        this.progressInterval = progressInterval;
+    }
+}
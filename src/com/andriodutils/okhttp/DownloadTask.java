@@ -0,0 +1,570 @@
+package com.andriodutils.okhttp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.andriodutils.file.AtomicFileWriter;
+import com.andriodutils.file.IOUtils;
+import com.andriodutils.okhttp.OkHttpManager.DataCallBack;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSource;
+
+/**
+ * 文件下载任务，由{@link OkHttpManager#downloadAsync(DownloadRequest, DataCallBack)}创建
+ * <ul>
+ * <li>使用Range请求断点续传，用If-Range保证续传的是同一个文件，文件变化时自动重新下载</li>
+ * <li>服务器支持Range时，按{@link DownloadRequest#getSegmentCount()}分段并行下载，各段直接写到文件对应位置</li>
+ * <li>{@link #cancel()}取消后已下载的部分保留，下次下载同一个文件时继续</li>
+ * </ul>
+ */
+public class DownloadTask implements Runnable {
+
+    /**
+     * 读写缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 每写入这么多字节保存一次进度
+     */
+    private static final long META_SAVE_INTERVAL = 1024 * 1024;
+
+    private static final int META_VERSION = 1;
+    private static final String PART_SUFFIX = ".part";
+    private static final String META_SUFFIX = ".meta";
+
+    private final OkHttpManager manager;
+    private final OkHttpClient client;
+    private final ExecutorService executor;
+    private final DownloadRequest request;
+    private final DataCallBack callBack;
+    private final Request failureRequest;
+
+    private final File file;
+    private final File partFile;
+    private final File metaFile;
+
+    private final List<Call> calls = new ArrayList<Call>();
+    private final AtomicLong downloaded = new AtomicLong();
+    private final AtomicLong lastProgressTime = new AtomicLong();
+    private volatile boolean isCancelled = false;
+    private volatile IOException failure;
+
+    /**
+     * 文件总长度，-1表示未知
+     */
+    private long total = -1;
+    /**
+     * ETag或Last-Modified，用于If-Range
+     */
+    private String validator;
+    private List<Segment> segments;
+
+    DownloadTask(OkHttpManager manager, OkHttpClient client, ExecutorService executor, DownloadRequest request,
+                 DataCallBack callBack) {
+        this.manager = manager;
+        this.client = client;
+        this.executor = executor;
+        this.request = request;
+        this.callBack = callBack;
+        this.failureRequest = new Request.Builder().url(request.getUrl()).build();
+        this.file = request.getFile();
+        this.partFile = new File(file.getPath() + PART_SUFFIX);
+        this.metaFile = new File(partFile.getPath() + META_SUFFIX);
+    }
+
+    public DownloadRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * 取消下载，已下载的部分保留用于续传
+     */
+    public void cancel() {
+        isCancelled = true;
+        synchronized (calls) {
+            for (Call call : calls) {
+                call.cancel();
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    /**
+     * @return 已下载的字节数
+     */
+    public long getDownloadedLength() {
+        return downloaded.get();
+    }
+
+    /**
+     * @return 文件总长度，-1表示未知
+     */
+    public long getTotalLength() {
+        return total;
+    }
+
+    @Override
+    public void run() {
+        try {
+            File dir = file.getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                throw new IOException("can not create " + dir);
+            }
+            try {
+                download();
+            } catch (RemoteChangedException e) {
+                // 服务器上的文件变了，从头下载一次
+                reset();
+                download();
+            }
+            verifyChecksum();
+            if (file.exists() && !file.delete()) {
+                throw new IOException("can not delete " + file);
+            }
+            if (!partFile.renameTo(file)) {
+                throw new IOException("can not rename " + partFile + " to " + file);
+            }
+            AtomicFileWriter.delete(metaFile);
+            reportProgress(true);
+            manager.deliverDataSuccess(file.getAbsolutePath(), callBack);
+        } catch (IOException e) {
+            manager.deliverDataFailure(failureRequest, e, callBack);
+        }
+    }
+
+    /**
+     * 下载到part文件
+     */
+    private void download() throws IOException {
+        failure = null;
+        Response first = null;
+        boolean isResumed = loadMeta();
+        if (!isResumed) {
+            first = probe();
+        }
+
+        RandomAccessFile part = new RandomAccessFile(partFile, "rw");
+        FileChannel channel = part.getChannel();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            if (!isResumed) {
+                // 新下载，清掉旧数据
+                part.setLength(0);
+                saveMeta(channel);
+            }
+            long done = 0;
+            for (Segment segment : segments) {
+                done += segment.downloaded;
+            }
+            downloaded.set(done);
+
+            // 当前线程只等待，被中断时不会关闭FileChannel
+            for (int i = 0; i < segments.size(); i++) {
+                futures.add(executor.submit(new SegmentRunnable(segments.get(i), i == 0 ? first : null, channel)));
+            }
+        } finally {
+            // 所有分段结束后才能刷盘和关闭文件
+            boolean isInterrupted = awaitSegments(futures);
+            saveMeta(channel);
+            IOUtils.closeQuietly(part);
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        if (isCancelled) {
+            throw new IOException("Canceled");
+        }
+    }
+
+    /**
+     * 等待所有分段结束，被中断时取消下载后继续等待。不能中断分段线程，FileChannel被中断会关闭，其他分段也无法写入
+     *
+     * @return 等待时是否被中断
+     */
+    private boolean awaitSegments(List<Future<?>> futures) {
+        boolean isInterrupted = Thread.interrupted();
+        if (isInterrupted) {
+            cancel();
+        }
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    if (!isInterrupted) {
+                        isInterrupted = true;
+                        cancel();
+                    }
+                } catch (ExecutionException e) {
+                    fail(new IOException(e.getCause()));
+                    break;
+                }
+            }
+        }
+        return isInterrupted;
+    }
+
+    /**
+     * 探测文件长度和是否支持Range
+     *
+     * @return 不分段时直接作为第一段的响应，否则为null
+     */
+    private Response probe() throws IOException {
+        boolean isParallel = request.getSegmentCount() > 1;
+        Response response = execute(new Request.Builder().url(request.getUrl())
+                .header("Range", isParallel ? "bytes=0-0" : "bytes=0-").build());
+        validator = response.header("ETag");
+        if (validator == null) {
+            validator = response.header("Last-Modified");
+        }
+        segments = new ArrayList<Segment>();
+
+        if (response.code() == 206) {
+            total = parseTotal(response.header("Content-Range"));
+        } else if (response.code() == 200) {
+            // 不支持Range，只能整体下载，且不能续传
+            total = response.body().contentLength();
+            validator = null;
+            segments.add(new Segment(0, total > 0 ? total - 1 : -1, 0));
+            return response;
+        } else {
+            response.close();
+            throw new IOException("Unexpected code " + response.code());
+        }
+
+        if (!isParallel) {
+            segments.add(new Segment(0, total > 0 ? total - 1 : -1, 0));
+            return response;
+        }
+
+        response.close();
+        int count = total <= 0 ? 1 : (int)Math.max(1, Math.min(request.getSegmentCount(),
+                total / DownloadRequest.MIN_SEGMENT_SIZE));
+        if (count == 1) {
+            segments.add(new Segment(0, total > 0 ? total - 1 : -1, 0));
+        } else {
+            long size = total / count;
+            for (int i = 0; i < count; i++) {
+                long start = i * size;
+                segments.add(new Segment(start, i == count - 1 ? total - 1 : start + size - 1, 0));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 下载一段
+     *
+     * @param segment
+     * @param opened  已经打开的响应，为null时发起Range请求
+     * @param channel
+     */
+    private void downloadSegment(Segment segment, Response opened, FileChannel channel) throws IOException {
+        if (segment.isComplete()) {
+            IOUtils.closeQuietly(opened);
+            return;
+        }
+
+        Response response = opened;
+        if (response == null) {
+            Request.Builder builder = new Request.Builder().url(request.getUrl());
+            builder.header("Range", "bytes=" + (segment.start + segment.downloaded) + "-"
+                    + (segment.end >= 0 ? String.valueOf(segment.end) : ""));
+            if (validator != null) {
+                builder.header("If-Range", validator);
+            }
+            response = execute(builder.build());
+            if (response.code() != 206) {
+                response.close();
+                if (response.code() == 200) {
+                    throw new RemoteChangedException();
+                }
+                throw new IOException("Unexpected code " + response.code());
+            }
+        }
+
+        try {
+            BufferedSource source = response.body().source();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long unsaved = 0;
+            while (!isCancelled && failure == null) {
+                long position = segment.start + segment.downloaded;
+                int length = buffer.length;
+                if (segment.end >= 0) {
+                    long remaining = segment.end - position + 1;
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    length = (int)Math.min(length, remaining);
+                }
+                int n = source.read(buffer, 0, length);
+                if (n == -1) {
+                    break;
+                }
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, n);
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position);
+                }
+                segment.downloaded += n;
+                downloaded.addAndGet(n);
+                unsaved += n;
+                if (unsaved >= META_SAVE_INTERVAL) {
+                    saveMeta(channel);
+                    unsaved = 0;
+                }
+                reportProgress(false);
+            }
+        } finally {
+            response.close();
+        }
+        if (!isCancelled && failure == null && segment.end >= 0 && !segment.isComplete()) {
+            throw new IOException("unexpected end of stream");
+        }
+    }
+
+    private Response execute(Request okRequest) throws IOException {
+        Call call = client.newCall(okRequest);
+        synchronized (calls) {
+            if (isCancelled) {
+                throw new IOException("Canceled");
+            }
+            calls.add(call);
+        }
+        try {
+            return call.execute();
+        } finally {
+            synchronized (calls) {
+                calls.remove(call);
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    private void reportProgress(boolean force) {
+        if (!(callBack instanceof OkHttpManager.DownloadCallBack)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long last = lastProgressTime.get();
+        if (!force && now - last < request.getProgressInterval()) {
+            return;
+        }
+        if (!lastProgressTime.compareAndSet(last, now) && !force) {
+            return;
+        }
+        manager.deliverProgress(downloaded.get(), total, (OkHttpManager.DownloadCallBack)callBack);
+    }
+
+    /**
+     * 读取上次的下载进度
+     *
+     * @return 是否可以续传
+     */
+    private boolean loadMeta() {
+        if (!AtomicFileWriter.restore(metaFile).isFile() || !partFile.isFile()) {
+            return false;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new FileInputStream(metaFile));
+            if (input.readInt() != META_VERSION || !request.getUrl().equals(input.readUTF())) {
+                return false;
+            }
+            String savedValidator = input.readUTF();
+            long savedTotal = input.readLong();
+            List<Segment> savedSegments = new ArrayList<Segment>();
+            for (int i = input.readInt(); i > 0; i--) {
+                savedSegments.add(new Segment(input.readLong(), input.readLong(), input.readLong()));
+            }
+            if (savedSegments.isEmpty() || savedValidator.length() == 0) {
+                return false;
+            }
+            validator = savedValidator;
+            total = savedTotal;
+            segments = savedSegments;
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * 保存下载进度，服务器不支持Range或没有ETag、Last-Modified时无法续传，不保存
+     * <ul>
+     * <li>先记下所有分段的进度再刷盘，记下的字节都已写入文件，刷盘后进度不会超过磁盘上的数据</li>
+     * <li>进度文件整体替换，崩溃后读到的是旧的或新的进度，保存失败时保留旧的进度</li>
+     * </ul>
+     *
+     * @param channel part文件
+     */
+    private synchronized void saveMeta(FileChannel channel) {
+        if (validator == null || segments == null) {
+            return;
+        }
+        long[] done = new long[segments.size()];
+        for (int i = 0; i < done.length; i++) {
+            done[i] = segments.get(i).downloaded;
+        }
+        try {
+            channel.force(false);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(META_VERSION);
+            output.writeUTF(request.getUrl());
+            output.writeUTF(validator);
+            output.writeLong(total);
+            output.writeInt(segments.size());
+            for (int i = 0; i < done.length; i++) {
+                output.writeLong(segments.get(i).start);
+                output.writeLong(segments.get(i).end);
+                output.writeLong(done[i]);
+            }
+            new AtomicFileWriter(metaFile, AtomicFileWriter.DURABILITY_DATA).write(bytes.toByteArray());
+        } catch (IOException e) {
+            // 旧的进度对应的数据已经刷盘，仍然可以续传
+        }
+    }
+
+    private void reset() {
+        partFile.delete();
+        AtomicFileWriter.delete(metaFile);
+        segments = null;
+        validator = null;
+        total = -1;
+        downloaded.set(0);
+    }
+
+    private void verifyChecksum() throws IOException {
+        if (request.getChecksumAlgorithm() == null || request.getChecksum() == null) {
+            return;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(request.getChecksumAlgorithm());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        FileInputStream input = new FileInputStream(partFile);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        if (!hex.toString().equalsIgnoreCase(request.getChecksum().trim())) {
+            reset();
+            throw new IOException("checksum mismatch, expected " + request.getChecksum() + " but was " + hex);
+        }
+    }
+
+    /**
+     * 从Content-Range: bytes 0-0/12345中取出总长度
+     */
+    private static long parseTotal(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int index = contentRange.lastIndexOf('/');
+        if (index < 0 || index == contentRange.length() - 1 || contentRange.charAt(index + 1) == '*') {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(index + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 文件中的一段，[start, end]，end为-1表示到文件末尾
+     */
+    private static class Segment {
+
+        final long start;
+        final long end;
+        /** 只由下载这一段的线程修改，其他线程读取进度 **/
+        volatile long downloaded;
+
+        Segment(long start, long end, long downloaded) {
+            this.start = start;
+            this.end = end;
+            this.downloaded = downloaded;
+        }
+
+        boolean isComplete() {
+            return end >= 0 && start + downloaded > end;
+        }
+    }
+
+    private class SegmentRunnable implements Runnable {
+
+        private final Segment segment;
+        private final Response opened;
+        private final FileChannel channel;
+
+        SegmentRunnable(Segment segment, Response opened, FileChannel channel) {
+            this.segment = segment;
+            this.opened = opened;
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            try {
+                downloadSegment(segment, opened, channel);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * If-Range不匹配，服务器返回了整个新文件
+     */
+    private static class RemoteChangedException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+    }
+}
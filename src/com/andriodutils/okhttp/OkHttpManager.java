@@ -5,35 +5,78 @@ package com.andriodutils.okhttp;
 import android.os.Handler;
 import android.os.Looper;
 
+import com.andriodutils.network.HttpEventListener;
+import com.andriodutils.network.HttpStatusException;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import okhttp3.Cache;
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.FormBody;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 
 
 public class OkHttpManager {
 
+    /**
+     * 优先级：用户正在等待的请求，优先放行
+     */
+    public static final int PRIORITY_CRITICAL = 0;
+
+    /**
+     * 优先级：普通请求，不指定优先级时使用
+     */
+    public static final int PRIORITY_NORMAL = 1;
+
+    /**
+     * 优先级：预加载等后台请求，最后放行
+     */
+    public static final int PRIORITY_BACKGROUND = 2;
+
     /**
      * 静态实例
      */
     private static OkHttpManager sOkHttpManager;
 
     /**
-     * okhttpclient实例
+     * okhttpclient实例，重新配置时整体替换
+     */
+    private volatile OkHttpClient mClient;
+
+    /**
+     * 当前配置
      */
-    private OkHttpClient mClient;
+    private volatile Config mConfig;
+
+    /**
+     * 按优先级放行异步请求
+     */
+    private final PriorityScheduler mScheduler;
 
     /**
      * 因为我们请求数据一般都是子线程中请求，在这里我们使用了handler
@@ -41,27 +84,50 @@ public class OkHttpManager {
     private Handler mHandler;
 
     /**
-     * 构造方法
+     * 是否合并相同url的并发GET请求，默认不合并
      */
-    private OkHttpManager() {
+    private volatile boolean mCoalesceGets = false;
 
-        mClient = new OkHttpClient();
+    /**
+     * 正在请求中的GET，key是url，value是等待结果的回调
+     */
+    private final Map<String, List<DataCallBack>> mInFlightGets = new HashMap<String, List<DataCallBack>>();
 
-        /**
-         * 在这里直接设置连接超时.读取超时，写入超时
-         */
-        mClient.newBuilder().connectTimeout(10, TimeUnit.SECONDS);
-        mClient.newBuilder().readTimeout(10, TimeUnit.SECONDS);
-        mClient.newBuilder().writeTimeout(10, TimeUnit.SECONDS);
+    /**
+     * 被合并掉的GET请求数
+     */
+    private final AtomicLong mCoalescedCount = new AtomicLong();
 
-        /**
-         * 如果是用的3.0之前的版本  使用以下直接设置连接超时.读取超时，写入超时
-         */
+    /**
+     * 解析json的Gson实例，线程安全
+     */
+    private final Gson mGson = new Gson();
 
-        //client.setConnectTimeout(10, TimeUnit.SECONDS);
-        //client.setWriteTimeout(10, TimeUnit.SECONDS);
-        //client.setReadTimeout(30, TimeUnit.SECONDS);
+    /**
+     * 执行下载任务和分段下载的线程池
+     */
+    private final ExecutorService mDownloadExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
 
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "OkHttpManager-download-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * 构造方法
+     */
+    private OkHttpManager() {
+
+        /**
+         * 使用默认配置：连接超时.读取超时，写入超时都是10秒
+         */
+        mConfig = new Config.Builder().build();
+        mClient = mConfig.newClient(null);
+        mScheduler = new PriorityScheduler(mConfig.maxRequests, mConfig.maxRequestsPerHost);
 
         /**
          * 初始化handler
@@ -94,8 +160,428 @@ public class OkHttpManager {
 
         void requestSuccess(String result) throws Exception;
     }
+
+    /**
+     * 带类型的数据回调接口，json在子线程中直接从响应流解析成对象，主线程只拿到解析好的结果
+     *
+     * @param <T> 结果类型
+     */
+    public interface TypedCallBack<T> {
+        void requestFailure(Request request, IOException e);
+
+        void requestSuccess(T result) throws Exception;
+    }
+
+    /**
+     * 下载回调接口，可以获取下载进度
+     */
+    public interface DownloadCallBack extends DataCallBack {
+        /**
+         * 在主线程回调，调用间隔不小于{@link DownloadRequest#getProgressInterval()}
+         *
+         * @param current 已下载的字节数
+         * @param total   总字节数，-1表示未知
+         */
+        void onProgress(long current, long total);
+    }
+
+    /**
+     * 上传回调接口，可以获取上传进度
+     */
+    public interface UploadCallBack extends DataCallBack {
+        /**
+         * 在主线程回调，调用间隔不小于{@link UploadRequest#getProgressInterval()}
+         *
+         * @param current 已上传的字节数，压缩前
+         * @param total   总字节数，-1表示未知
+         */
+        void onProgress(long current, long total);
+    }
     
     
+    //-------------------------配置--------------------------
+
+    /**
+     * 使用新的配置重新创建OkHttpClient，可以在运行时调用
+     * <ul>
+     * <li>已经发出的请求继续使用旧的client完成，之后的请求使用新的client</li>
+     * <li>如果新旧配置的缓存目录和大小相同，会继续使用同一个Cache</li>
+     * </ul>
+     *
+     * @param config
+     */
+    public static void init(Config config) {
+        getInstance().inner_init(config);
+    }
+
+    /**
+     * 获取当前配置
+     *
+     * @return
+     */
+    public static Config getConfig() {
+        return getInstance().mConfig;
+    }
+
+    /**
+     * 获取当前的OkHttpClient
+     *
+     * @return
+     */
+    public static OkHttpClient getClient() {
+        return getInstance().mClient;
+    }
+
+    private synchronized void inner_init(Config config) {
+        if (config == null) {
+            throw new IllegalArgumentException("config can not be null");
+        }
+        OkHttpClient oldClient = mClient;
+        Cache oldCache = oldClient.cache();
+        Cache reuseCache = null;
+        if (oldCache != null && config.cacheDirectory != null
+                && oldCache.directory().equals(config.cacheDirectory) && oldCache.maxSize() == config.cacheMaxSize) {
+            reuseCache = oldCache;
+        }
+        mClient = config.newClient(reuseCache);
+        mConfig = config;
+        mScheduler.setLimits(config.maxRequests, config.maxRequestsPerHost);
+
+        /**
+         * 释放旧client空闲的连接，正在使用的连接不受影响
+         */
+        if (oldClient.connectionPool() != mClient.connectionPool()) {
+            oldClient.connectionPool().evictAll();
+        }
+        if (oldCache != null && oldCache != reuseCache) {
+            try {
+                oldCache.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * OkHttpClient的配置，通过{@link Config.Builder}创建
+     */
+    public static class Config {
+
+        private final long connectTimeout;
+        private final long readTimeout;
+        private final long writeTimeout;
+        private final int maxRequests;
+        private final int maxRequestsPerHost;
+        private final int maxIdleConnections;
+        private final long keepAliveDuration;
+        private final File cacheDirectory;
+        private final long cacheMaxSize;
+        private final List<Interceptor> interceptors;
+        private final List<Interceptor> networkInterceptors;
+        private final List<Protocol> protocols;
+        private final HttpEventListener eventListener;
+
+        private Config(Builder builder) {
+            this.connectTimeout = builder.connectTimeout;
+            this.readTimeout = builder.readTimeout;
+            this.writeTimeout = builder.writeTimeout;
+            this.maxRequests = builder.maxRequests;
+            this.maxRequestsPerHost = builder.maxRequestsPerHost;
+            this.maxIdleConnections = builder.maxIdleConnections;
+            this.keepAliveDuration = builder.keepAliveDuration;
+            this.cacheDirectory = builder.cacheDirectory;
+            this.cacheMaxSize = builder.cacheMaxSize;
+            this.interceptors = new ArrayList<Interceptor>(builder.interceptors);
+            this.networkInterceptors = new ArrayList<Interceptor>(builder.networkInterceptors);
+            this.protocols = builder.protocols == null ? null : new ArrayList<Protocol>(builder.protocols);
+            this.eventListener = builder.eventListener;
+        }
+
+        public long getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public long getReadTimeout() {
+            return readTimeout;
+        }
+
+        public long getWriteTimeout() {
+            return writeTimeout;
+        }
+
+        public int getMaxRequests() {
+            return maxRequests;
+        }
+
+        public int getMaxRequestsPerHost() {
+            return maxRequestsPerHost;
+        }
+
+        public int getMaxIdleConnections() {
+            return maxIdleConnections;
+        }
+
+        public long getKeepAliveDuration() {
+            return keepAliveDuration;
+        }
+
+        public File getCacheDirectory() {
+            return cacheDirectory;
+        }
+
+        public long getCacheMaxSize() {
+            return cacheMaxSize;
+        }
+
+        /**
+         * @return 协议列表，null表示OkHttp默认的HTTP/2和HTTP/1.1
+         */
+        public List<Protocol> getProtocols() {
+            return protocols;
+        }
+
+        public HttpEventListener getEventListener() {
+            return eventListener;
+        }
+
+        /**
+         * 根据配置创建OkHttpClient
+         *
+         * @param cache 要复用的缓存，为null时按配置创建
+         * @return
+         */
+        private OkHttpClient newClient(Cache cache) {
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(maxRequests);
+            dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+            OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                    .connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+                    .readTimeout(readTimeout, TimeUnit.MILLISECONDS)
+                    .writeTimeout(writeTimeout, TimeUnit.MILLISECONDS)
+                    .dispatcher(dispatcher)
+                    .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveDuration, TimeUnit.MILLISECONDS));
+            if (protocols != null) {
+                builder.protocols(protocols);
+            }
+            if (cache == null && cacheDirectory != null) {
+                cache = new Cache(cacheDirectory, cacheMaxSize);
+            }
+            if (cache != null) {
+                builder.cache(cache);
+            }
+            for (Interceptor interceptor : interceptors) {
+                if (interceptor instanceof RetryInterceptor) {
+                    // 重试拦截器通过dispatcher判断请求是否被取消，每个client用自己的副本，不修改传入的实例
+                    interceptor = ((RetryInterceptor)interceptor).withDispatcher(dispatcher);
+                }
+                builder.addInterceptor(interceptor);
+            }
+            for (Interceptor interceptor : networkInterceptors) {
+                builder.addNetworkInterceptor(interceptor);
+            }
+            if (eventListener != null) {
+                builder.addInterceptor(new TimingInterceptor(eventListener, false));
+                builder.addNetworkInterceptor(new TimingInterceptor(eventListener, true));
+            }
+            return builder.build();
+        }
+
+        /**
+         * 配置的构建器，未设置的项使用默认值
+         */
+        public static class Builder {
+
+            private long connectTimeout = 10 * 1000;
+            private long readTimeout = 10 * 1000;
+            private long writeTimeout = 10 * 1000;
+            private int maxRequests = 64;
+            private int maxRequestsPerHost = 5;
+            private int maxIdleConnections = 5;
+            private long keepAliveDuration = 5 * 60 * 1000;
+            private File cacheDirectory;
+            private long cacheMaxSize;
+            private final List<Interceptor> interceptors = new ArrayList<Interceptor>();
+            private final List<Interceptor> networkInterceptors = new ArrayList<Interceptor>();
+            private List<Protocol> protocols;
+            private HttpEventListener eventListener;
+
+            public Builder() {
+            }
+
+            /**
+             * 以已有配置为基础修改
+             *
+             * @param config
+             */
+            public Builder(Config config) {
+                this.connectTimeout = config.connectTimeout;
+                this.readTimeout = config.readTimeout;
+                this.writeTimeout = config.writeTimeout;
+                this.maxRequests = config.maxRequests;
+                this.maxRequestsPerHost = config.maxRequestsPerHost;
+                this.maxIdleConnections = config.maxIdleConnections;
+                this.keepAliveDuration = config.keepAliveDuration;
+                this.cacheDirectory = config.cacheDirectory;
+                this.cacheMaxSize = config.cacheMaxSize;
+                this.interceptors.addAll(config.interceptors);
+                this.networkInterceptors.addAll(config.networkInterceptors);
+                this.protocols = config.protocols;
+                this.eventListener = config.eventListener;
+            }
+
+            /**
+             * 连接超时，默认10秒
+             */
+            public Builder connectTimeout(long timeout, TimeUnit unit) {
+                this.connectTimeout = toMillis(timeout, unit);
+                return this;
+            }
+
+            /**
+             * 读取超时，默认10秒
+             */
+            public Builder readTimeout(long timeout, TimeUnit unit) {
+                this.readTimeout = toMillis(timeout, unit);
+                return this;
+            }
+
+            /**
+             * 写入超时，默认10秒
+             */
+            public Builder writeTimeout(long timeout, TimeUnit unit) {
+                this.writeTimeout = toMillis(timeout, unit);
+                return this;
+            }
+
+            /**
+             * 同时执行的最大异步请求数，默认64
+             */
+            public Builder maxRequests(int maxRequests) {
+                if (maxRequests < 1) {
+                    throw new IllegalArgumentException("maxRequests < 1: " + maxRequests);
+                }
+                this.maxRequests = maxRequests;
+                return this;
+            }
+
+            /**
+             * 对同一个host同时执行的最大异步请求数，默认5
+             */
+            public Builder maxRequestsPerHost(int maxRequestsPerHost) {
+                if (maxRequestsPerHost < 1) {
+                    throw new IllegalArgumentException("maxRequestsPerHost < 1: " + maxRequestsPerHost);
+                }
+                this.maxRequestsPerHost = maxRequestsPerHost;
+                return this;
+            }
+
+            /**
+             * 连接池的最大空闲连接数和空闲连接的保持时间，默认5个、5分钟
+             */
+            public Builder connectionPool(int maxIdleConnections, long keepAliveDuration, TimeUnit unit) {
+                if (maxIdleConnections < 0) {
+                    throw new IllegalArgumentException("maxIdleConnections < 0: " + maxIdleConnections);
+                }
+                this.maxIdleConnections = maxIdleConnections;
+                this.keepAliveDuration = toMillis(keepAliveDuration, unit);
+                if (this.keepAliveDuration <= 0) {
+                    throw new IllegalArgumentException("keepAliveDuration <= 0: " + keepAliveDuration);
+                }
+                return this;
+            }
+
+            /**
+             * 磁盘缓存，默认不缓存
+             *
+             * @param directory 缓存目录，为null时不缓存
+             * @param maxSize 最大字节数
+             */
+            public Builder cache(File directory, long maxSize) {
+                if (directory != null && maxSize <= 0) {
+                    throw new IllegalArgumentException("maxSize <= 0: " + maxSize);
+                }
+                this.cacheDirectory = directory;
+                this.cacheMaxSize = directory == null ? 0 : maxSize;
+                return this;
+            }
+
+            /**
+             * 添加应用拦截器
+             */
+            public Builder addInterceptor(Interceptor interceptor) {
+                if (interceptor == null) {
+                    throw new IllegalArgumentException("interceptor can not be null");
+                }
+                interceptors.add(interceptor);
+                return this;
+            }
+
+            /**
+             * 添加网络拦截器
+             */
+            public Builder addNetworkInterceptor(Interceptor interceptor) {
+                if (interceptor == null) {
+                    throw new IllegalArgumentException("interceptor can not be null");
+                }
+                networkInterceptors.add(interceptor);
+                return this;
+            }
+
+            /**
+             * 使用的协议，默认HTTP/2和HTTP/1.1
+             * <ul>
+             * <li>https下通过ALPN协商HTTP/2，同一个host的请求多路复用一个连接</li>
+             * <li>只用HTTP/1.1时传入{@link Protocol#HTTP_1_1}，每个并发请求占一个连接</li>
+             * </ul>
+             *
+             * @param protocols 必须包含{@link Protocol#HTTP_1_1}，为null时使用默认值
+             */
+            public Builder protocols(List<Protocol> protocols) {
+                if (protocols != null) {
+                    if (!protocols.contains(Protocol.HTTP_1_1)) {
+                        throw new IllegalArgumentException("protocols doesn't contain http/1.1: " + protocols);
+                    }
+                    if (protocols.contains(Protocol.HTTP_1_0)) {
+                        throw new IllegalArgumentException("protocols must not contain http/1.0: " + protocols);
+                    }
+                    protocols = new ArrayList<Protocol>(protocols);
+                }
+                this.protocols = protocols;
+                return this;
+            }
+
+            /**
+             * 接收每个请求各阶段耗时的监听器，可以和HttpUtils共用一个{@link com.andriodutils.network.HttpMetrics}
+             * <ul>
+             * <li>在请求线程中回调，响应体读完或关闭时请求才算结束</li>
+             * <li>在其它拦截器之后执行，重试的每次请求分别计时</li>
+             * </ul>
+             *
+             * @param eventListener 为null时不计时
+             */
+            public Builder eventListener(HttpEventListener eventListener) {
+                this.eventListener = eventListener;
+                return this;
+            }
+
+            public Config build() {
+                return new Config(this);
+            }
+
+            private static long toMillis(long duration, TimeUnit unit) {
+                if (duration < 0) {
+                    throw new IllegalArgumentException("duration < 0: " + duration);
+                }
+                if (unit == null) {
+                    throw new IllegalArgumentException("unit can not be null");
+                }
+                return unit.toMillis(duration);
+            }
+        }
+    }
+
+
     //-------------------------同步的方式请求数据--------------------------
 
     /**
@@ -122,20 +608,136 @@ public class OkHttpManager {
 
     //-------------------------异步的方式请求数据--------------------------
     public static void getAsync(String url, DataCallBack callBack) {
-        getInstance().inner_getAsync(url, callBack);
+        getInstance().inner_getAsync(url, PRIORITY_NORMAL, callBack);
+    }
+
+    /**
+     * 指定优先级的异步GET，名额不足时优先级高的请求先放行
+     *
+     * @param url
+     * @param priority {@link #PRIORITY_CRITICAL}、{@link #PRIORITY_NORMAL}或{@link #PRIORITY_BACKGROUND}
+     * @param callBack
+     */
+    public static void getAsync(String url, int priority, DataCallBack callBack) {
+        getInstance().inner_getAsync(url, priority, callBack);
+    }
+
+    /**
+     * 异步GET，响应的json流式解析成指定类型的对象，不经过中间的String
+     *
+     * @param url
+     * @param cls      结果类型
+     * @param callBack 在主线程回调
+     */
+    public static <T> void getAsync(String url, Class<T> cls, TypedCallBack<T> callBack) {
+        getInstance().inner_getAsync(url, (Type) cls, PRIORITY_NORMAL, callBack);
+    }
+
+    /**
+     * 异步GET，响应的json流式解析成指定类型的对象，泛型类型用TypeToken获取
+     *
+     * @param url
+     * @param type     结果类型，如<code>new TypeToken&lt;List&lt;Bean&gt;&gt;(){}.getType()</code>
+     * @param callBack 在主线程回调
+     */
+    public static <T> void getAsync(String url, Type type, TypedCallBack<T> callBack) {
+        getInstance().inner_getAsync(url, type, PRIORITY_NORMAL, callBack);
+    }
+
+    /**
+     * 指定优先级的异步GET，响应的json流式解析成指定类型的对象
+     *
+     * @param url
+     * @param type     结果类型
+     * @param priority {@link #PRIORITY_CRITICAL}、{@link #PRIORITY_NORMAL}或{@link #PRIORITY_BACKGROUND}
+     * @param callBack 在主线程回调
+     */
+    public static <T> void getAsync(String url, Type type, int priority, TypedCallBack<T> callBack) {
+        getInstance().inner_getAsync(url, type, priority, callBack);
     }
-    
+
+    /**
+     * 排队等待放行的异步请求数
+     *
+     * @return
+     */
+    public static int getQueuedCount() {
+        return getInstance().mScheduler.getQueuedCount();
+    }
+
+    /**
+     * 设置是否合并并发的相同GET请求，合并后只发一次网络请求，结果分发给所有回调
+     *
+     * @param coalesce
+     */
+    public static void setCoalesceGets(boolean coalesce) {
+        getInstance().mCoalesceGets = coalesce;
+    }
+
+    /**
+     * 被合并掉的GET请求数
+     *
+     * @return
+     */
+    public static long getCoalescedCount() {
+        return getInstance().mCoalescedCount.get();
+    }
+
 
     //-------------------------提交表单--------------------------
 
     public static void postAsync(String url, Map<String, String> params, DataCallBack callBack) {
-        getInstance().inner_postAsync(url, params, callBack);
+        getInstance().inner_postAsync(url, params, PRIORITY_NORMAL, callBack);
+    }
+
+    /**
+     * 指定优先级提交表单
+     *
+     * @param url
+     * @param params
+     * @param priority {@link #PRIORITY_CRITICAL}、{@link #PRIORITY_NORMAL}或{@link #PRIORITY_BACKGROUND}
+     * @param callBack
+     */
+    public static void postAsync(String url, Map<String, String> params, int priority, DataCallBack callBack) {
+        getInstance().inner_postAsync(url, params, priority, callBack);
+    }
+
+    /**
+     * 上传文件，文件和流边读边发送，内存占用和文件大小无关
+     *
+     * @param request  上传请求
+     * @param callBack 是{@link UploadCallBack}时回调进度
+     */
+    public static void postAsync(UploadRequest request, DataCallBack callBack) {
+        getInstance().inner_postAsync(request, PRIORITY_NORMAL, callBack);
+    }
+
+    /**
+     * 指定优先级上传文件
+     *
+     * @param request
+     * @param priority {@link #PRIORITY_CRITICAL}、{@link #PRIORITY_NORMAL}或{@link #PRIORITY_BACKGROUND}
+     * @param callBack 是{@link UploadCallBack}时回调进度
+     */
+    public static void postAsync(UploadRequest request, int priority, DataCallBack callBack) {
+        getInstance().inner_postAsync(request, priority, callBack);
     }
     
 
     //-------------------------文件下载--------------------------
     public static void downloadAsync(String url, String desDir, DataCallBack callBack) {
-        getInstance().inner_downloadAsync(url, desDir, callBack);
+        getInstance().inner_downloadAsync(new DownloadRequest(url, desDir), callBack);
+    }
+
+    /**
+     * 断点续传、可分段并行的文件下载
+     *
+     * @param request  下载请求
+     * @param callBack 成功时返回文件路径，是{@link DownloadCallBack}时回调进度
+     * @return 下载任务，可以取消
+     */
+    public static DownloadTask downloadAsync(DownloadRequest request, DataCallBack callBack) {
+        return getInstance().inner_downloadAsync(request, callBack);
     }
     
     /**
@@ -179,16 +781,37 @@ public class OkHttpManager {
      * 内部逻辑请求的方法
      *
      * @param url
+     * @param priority
      * @param callBack
      * @return
      */
-    private void inner_getAsync(String url, final DataCallBack callBack) {
+    private void inner_getAsync(final String url, int priority, final DataCallBack callBack) {
         final Request request = new Request.Builder().url(url).build();
 
-        mClient.newCall(request).enqueue(new Callback() {
+        /**
+         * 合并模式下，相同url已经在请求中就只登记回调
+         */
+        final boolean coalesce = mCoalesceGets;
+        if (coalesce) {
+            synchronized (mInFlightGets) {
+                List<DataCallBack> callBacks = mInFlightGets.get(url);
+                if (callBacks != null) {
+                    callBacks.add(callBack);
+                    mCoalescedCount.incrementAndGet();
+                    return;
+                }
+                callBacks = new ArrayList<DataCallBack>();
+                callBacks.add(callBack);
+                mInFlightGets.put(url, callBacks);
+            }
+        }
+
+        mScheduler.enqueue(mClient.newCall(request), priority, new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
-                deliverDataFailure(request, e, callBack);
+                for (DataCallBack cb : takeCallBacks(coalesce, url, callBack)) {
+                    deliverDataFailure(request, e, cb);
+                }
             }
 
             @Override
@@ -197,13 +820,98 @@ public class OkHttpManager {
                 try {
                     result = response.body().string();
                 } catch (IOException e) {
-                    deliverDataFailure(request, e, callBack);
+                    for (DataCallBack cb : takeCallBacks(coalesce, url, callBack)) {
+                        deliverDataFailure(request, e, cb);
+                    }
+                    return;
+                }
+                for (DataCallBack cb : takeCallBacks(coalesce, url, callBack)) {
+                    deliverDataSuccess(result, cb);
                 }
-                deliverDataSuccess(result, callBack);
             }
         });
     }
 
+    /**
+     * 带类型的GET的内部逻辑，在OkHttp的回调线程中边读边解析
+     *
+     * @param url
+     * @param type
+     * @param priority
+     * @param callBack
+     */
+    private <T> void inner_getAsync(String url, final Type type, int priority, final TypedCallBack<T> callBack) {
+        final Request request = new Request.Builder().url(url).build();
+        mScheduler.enqueue(mClient.newCall(request), priority, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                deliverTypedFailure(request, e, callBack);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                if (!response.isSuccessful()) {
+                    // 错误响应的内容不是要解析的类型，不能当作成功交给Gson
+                    response.close();
+                    deliverTypedFailure(request, new HttpStatusException(request.url().toString(), response.code(),
+                            response.header("Retry-After")), callBack);
+                    return;
+                }
+                T result;
+                try {
+                    result = parseJson(response.body(), type);
+                } catch (IOException e) {
+                    deliverTypedFailure(request, e, callBack);
+                    return;
+                }
+                deliverTypedSuccess(result, callBack);
+            }
+        });
+    }
+
+    /**
+     * 从响应体的字符流解析json，按响应声明的编码解码，默认UTF-8，读完后关闭响应体
+     *
+     * @param body
+     * @param type
+     * @return
+     * @throws IOException 读取失败或json格式错误
+     */
+    private <T> T parseJson(ResponseBody body, Type type) throws IOException {
+        try {
+            JsonReader reader = new JsonReader(body.charStream());
+            return mGson.fromJson(reader, type);
+        } catch (JsonParseException e) {
+            IOException ioe = new IOException("parse json failed: " + e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * 请求结束，取出等待结果的所有回调
+     *
+     * @param coalesce 发起请求时是否是合并模式
+     * @param url
+     * @param callBack 发起请求的回调
+     * @return
+     */
+    private List<DataCallBack> takeCallBacks(boolean coalesce, String url, DataCallBack callBack) {
+        if (coalesce) {
+            synchronized (mInFlightGets) {
+                List<DataCallBack> callBacks = mInFlightGets.remove(url);
+                if (callBacks != null) {
+                    return callBacks;
+                }
+            }
+        }
+        List<DataCallBack> callBacks = new ArrayList<DataCallBack>(1);
+        callBacks.add(callBack);
+        return callBacks;
+    }
+
 
     /**
      * 分发失败的时候调用
@@ -212,7 +920,7 @@ public class OkHttpManager {
      * @param e
      * @param callBack
      */
-    private void deliverDataFailure(final Request request, final IOException e, final DataCallBack callBack) {
+    void deliverDataFailure(final Request request, final IOException e, final DataCallBack callBack) {
         /**
          * 在这里使用异步处理
          */
@@ -226,13 +934,49 @@ public class OkHttpManager {
         });
     }
 
+    /**
+     * 分发下载进度
+     *
+     * @param current
+     * @param total
+     * @param callBack
+     */
+    void deliverProgress(final long current, final long total, final DownloadCallBack callBack) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (callBack != null) {
+                    callBack.onProgress(current, total);
+                }
+            }
+        });
+    }
+
+    /**
+     * 分发上传进度
+     *
+     * @param current
+     * @param total
+     * @param callBack
+     */
+    void deliverProgress(final long current, final long total, final UploadCallBack callBack) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (callBack != null) {
+                    callBack.onProgress(current, total);
+                }
+            }
+        });
+    }
+
     /**
      * 分发成功的时候调用
      *
      * @param result
      * @param callBack
      */
-    private void deliverDataSuccess(final String result, final DataCallBack callBack) {
+    void deliverDataSuccess(final String result, final DataCallBack callBack) {
         /**
          * 在这里使用异步线程处理
          */
@@ -250,10 +994,49 @@ public class OkHttpManager {
         });
     }
 
+    /**
+     * 分发带类型请求的失败
+     *
+     * @param request
+     * @param e
+     * @param callBack
+     */
+    <T> void deliverTypedFailure(final Request request, final IOException e, final TypedCallBack<T> callBack) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (callBack != null) {
+                    callBack.requestFailure(request, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 分发带类型请求解析好的结果
+     *
+     * @param result
+     * @param callBack
+     */
+    <T> void deliverTypedSuccess(final T result, final TypedCallBack<T> callBack) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (callBack != null) {
+                    try {
+                        callBack.requestSuccess(result);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        });
+    }
+
    
 
 
-    private void inner_postAsync(String url, Map<String, String> params, final DataCallBack callBack) {
+    private void inner_postAsync(String url, Map<String, String> params, int priority, final DataCallBack callBack) {
 
         RequestBody requestBody = null;
         if (params == null) {
@@ -292,7 +1075,7 @@ public class OkHttpManager {
         requestBody = builder.build();
         //结果返回
         final Request request = new Request.Builder().url(url).post(requestBody).build();
-        mClient.newCall(request).enqueue(new Callback() {
+        mScheduler.enqueue(mClient.newCall(request), priority, new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
                 deliverDataFailure(request, e, callBack);
@@ -311,15 +1094,29 @@ public class OkHttpManager {
 
 
     /**
-     * 下载文件的内部逻辑处理类
+     * 上传的内部逻辑，请求体在OkHttp的线程中边读边写
      *
-     * @param url      下载地址
-     * @param desDir   目标地址
+     * @param uploadRequest
+     * @param priority
      * @param callBack
      */
-    private void inner_downloadAsync(final String url, final String desDir, final DataCallBack callBack) {
-        final Request request = new Request.Builder().url(url).build();
-        mClient.newCall(request).enqueue(new Callback() {
+    private void inner_postAsync(UploadRequest uploadRequest, int priority, final DataCallBack callBack) {
+        RequestBody requestBody = uploadRequest.buildBody();
+        boolean isRepeatable = UploadRequest.isRepeatable(requestBody);
+        if (callBack instanceof UploadCallBack) {
+            requestBody = new ProgressRequestBody(requestBody, this, (UploadCallBack)callBack,
+                    uploadRequest.getProgressInterval());
+        }
+        Request.Builder builder = new Request.Builder().url(uploadRequest.getUrl());
+        if (uploadRequest.isGzip()) {
+            requestBody = new UploadRequest.GzipBody(requestBody);
+            builder.header("Content-Encoding", "gzip");
+        }
+        if (!isRepeatable) {
+            requestBody = UploadRequest.oneShot(requestBody);
+        }
+        final Request request = builder.post(requestBody).build();
+        mScheduler.enqueue(mClient.newCall(request), priority, new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
                 deliverDataFailure(request, e, callBack);
@@ -327,56 +1124,23 @@ public class OkHttpManager {
 
             @Override
             public void onResponse(Call call, Response response) throws IOException {
-
-                /**
-                 * 在这里进行文件的下载处理
-                 */
-                InputStream inputStream = null;
-                FileOutputStream fileOutputStream = null;
-                try {
-                    //文件名和目标地址
-                    File file = new File(desDir, getFileName(url));
-                    //把请求回来的response对象装换为字节流
-                    inputStream = response.body().byteStream();
-                    fileOutputStream = new FileOutputStream(file);
-                    int len = 0;
-                    byte[] bytes = new byte[2048];
-                    //循环读取数据
-                    while ((len = inputStream.read(bytes)) != -1) {
-                        fileOutputStream.write(bytes, 0, len);
-                    }
-                    //关闭文件输出流
-                    fileOutputStream.flush();
-                    //调用分发数据成功的方法
-                    deliverDataSuccess(file.getAbsolutePath(), callBack);
-                } catch (IOException e) {
-                    //如果失败，调用此方法
-                    deliverDataFailure(request, e, callBack);
-                    e.printStackTrace();
-                } finally {
-                    if (inputStream != null) {
-                        inputStream.close();
-                    }
-                    if (fileOutputStream != null) {
-                        fileOutputStream.close();
-                    }
-
-                }
+                String result = response.body().string();
+                deliverDataSuccess(result, callBack);
             }
-
         });
     }
 
     /**
-     * 根据文件url获取文件的路径名字
+     * 下载文件的内部逻辑处理类
      *
-     * @param url
-     * @return
+     * @param request  下载请求
+     * @param callBack
+     * @return 下载任务
      */
-    private String getFileName(String url) {
-        int separatorIndex = url.lastIndexOf("/");
-        String path = (separatorIndex < 0) ? url : url.substring(separatorIndex + 1, url.length());
-        return path;
+    private DownloadTask inner_downloadAsync(DownloadRequest request, DataCallBack callBack) {
+        DownloadTask task = new DownloadTask(this, mClient, mDownloadExecutor, request, callBack);
+        mDownloadExecutor.execute(task);
+        return task;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,179 @@
+package com.andriodutils.okhttp;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+/**
+ * 按优先级放行异步请求的调度器
+ * <ul>
+ * <li>OkHttp的Dispatcher按先进先出放行，这里在它前面排队，名额空出时先放行优先级高的请求</li>
+ * <li>每个host给{@link OkHttpManager#PRIORITY_CRITICAL}保留一个名额，后台请求最多占一半名额</li>
+ * <li>名额和OkHttp的maxRequests、maxRequestsPerHost一致，放行的请求不会再在OkHttp里排队</li>
+ * </ul>
+ */
+class PriorityScheduler {
+
+    private int mMaxRequests;
+    private int mMaxRequestsPerHost;
+    private int mRunningCount = 0;
+    private final Map<String, Integer> mRunningPerHost = new HashMap<String, Integer>();
+
+    /**
+     * 每个优先级一个队列，下标是优先级
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<PendingCall>[] mQueues = new ArrayDeque[]{
+            new ArrayDeque<PendingCall>(), new ArrayDeque<PendingCall>(), new ArrayDeque<PendingCall>()};
+
+    PriorityScheduler(int maxRequests, int maxRequestsPerHost) {
+        setLimits(maxRequests, maxRequestsPerHost);
+    }
+
+    /**
+     * 修改名额，重新配置OkHttpManager时调用
+     */
+    void setLimits(int maxRequests, int maxRequestsPerHost) {
+        synchronized (this) {
+            mMaxRequests = maxRequests;
+            mMaxRequestsPerHost = maxRequestsPerHost;
+        }
+        for (PendingCall next : promote()) {
+            next.execute();
+        }
+    }
+
+    /**
+     * 提交请求，有名额时立即执行，否则按优先级排队
+     *
+     * @param call
+     * @param priority {@link OkHttpManager#PRIORITY_CRITICAL}等
+     * @param callback
+     */
+    void enqueue(Call call, int priority, Callback callback) {
+        if (priority < OkHttpManager.PRIORITY_CRITICAL || priority > OkHttpManager.PRIORITY_BACKGROUND) {
+            throw new IllegalArgumentException("unknown priority: " + priority);
+        }
+        PendingCall pending = new PendingCall(call, priority, callback);
+        synchronized (this) {
+            if (!isAdmissible(pending)) {
+                mQueues[priority].add(pending);
+                return;
+            }
+            start(pending);
+        }
+        pending.execute();
+    }
+
+    synchronized int getQueuedCount() {
+        return mQueues[0].size() + mQueues[1].size() + mQueues[2].size();
+    }
+
+    synchronized int getRunningCount() {
+        return mRunningCount;
+    }
+
+    private boolean isAdmissible(PendingCall pending) {
+        if (mRunningCount >= mMaxRequests) {
+            return false;
+        }
+        Integer running = mRunningPerHost.get(pending.host);
+        int hostRunning = running == null ? 0 : running;
+        int limit;
+        if (pending.priority == OkHttpManager.PRIORITY_CRITICAL) {
+            limit = mMaxRequestsPerHost;
+        } else if (pending.priority == OkHttpManager.PRIORITY_NORMAL) {
+            limit = Math.max(1, mMaxRequestsPerHost - 1);
+        } else {
+            limit = Math.max(1, mMaxRequestsPerHost / 2);
+        }
+        return hostRunning < limit;
+    }
+
+    private void start(PendingCall pending) {
+        mRunningCount++;
+        Integer running = mRunningPerHost.get(pending.host);
+        mRunningPerHost.put(pending.host, running == null ? 1 : running + 1);
+    }
+
+    private void finished(PendingCall pending) {
+        synchronized (this) {
+            mRunningCount--;
+            Integer running = mRunningPerHost.get(pending.host);
+            if (running == null || running <= 1) {
+                mRunningPerHost.remove(pending.host);
+            } else {
+                mRunningPerHost.put(pending.host, running - 1);
+            }
+        }
+        for (PendingCall next : promote()) {
+            next.execute();
+        }
+    }
+
+    /**
+     * 从高优先级到低优先级放行排队的请求
+     *
+     * @return 放行的请求，需要在锁外执行
+     */
+    private synchronized ArrayDeque<PendingCall> promote() {
+        ArrayDeque<PendingCall> admitted = new ArrayDeque<PendingCall>();
+        for (ArrayDeque<PendingCall> queue : mQueues) {
+            for (Iterator<PendingCall> it = queue.iterator(); it.hasNext() && mRunningCount < mMaxRequests; ) {
+                PendingCall pending = it.next();
+                if (isAdmissible(pending)) {
+                    it.remove();
+                    start(pending);
+                    admitted.add(pending);
+                }
+            }
+        }
+        return admitted;
+    }
+
+    /**
+     * 排队中的请求，执行结束后归还名额
+     */
+    private class PendingCall implements Callback {
+
+        final Call call;
+        final int priority;
+        final String host;
+        final Callback callback;
+
+        PendingCall(Call call, int priority, Callback callback) {
+            this.call = call;
+            this.priority = priority;
+            this.host = call.request().url().host();
+            this.callback = callback;
+        }
+
+        void execute() {
+            call.enqueue(this);
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            try {
+                callback.onFailure(call, e);
+            } finally {
+                finished(this);
+            }
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) throws IOException {
+            try {
+                callback.onResponse(call, response);
+            } finally {
+                finished(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.andriodutils.okhttp;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+import okio.Sink;
+
+/**
+ * 统计写出字节数的请求体，按间隔在主线程回调上传进度
+ */
+class ProgressRequestBody extends RequestBody {
+
+    private final RequestBody mDelegate;
+    private final OkHttpManager mManager;
+    private final OkHttpManager.UploadCallBack mCallBack;
+    private final long mInterval;
+
+    /**
+     * @param delegate
+     * @param manager  分发进度
+     * @param callBack
+     * @param interval 进度回调的最小间隔，毫秒
+     */
+    ProgressRequestBody(RequestBody delegate, OkHttpManager manager, OkHttpManager.UploadCallBack callBack,
+                        long interval) {
+        mDelegate = delegate;
+        mManager = manager;
+        mCallBack = callBack;
+        mInterval = interval;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mDelegate.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return mDelegate.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        CountingSink countingSink = new CountingSink(sink, contentLength());
+        BufferedSink bufferedSink = Okio.buffer(countingSink);
+        mDelegate.writeTo(bufferedSink);
+        // 只刷出缓冲，不关闭外层的sink
+        bufferedSink.flush();
+        countingSink.deliverProgress(true);
+    }
+
+    /**
+     * 统计写出的字节数
+     */
+    private class CountingSink extends ForwardingSink {
+
+        private final long mTotal;
+        private long mWritten = 0;
+        private long mDelivered = -1;
+        private long mLastProgressTime = 0;
+
+        CountingSink(Sink delegate, long total) {
+            super(delegate);
+            mTotal = total;
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            super.write(source, byteCount);
+            mWritten += byteCount;
+            deliverProgress(false);
+        }
+
+        void deliverProgress(boolean force) {
+            long now = System.currentTimeMillis();
+            if (mWritten == mDelivered || (!force && now - mLastProgressTime < mInterval)) {
+                return;
+            }
+            mLastProgressTime = now;
+            mDelivered = mWritten;
+            mManager.deliverProgress(mWritten, mTotal, mCallBack);
+        }
+    }
+}
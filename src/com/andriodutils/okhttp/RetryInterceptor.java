@@ -0,0 +1,181 @@
+package com.andriodutils.okhttp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import com.andriodutils.network.CircuitBreaker;
+import com.andriodutils.network.HttpStatusException;
+import com.andriodutils.network.RetryPolicy;
+
+import okhttp3.Call;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.internal.http.UnrepeatableRequestBody;
+
+/**
+ * 重试和熔断拦截器，和HttpUtils共用{@link RetryPolicy}和{@link CircuitBreaker}
+ * <ul>
+ * <li>使用方式：<code>new OkHttpManager.Config.Builder().addInterceptor(new RetryInterceptor(new RetryPolicy(), new CircuitBreaker()))</code></li>
+ * <li>网络异常和408、429、5xx响应按{@link RetryPolicy}退避重试，响应有Retry-After时按它等待</li>
+ * <li>重试用完后，错误响应照常返回给回调，不会变成异常</li>
+ * <li>host熔断时直接抛出{@link com.andriodutils.network.CircuitOpenException}，不发网络请求</li>
+ * <li>请求体实现了{@link UnrepeatableRequestBody}时不重试，如{@link UploadRequest}中的流，错误响应或异常直接返回给调用方</li>
+ * <li>被取消的请求直接抛出异常，不重试，也不算作host的失败。通过{@link OkHttpManager.Config}构建的client使用
+ * 绑定了自己{@link Dispatcher}的副本，用来找到请求对应的{@link Call}判断是否被取消，传入的实例不会被修改</li>
+ * </ul>
+ */
+public class RetryInterceptor implements Interceptor {
+
+    /** 等待重试时检查取消的间隔 **/
+    private static final long    CANCEL_CHECK_INTERVAL = 100;
+    /** OkHttp取消请求时抛出的异常信息 **/
+    private static final String  CANCELED_MESSAGE      = "Canceled";
+
+    private final RetryPolicy    mRetryPolicy;
+    private final CircuitBreaker mCircuitBreaker;
+    private final Dispatcher     mDispatcher;
+
+    /**
+     * @param retryPolicy    null表示不重试
+     * @param circuitBreaker null表示不熔断
+     */
+    public RetryInterceptor(RetryPolicy retryPolicy, CircuitBreaker circuitBreaker) {
+        this(retryPolicy, circuitBreaker, null);
+    }
+
+    private RetryInterceptor(RetryPolicy retryPolicy, CircuitBreaker circuitBreaker, Dispatcher dispatcher) {
+        mRetryPolicy = retryPolicy;
+        mCircuitBreaker = circuitBreaker;
+        mDispatcher = dispatcher;
+    }
+
+    /**
+     * 复制一个绑定client的dispatcher的拦截器，用来判断请求是否被取消，由{@link OkHttpManager.Config}构建client时调用。
+     * 每个client一个副本，重新配置后旧client的请求仍然在旧的dispatcher中查找
+     *
+     * @param dispatcher null表示只按异常信息判断取消
+     * @return 重试策略和熔断器相同的新实例
+     */
+    RetryInterceptor withDispatcher(Dispatcher dispatcher) {
+        return new RetryInterceptor(mRetryPolicy, mCircuitBreaker, dispatcher);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String url = request.url().toString();
+        String host = CircuitBreaker.getHost(url);
+        // 流已经读过，再发送只会得到"已消费"的异常，掩盖真正的响应或异常
+        boolean isRepeatable = !(request.body() instanceof UnrepeatableRequestBody);
+        for (int retries = 0; ; retries++) {
+            if (mCircuitBreaker != null) {
+                mCircuitBreaker.checkRequest(host);
+            }
+
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                if (isCanceled(request, e)) {
+                    // 取消不是host的问题，也不能重试
+                    throw e;
+                }
+                if (mCircuitBreaker != null) {
+                    mCircuitBreaker.onFailure(host, e);
+                }
+                if (!isRepeatable) {
+                    throw e;
+                }
+                waitForRetry(request, retries, e);
+                continue;
+            }
+
+            if (response.code() < 400) {
+                if (mCircuitBreaker != null) {
+                    mCircuitBreaker.onSuccess(host);
+                }
+                return response;
+            }
+
+            HttpStatusException statusException = new HttpStatusException(url, response.code(),
+                    response.header("Retry-After"));
+            if (mCircuitBreaker != null) {
+                mCircuitBreaker.onFailure(host, statusException);
+            }
+            long delay = isRepeatable ? getRetryDelay(retries, request.method(), statusException) : -1;
+            if (delay < 0) {
+                return response;
+            }
+            response.close();
+            sleep(request, delay, statusException);
+        }
+    }
+
+    private long getRetryDelay(int retries, String method, IOException e) {
+        return mRetryPolicy == null ? -1 : mRetryPolicy.getRetryDelay(retries, method, e);
+    }
+
+    /**
+     * 等待下次重试，不重试时抛出e
+     */
+    private void waitForRetry(Request request, int retries, IOException e) throws IOException {
+        long delay = getRetryDelay(retries, request.method(), e);
+        if (delay < 0) {
+            throw e;
+        }
+        sleep(request, delay, e);
+    }
+
+    /**
+     * 等待delay毫秒，期间请求被取消时抛出异常
+     */
+    private void sleep(Request request, long delay, IOException cause) throws IOException {
+        long end = System.currentTimeMillis() + delay;
+        try {
+            for (long left = delay; left > 0; left = end - System.currentTimeMillis()) {
+                Thread.sleep(mDispatcher == null ? left : Math.min(left, CANCEL_CHECK_INTERVAL));
+                if (isCanceled(request)) {
+                    IOException canceled = new IOException(CANCELED_MESSAGE);
+                    canceled.initCause(cause);
+                    throw canceled;
+                }
+            }
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException ioe = new InterruptedIOException("interrupted while waiting for retry");
+            ioe.initCause(cause);
+            throw ioe;
+        }
+    }
+
+    /**
+     * 请求是否被取消，OkHttp 3.8的取消只是一个普通的IOException
+     */
+    private boolean isCanceled(Request request, IOException e) {
+        return CANCELED_MESSAGE.equals(e.getMessage()) || isCanceled(request);
+    }
+
+    /**
+     * 在dispatcher正在执行的call中找到请求对应的call，前面的拦截器改写过请求时按tag匹配，tag不唯一时无法判断
+     */
+    private boolean isCanceled(Request request) {
+        Dispatcher dispatcher = mDispatcher;
+        if (dispatcher == null) {
+            return false;
+        }
+        Call tagged = null;
+        int taggedCount = 0;
+        for (Call call : dispatcher.runningCalls()) {
+            if (call.request() == request) {
+                return call.isCanceled();
+            }
+            if (call.request().tag() == request.tag()) {
+                tagged = call;
+                taggedCount++;
+            }
+        }
+        return taggedCount == 1 && tagged.isCanceled();
+    }
+}
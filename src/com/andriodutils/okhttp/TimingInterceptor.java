@@ -0,0 +1,182 @@
+package com.andriodutils.okhttp;
+
+import java.io.IOException;
+
+import com.andriodutils.network.HttpEventListener;
+import com.andriodutils.network.HttpTiming;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * 统计请求各阶段耗时的拦截器，由{@link OkHttpManager.Config.Builder#eventListener(HttpEventListener)}安装
+ * <ul>
+ * <li>应用拦截器创建{@link HttpTiming}，响应体读完或关闭时回调{@link HttpEventListener}</li>
+ * <li>网络拦截器记录获取连接（包括DNS、TCP和TLS）、发送请求、首字节的耗时和网络上收到的字节数</li>
+ * <li>两者在同一个线程中执行，通过ThreadLocal传递计时</li>
+ * <li>命中缓存的请求没有网络阶段，收到的字节数为0</li>
+ * </ul>
+ */
+class TimingInterceptor implements Interceptor {
+
+    private static final ThreadLocal<Exchange> sExchange = new ThreadLocal<Exchange>();
+
+    private final HttpEventListener mListener;
+    private final boolean mIsNetwork;
+
+    /**
+     * @param listener
+     * @param isNetwork 是否作为网络拦截器
+     */
+    TimingInterceptor(HttpEventListener listener, boolean isNetwork) {
+        mListener = listener;
+        mIsNetwork = isNetwork;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        return mIsNetwork ? interceptNetwork(chain) : interceptApplication(chain);
+    }
+
+    private Response interceptApplication(Chain chain) throws IOException {
+        Request request = chain.request();
+        Exchange exchange = new Exchange(new HttpTiming(request.method(), request.url().toString()));
+        sExchange.set(exchange);
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            mListener.onRequestEnd(exchange.timing.end(e));
+            throw e;
+        } finally {
+            sExchange.remove();
+        }
+
+        exchange.timing.setResponseCode(response.code());
+        if (response.body() == null) {
+            mListener.onRequestEnd(exchange.timing.end(null));
+            return response;
+        }
+        return response.newBuilder().body(new TimedBody(response.body(), exchange, true)).build();
+    }
+
+    private Response interceptNetwork(Chain chain) throws IOException {
+        Exchange exchange = sExchange.get();
+        if (exchange == null) {
+            return chain.proceed(chain.request());
+        }
+
+        HttpTiming timing = exchange.timing;
+        timing.setConnectMillis(timing.elapsedMillis() - exchange.mark);
+        Request request = chain.request();
+        long requestStart = System.currentTimeMillis();
+        Response response = chain.proceed(request);
+        exchange.mark = timing.elapsedMillis();
+        timing.setRequestMillis(Math.max(0, response.sentRequestAtMillis() - requestStart));
+        timing.setFirstByteMillis(Math.max(0, response.receivedResponseAtMillis() - response.sentRequestAtMillis()));
+        timing.setBytesSent(request.body() == null ? 0 : Math.max(0, request.body().contentLength()));
+        timing.setBytesReceived(0);
+        if (response.body() == null) {
+            return response;
+        }
+        return response.newBuilder().body(new TimedBody(response.body(), exchange, false)).build();
+    }
+
+    /**
+     * 一次请求的计时，mark是上一个阶段结束的时间
+     */
+    private static class Exchange {
+
+        final HttpTiming timing;
+        long mark;
+
+        Exchange(HttpTiming timing) {
+            this.timing = timing;
+            this.mark = timing.elapsedMillis();
+        }
+    }
+
+    /**
+     * 统计读取响应体的响应体
+     */
+    private class TimedBody extends ResponseBody {
+
+        private final ResponseBody mDelegate;
+        private final Exchange mExchange;
+        private final boolean mIsEnd;
+        private final long mBodyStart;
+        private BufferedSource mSource;
+        private boolean mIsReported = false;
+
+        /**
+         * @param delegate
+         * @param exchange
+         * @param isEnd    true表示读完时回调，false表示只统计网络上收到的字节数
+         */
+        TimedBody(ResponseBody delegate, Exchange exchange, boolean isEnd) {
+            mDelegate = delegate;
+            mExchange = exchange;
+            mIsEnd = isEnd;
+            mBodyStart = exchange.timing.elapsedMillis();
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mDelegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return mDelegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            if (mSource == null) {
+                mSource = Okio.buffer(new ForwardingSource(mDelegate.source()) {
+                    @Override
+                    public long read(Buffer sink, long byteCount) throws IOException {
+                        long read;
+                        try {
+                            read = super.read(sink, byteCount);
+                        } catch (IOException e) {
+                            end(e);
+                            throw e;
+                        }
+                        if (read == -1) {
+                            end(null);
+                        } else if (!mIsEnd) {
+                            HttpTiming timing = mExchange.timing;
+                            timing.setBytesReceived(timing.getBytesReceived() + read);
+                        }
+                        return read;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        end(null);
+                    }
+                });
+            }
+            return mSource;
+        }
+
+        private void end(IOException failure) {
+            if (!mIsEnd || mIsReported) {
+                return;
+            }
+            mIsReported = true;
+            HttpTiming timing = mExchange.timing;
+            timing.setBodyMillis(timing.elapsedMillis() - mBodyStart);
+            mListener.onRequestEnd(timing.end(failure));
+        }
+    }
+}
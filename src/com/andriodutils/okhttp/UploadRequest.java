@@ -0,0 +1,351 @@
+package com.andriodutils.okhttp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.FormBody;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
+import okhttp3.internal.http.UnrepeatableRequestBody;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * 文件上传请求，由{@link OkHttpManager#postAsync(UploadRequest, OkHttpManager.DataCallBack)}提交
+ * <ul>
+ * <li>{@link #addParam(String, String)}、{@link #addFile(String, File)}、
+ * {@link #addStream(String, String, InputStream, long, String)} 组成multipart/form-data，只有参数时按表单提交</li>
+ * <li>{@link #setBody(File, String)}、{@link #setBody(InputStream, long, String)} 直接把文件或流作为请求体</li>
+ * <li>文件和流边读边写，不会整体读入内存，长度已知时带Content-Length，未知时分块发送</li>
+ * <li>{@link #setGzip(boolean)} 压缩请求体，压缩后长度未知，分块发送</li>
+ * <li>含有流的请求体只能发送一次，实现{@link UnrepeatableRequestBody}，OkHttp和{@link RetryInterceptor}都不会重发</li>
+ * <li>{@link #setProgressInterval(long)} 进度回调的最小间隔</li>
+ * </ul>
+ */
+public class UploadRequest {
+
+    /**
+     * 默认进度回调间隔，毫秒
+     */
+    public static final long DEFAULT_PROGRESS_INTERVAL = DownloadRequest.DEFAULT_PROGRESS_INTERVAL;
+
+    private final String url;
+    private final List<String> paramNames = new ArrayList<String>();
+    private final List<String> paramValues = new ArrayList<String>();
+    private final List<MultipartBody.Part> parts = new ArrayList<MultipartBody.Part>();
+    private RequestBody body;
+    private boolean gzip = false;
+    private long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+
+    /**
+     * @param url 上传地址
+     */
+    public UploadRequest(String url) {
+        if (url == null) {
+            throw new IllegalArgumentException("url can not be null");
+        }
+        this.url = url;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * 添加表单参数
+     *
+     * @param name
+     * @param value null当作空字符串
+     * @return this
+     */
+    public UploadRequest addParam(String name, String value) {
+        paramNames.add(name);
+        paramValues.add(value == null ? "" : value);
+        return this;
+    }
+
+    /**
+     * 添加文件，Content-Type根据文件名推断
+     *
+     * @param name 表单字段名
+     * @param file
+     * @return this
+     */
+    public UploadRequest addFile(String name, File file) {
+        return addFile(name, file, null);
+    }
+
+    /**
+     * 添加文件
+     *
+     * @param name        表单字段名
+     * @param file
+     * @param contentType null表示根据文件名推断
+     * @return this
+     */
+    public UploadRequest addFile(String name, File file, String contentType) {
+        if (file == null) {
+            throw new IllegalArgumentException("file can not be null");
+        }
+        RequestBody fileBody = RequestBody.create(parseMediaType(contentType, file.getName()), file);
+        parts.add(MultipartBody.Part.createFormData(name, file.getName(), fileBody));
+        return this;
+    }
+
+    /**
+     * 添加流作为文件，流只能读一次，请求失败后不能重试
+     *
+     * @param name        表单字段名
+     * @param fileName    文件名
+     * @param input       发送时读到结尾并关闭
+     * @param length      流的字节数，-1表示未知
+     * @param contentType null表示根据文件名推断
+     * @return this
+     */
+    public UploadRequest addStream(String name, String fileName, InputStream input, long length, String contentType) {
+        RequestBody streamBody = new StreamBody(parseMediaType(contentType, fileName), input, length);
+        parts.add(MultipartBody.Part.createFormData(name, fileName, streamBody));
+        return this;
+    }
+
+    /**
+     * 把文件直接作为请求体，不能再添加参数和文件
+     *
+     * @param file
+     * @param contentType null表示根据文件名推断
+     * @return this
+     */
+    public UploadRequest setBody(File file, String contentType) {
+        if (file == null) {
+            throw new IllegalArgumentException("file can not be null");
+        }
+        body = RequestBody.create(parseMediaType(contentType, file.getName()), file);
+        return this;
+    }
+
+    /**
+     * 把流直接作为请求体，不能再添加参数和文件
+     *
+     * @param input       发送时读到结尾并关闭
+     * @param length      流的字节数，-1表示未知
+     * @param contentType 可以为null
+     * @return this
+     */
+    public UploadRequest setBody(InputStream input, long length, String contentType) {
+        body = new StreamBody(contentType == null ? null : MediaType.parse(contentType), input, length);
+        return this;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * 是否用gzip压缩请求体，服务器需要支持Content-Encoding: gzip
+     *
+     * @param gzip 默认false
+     * @return this
+     */
+    public UploadRequest setGzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    public long getProgressInterval() {
+        return progressInterval;
+    }
+
+    /**
+     * 进度回调的最小间隔，毫秒，默认{@link #DEFAULT_PROGRESS_INTERVAL}
+     *
+     * @param progressInterval
+     * @return this
+     */
+    public UploadRequest setProgressInterval(long progressInterval) {
+        if (progressInterval < 0) {
+            throw new IllegalArgumentException("progressInterval can not be negative");
+        }
+        this.progressInterval = progressInterval;
+        return this;
+    }
+
+    /**
+     * 创建请求体，没有压缩
+     *
+     * @return
+     */
+    RequestBody buildBody() {
+        if (body != null) {
+            if (!parts.isEmpty() || !paramNames.isEmpty()) {
+                throw new IllegalStateException("body can not be set with params or files");
+            }
+            return body;
+        }
+        if (parts.isEmpty()) {
+            FormBody.Builder builder = new FormBody.Builder();
+            for (int i = 0; i < paramNames.size(); i++) {
+                builder.add(paramNames.get(i), paramValues.get(i));
+            }
+            return builder.build();
+        }
+        MultipartBody.Builder builder = new MultipartBody.Builder().setType(MultipartBody.FORM);
+        for (int i = 0; i < paramNames.size(); i++) {
+            builder.addFormDataPart(paramNames.get(i), paramValues.get(i));
+        }
+        boolean isRepeatable = true;
+        for (MultipartBody.Part part : parts) {
+            builder.addPart(part);
+            isRepeatable &= isRepeatable(part.body());
+        }
+        return isRepeatable ? builder.build() : new OneShotBody(builder.build());
+    }
+
+    /**
+     * 请求体能否再发送一次
+     *
+     * @param body
+     * @return 实现了{@link UnrepeatableRequestBody}时为false
+     */
+    static boolean isRepeatable(RequestBody body) {
+        return !(body instanceof UnrepeatableRequestBody);
+    }
+
+    /**
+     * 包装后的请求体仍然标记为只能发送一次
+     *
+     * @param body
+     * @return body已经有标记时直接返回
+     */
+    static RequestBody oneShot(RequestBody body) {
+        return isRepeatable(body) ? new OneShotBody(body) : body;
+    }
+
+    private static MediaType parseMediaType(String contentType, String fileName) {
+        if (contentType == null && fileName != null) {
+            contentType = URLConnection.guessContentTypeFromName(fileName);
+        }
+        MediaType mediaType = contentType == null ? null : MediaType.parse(contentType);
+        return mediaType == null ? MediaType.parse("application/octet-stream") : mediaType;
+    }
+
+    /**
+     * 从流读取的请求体，只能写一次
+     */
+    private static class StreamBody extends RequestBody implements UnrepeatableRequestBody {
+
+        private final MediaType mContentType;
+        private final InputStream mInput;
+        private final long mLength;
+        private boolean mIsWritten = false;
+
+        StreamBody(MediaType contentType, InputStream input, long length) {
+            if (input == null) {
+                throw new IllegalArgumentException("input can not be null");
+            }
+            mContentType = contentType;
+            mInput = input;
+            mLength = length;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mContentType;
+        }
+
+        @Override
+        public long contentLength() {
+            return mLength;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            synchronized (this) {
+                if (mIsWritten) {
+                    throw new IOException("input stream of body has been consumed");
+                }
+                mIsWritten = true;
+            }
+            Source source = Okio.source(mInput);
+            try {
+                sink.writeAll(source);
+            } finally {
+                source.close();
+            }
+        }
+    }
+
+    /**
+     * 只能发送一次的请求体，包装含有流的multipart、压缩和进度请求体
+     */
+    private static class OneShotBody extends RequestBody implements UnrepeatableRequestBody {
+
+        private final RequestBody mDelegate;
+
+        OneShotBody(RequestBody delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mDelegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return mDelegate.contentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            mDelegate.writeTo(sink);
+        }
+    }
+
+    /**
+     * gzip压缩的请求体，压缩后长度未知
+     */
+    static class GzipBody extends RequestBody {
+
+        private final RequestBody mDelegate;
+
+        GzipBody(RequestBody delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mDelegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return -1;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            GzipSink gzip = new GzipSink(sink);
+            BufferedSink gzipSink = Okio.buffer(gzip);
+            boolean isWritten = false;
+            try {
+                mDelegate.writeTo(gzipSink);
+                isWritten = true;
+            } finally {
+                if (isWritten) {
+                    // 写入gzip结尾，并释放Deflater
+                    gzipSink.close();
+                } else {
+                    // 连接已经出错，不再写结尾，只释放Deflater的native内存
+                    gzip.deflater().end();
+                }
+            }
+        }
+    }
+}